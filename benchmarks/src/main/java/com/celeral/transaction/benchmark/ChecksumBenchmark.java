@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.celeral.transaction.fileupload.ChecksumType;
+import com.celeral.transaction.fileupload.UploadPayload;
+
+/**
+ * Measures the verification of the payload checksums by a single thread and by several threads at
+ * once; the two should scale linearly as long as the checksums share no state.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChecksumBenchmark {
+  @Param({"ADLER32", "CRC32", "CRC32C", "XXHASH64"})
+  ChecksumType checksumType;
+
+  @Param({"4096", "1048576"})
+  int size;
+
+  UploadPayload payload;
+
+  @Setup
+  public void setup() {
+    final byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    payload = new UploadPayload(0, data, checksumType);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean verify() {
+    return payload.verifyChecksum();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean verifyContended() {
+    return payload.verifyChecksum();
+  }
+}
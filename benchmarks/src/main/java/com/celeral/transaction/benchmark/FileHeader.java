@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.benchmark;
+
+import java.io.File;
+
+import com.celeral.transaction.fileupload.UploadTransactionHeader;
+
+class FileHeader implements UploadTransactionHeader {
+  private final String path;
+  private final long size;
+  private final long mtime;
+
+  FileHeader(String path) {
+    this(path, new File(path).length(), new File(path).lastModified());
+  }
+
+  FileHeader(String path, long size, long mtime) {
+    this.path = path;
+    this.size = size;
+    this.mtime = mtime;
+  }
+
+  @Override
+  public String getPath() {
+    return path;
+  }
+
+  @Override
+  public long getSize() {
+    return size;
+  }
+
+  @Override
+  public long getModifiedTime() {
+    return mtime;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.celeral.transaction.fileupload.MappedUploadPayloadIterator;
+import com.celeral.transaction.fileupload.PayloadBufferPool;
+import com.celeral.transaction.fileupload.UploadPayload;
+import com.celeral.transaction.fileupload.UploadPayloadIterator;
+
+/** Measures reading a file into payloads with each of the iterators, from 1 KB to 4 MB blocks. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadIteratorBenchmark {
+  @Param({"1024", "16384", "262144", "4194304"})
+  int blockSize;
+
+  @Param({"stream", "pooled", "mapped"})
+  String iterator;
+
+  @Param({"67108864"})
+  long fileSize;
+
+  File file;
+  FileHeader header;
+  PayloadBufferPool pool;
+
+  @Setup
+  public void setup() throws IOException {
+    file = File.createTempFile("iterator", ".bin");
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      final byte[] block = new byte[1 << 20];
+      new Random(0).nextBytes(block);
+      for (long written = 0; written < fileSize; written += block.length) {
+        raf.write(block, 0, (int) Math.min(block.length, fileSize - written));
+      }
+    }
+    header = new FileHeader(file.getPath());
+    pool = new PayloadBufferPool(false, 4 << 20, 256, 16, 0);
+  }
+
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  private static void drain(Iterator<UploadPayload> payloads, Blackhole blackhole) {
+    while (payloads.hasNext()) {
+      final UploadPayload payload = payloads.next();
+      blackhole.consume(payload.getLength());
+      payload.release();
+    }
+  }
+
+  @Benchmark
+  public void iterate(Blackhole blackhole) throws IOException {
+    switch (iterator) {
+      case "stream":
+        try (UploadPayloadIterator payloads = new UploadPayloadIterator(header, blockSize)) {
+          drain(payloads, blackhole);
+        }
+        break;
+
+      case "pooled":
+        try (UploadPayloadIterator payloads =
+            new UploadPayloadIterator(header, blockSize, null, pool)) {
+          drain(payloads, blackhole);
+        }
+        break;
+
+      case "mapped":
+        try (MappedUploadPayloadIterator payloads =
+            new MappedUploadPayloadIterator(header, blockSize)) {
+          drain(payloads, blackhole);
+        }
+        break;
+
+      default:
+        throw new IllegalArgumentException("Unknown iterator " + iterator);
+    }
+  }
+}
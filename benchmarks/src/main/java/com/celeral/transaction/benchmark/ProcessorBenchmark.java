@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.celeral.transaction.Transaction;
+import com.celeral.transaction.TransactionProcessor;
+import com.celeral.transaction.processor.AbstractConcurrentTransactionProcessor;
+import com.celeral.transaction.processor.AbstractSerialTransactionProcessor;
+import com.celeral.transaction.processor.AbstractTransactionProcessor;
+
+/**
+ * Measures the overhead the processors add to each call by driving transactions which do no work
+ * of their own. The serial processor supports a single thread only, so run the multi threaded
+ * variants with {@code -p processor=concurrent}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProcessorBenchmark {
+  static final Object COMMIT = new Object();
+  static final Object PAYLOAD = new Object();
+
+  @Param({"serial", "concurrent"})
+  String processor;
+
+  AbstractTransactionProcessor instance;
+
+  static class NoopTransaction implements Transaction<Object, Object> {
+    static final NoopTransaction INSTANCE = new NoopTransaction();
+
+    @Override
+    public Result init(Object header, Consumer<Object> details) {
+      return Result.CONTINUE;
+    }
+
+    @Override
+    public Result process(Object payload, Consumer<Object> details) {
+      return payload == COMMIT ? Result.COMMIT : Result.CONTINUE;
+    }
+
+    @Override
+    public void commit() {}
+
+    @Override
+    public void abort() {}
+  }
+
+  @State(Scope.Thread)
+  public static class OpenTransaction {
+    final TransactionProcessor.ResultHolder holder = new TransactionProcessor.ResultHolder();
+    long transactionId;
+
+    @Setup
+    public void setup(ProcessorBenchmark benchmark) {
+      transactionId = benchmark.instance.init(null).getTransactionId();
+    }
+  }
+
+  @Setup
+  public void setup() {
+    switch (processor) {
+      case "serial":
+        instance =
+            new AbstractSerialTransactionProcessor() {
+              @Override
+              public Transaction<?, ?> newTransaction() {
+                return NoopTransaction.INSTANCE;
+              }
+            };
+        break;
+
+      case "concurrent":
+        instance =
+            new AbstractConcurrentTransactionProcessor() {
+              @Override
+              public Transaction<?, ?> newTransaction() {
+                return NoopTransaction.INSTANCE;
+              }
+            };
+        break;
+
+      default:
+        throw new IllegalArgumentException("Unknown processor " + processor);
+    }
+  }
+
+  /** Full life cycle of a transaction: init, store, retrieve and remove on commit. */
+  @Benchmark
+  public TransactionProcessor.ProcessResult initAndCommit() {
+    return instance.process(instance.init(null).getTransactionId(), COMMIT);
+  }
+
+  @Benchmark
+  public TransactionProcessor.ProcessResult process(OpenTransaction open) {
+    return instance.process(open.transactionId, PAYLOAD);
+  }
+
+  @Benchmark
+  public TransactionProcessor.ProcessResult processWithHolder(OpenTransaction open) {
+    return instance.process(open.transactionId, PAYLOAD, open.holder);
+  }
+}
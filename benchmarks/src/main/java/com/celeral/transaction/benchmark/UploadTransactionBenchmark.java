@@ -0,0 +1,181 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.celeral.transaction.Transaction;
+import com.celeral.transaction.TransactionProcessor;
+import com.celeral.transaction.fileupload.UploadPayload;
+import com.celeral.transaction.fileupload.UploadTransaction;
+import com.celeral.transaction.processor.AbstractConcurrentTransactionProcessor;
+
+/**
+ * Measures uploading a file end to end, from the init to the commit, with the payloads already in
+ * memory. The files are written to tmpfs by default so that the disk does not dominate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UploadTransactionBenchmark {
+  @Param({"/dev/shm"})
+  String directory;
+
+  @Param({"16777216"})
+  int fileSize;
+
+  @Param({"4096", "65536"})
+  int blockSize;
+
+  @Param({"false", "true"})
+  boolean randomAccess;
+
+  /** Number of payloads handed to the processor per call; 1 processes them one at a time. */
+  @Param({"1", "16"})
+  int batchSize;
+
+  File root;
+  FileHeader header;
+  List<List<UploadPayload>> batches;
+  TransactionProcessor processor;
+
+  static class FileUploadTransaction extends UploadTransaction<FileUploadTransaction>
+      implements UploadTransaction.Document {
+    final File root;
+    File tempFile;
+
+    FileUploadTransaction(File root) {
+      this.root = root;
+    }
+
+    @Override
+    public FileUploadTransaction createTemporaryDocument(String path) throws IOException {
+      tempFile = File.createTempFile(path, null, root);
+      return this;
+    }
+
+    @Override
+    public OutputStream openOutputStream() throws IOException {
+      return new FileOutputStream(tempFile);
+    }
+
+    @Override
+    public boolean delete() {
+      return tempFile.delete();
+    }
+
+    @Override
+    public boolean renameTo(String path) {
+      return tempFile.renameTo(new File(root, path));
+    }
+  }
+
+  static class RandomAccessFileUploadTransaction extends FileUploadTransaction
+      implements UploadTransaction.RandomAccessDocument {
+    RandomAccessFileUploadTransaction(File root) {
+      super(root);
+    }
+
+    @Override
+    public FileChannel openChannel() throws IOException {
+      return FileChannel.open(
+          tempFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+  }
+
+  @Setup
+  public void setup() {
+    root = new File(directory);
+    if (!root.isDirectory()) {
+      root = new File(System.getProperty("java.io.tmpdir"));
+    }
+    header = new FileHeader("upload.bin", fileSize, System.currentTimeMillis());
+
+    final Random random = new Random(fileSize);
+    batches = new ArrayList<>();
+    List<UploadPayload> batch = new ArrayList<>(batchSize);
+    for (long offset = 0; offset < fileSize; offset += blockSize) {
+      final byte[] data = new byte[(int) Math.min(blockSize, fileSize - offset)];
+      random.nextBytes(data);
+      batch.add(new UploadPayload(offset, data));
+      if (batch.size() == batchSize) {
+        batches.add(batch);
+        batch = new ArrayList<>(batchSize);
+      }
+    }
+    if (!batch.isEmpty()) {
+      batches.add(batch);
+    }
+
+    processor =
+        new AbstractConcurrentTransactionProcessor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return randomAccess
+                ? new RandomAccessFileUploadTransaction(root)
+                : new FileUploadTransaction(root);
+          }
+        };
+  }
+
+  @TearDown
+  public void tearDown() {
+    new File(root, header.getPath()).delete();
+  }
+
+  @Benchmark
+  public TransactionProcessor.ProcessResult upload() {
+    final long transactionId = processor.init(header).getTransactionId();
+
+    TransactionProcessor.ProcessResult result = null;
+    for (List<UploadPayload> batch : batches) {
+      result =
+          batchSize == 1
+              ? processor.process(transactionId, batch.get(0))
+              : processor.processBatch(transactionId, batch);
+    }
+
+    if (result == null || result.getResult() != Transaction.Result.COMMIT) {
+      throw new IllegalStateException("Upload did not commit: " + result);
+    }
+    return result;
+  }
+}
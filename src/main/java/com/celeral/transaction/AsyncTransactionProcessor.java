@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.celeral.transaction.TransactionProcessor.InitializationResult;
+import com.celeral.transaction.TransactionProcessor.ProcessResult;
+
+/**
+ * Non-blocking counterpart of {@link TransactionProcessor}. The calls return immediately and the
+ * work is carried out on threads owned by the implementation.
+ */
+public interface AsyncTransactionProcessor {
+  CompletableFuture<InitializationResult> initAsync(Object header);
+
+  /**
+   * Schedules the payload to be processed. Payloads submitted for the same transaction are
+   * processed one at a time in the order of submission while the payloads for different
+   * transactions could be processed in parallel.
+   *
+   * @param transactionId id of the transaction as received from {@link #initAsync(Object)}
+   * @param payload payload to be processed
+   * @return future which completes with the result of processing the payload
+   */
+  CompletableFuture<ProcessResult> processAsync(long transactionId, Object payload);
+}
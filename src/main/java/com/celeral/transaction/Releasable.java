@@ -0,0 +1,26 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction;
+
+/**
+ * Payload holding on to resources, e.g. a pooled buffer, which whoever owns it gives up once done
+ * with it. The processors take the ownership of the payloads handed to them and release the ones
+ * which no transaction gets to process.
+ */
+public interface Releasable {
+  /** Gives up the resources of the payload; it must not be touched afterwards. */
+  void release();
+}
@@ -15,6 +15,8 @@
  */
 package com.celeral.transaction;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 public interface Transaction<H, P> {
@@ -46,6 +48,61 @@ public interface Transaction<H, P> {
    */
   Result process(P payload, Consumer<Object> details) throws Exception;
 
+  /**
+   * Processes a batch of payloads associated with the transaction in one go. By default the
+   * payloads are processed one at a time until one of them results in a {@link Result#COMMIT} or
+   * {@link Result#ABORT}; implementations can override it to amortize the cost over the batch.
+   *
+   * @param payloads payloads in the order they would be processed individually
+   * @return status of processing the batch
+   * @throws Exception exceptions received while processing the payloads
+   */
+  default Result processBatch(List<? extends P> payloads, Consumer<Object> details)
+      throws Exception {
+    Result result = Result.CONTINUE;
+    for (int i = 0; i < payloads.size(); i++) {
+      result = process(payloads.get(i), details);
+      if (result == Result.COMMIT || result == Result.ABORT) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Starts processing the payload without waiting for it to complete, e.g. when the work is an
+   * asynchronous write, so that the calling thread is not held for the duration. The details are
+   * reported before the returned future completes. By default the payload is {@link
+   * #process(Object, Consumer) processed} right away.
+   *
+   * @param payload useful to carry out the transaction
+   * @return future which completes with the status of the payload processing, or exceptionally
+   *     with the exceptions received while processing it
+   */
+  default CompletableFuture<Result> processAsync(P payload, Consumer<Object> details) {
+    final CompletableFuture<Result> future = new CompletableFuture<>();
+    try {
+      future.complete(process(payload, details));
+    } catch (Exception ex) {
+      future.completeExceptionally(ex);
+    }
+    return future;
+  }
+
+  /**
+   * Does all the work of the commit which could fail, so that the commit itself is then very
+   * unlikely to; the first phase of a two phase commit spanning several transactions. It's only
+   * called by the coordinators of such commits, after the transaction reported {@link
+   * Result#COMMIT}, and is followed by either {@link #commit()} or {@link #abort()}. By default
+   * the transaction votes yes right away.
+   *
+   * @return true if the transaction is ready to commit, false to have it aborted
+   * @throws Exception exceptions received while preparing, counted as a vote to abort
+   */
+  default boolean prepare() throws Exception {
+    return true;
+  }
+
   /**
    * Commits the transaction
    *
@@ -59,4 +116,24 @@ public interface Transaction<H, P> {
    * @throws Exception
    */
   void abort() throws Exception;
+
+  /**
+   * Rolls back whatever an earlier instance of the transaction, initialized with the header, may
+   * have left behind when its process died, e.g. temporary documents. It's called on a fresh
+   * instance in place of {@link #init} by the processors recovering from a write ahead log.
+   *
+   * @param header header the earlier instance was initialized with
+   * @throws Exception exceptions received while rolling back
+   */
+  default void rollback(H header) throws Exception {}
+
+  /**
+   * Releases the resources held by an instance which is given up without ending the transaction,
+   * e.g. one initialized to resume a prepared transaction which turned out not to be ready to
+   * commit. Unlike {@link #abort()} it leaves whatever the transaction prepared untouched, so that
+   * another instance can pick it up later.
+   *
+   * @throws Exception exceptions received while releasing the resources
+   */
+  default void dispose() throws Exception {}
 }
@@ -15,6 +15,8 @@
  */
 package com.celeral.transaction;
 
+import java.util.List;
+
 public interface TransactionProcessor {
 
   interface ProcessResult {
@@ -22,6 +24,20 @@ public interface TransactionProcessor {
 
     Object getDetails();
 
+    /** Result of the payloads which the transaction accepted without any details. */
+    ProcessResult CONTINUED =
+        new ProcessResult() {
+          @Override
+          public Transaction.Result getResult() {
+            return Transaction.Result.CONTINUE;
+          }
+
+          @Override
+          public Object getDetails() {
+            return null;
+          }
+        };
+
     ProcessResult ABORTED =
         new ProcessResult() {
           @Override
@@ -157,7 +173,99 @@ public interface TransactionProcessor {
     }
   }
 
+  /**
+   * Mutable result which the callers can pass to the processor and reuse across the calls, so
+   * that the calls need not allocate a result of their own. Each call overwrites the holder and
+   * returns it; the holder is not thread safe.
+   */
+  class ResultHolder implements InitializationResult {
+    private long transactionId;
+    private Transaction.Result result;
+    private Object details;
+
+    public ResultHolder set(long transactionId, Transaction.Result result, Object details) {
+      this.transactionId = transactionId;
+      this.result = result;
+      this.details = details;
+      return this;
+    }
+
+    /** @return id of the transaction, 0 for the initializations which did not continue */
+    @Override
+    public long getTransactionId() {
+      return transactionId;
+    }
+
+    @Override
+    public Transaction.Result getResult() {
+      return result;
+    }
+
+    @Override
+    public Object getDetails() {
+      return details;
+    }
+
+    @Override
+    public String toString() {
+      return "ResultHolder{"
+          + "transactionId="
+          + transactionId
+          + ", result="
+          + result
+          + ", details="
+          + details
+          + '}';
+    }
+  }
+
   InitializationResult init(Object header);
 
+  /**
+   * Initializes a transaction reporting the result in the holder supplied by the caller.
+   *
+   * @param header header of the transaction
+   * @param holder holder to be overwritten with the result
+   * @return the holder
+   */
+  default InitializationResult init(Object header, ResultHolder holder) {
+    final InitializationResult result = init(header);
+    return holder.set(result.getTransactionId(), result.getResult(), result.getDetails());
+  }
+
   ProcessResult process(long transactionId, Object payload);
+
+  /**
+   * Processes the payload reporting the result in the holder supplied by the caller.
+   *
+   * @param transactionId id of the transaction
+   * @param payload payload to be processed
+   * @param holder holder to be overwritten with the result
+   * @return the holder
+   */
+  default ProcessResult process(long transactionId, Object payload, ResultHolder holder) {
+    final ProcessResult result = process(transactionId, payload);
+    return holder.set(transactionId, result.getResult(), result.getDetails());
+  }
+
+  /**
+   * Processes a batch of payloads for the transaction. It's equivalent to processing them one at a
+   * time until the transaction commits or aborts, but lets the implementations amortize the per
+   * call costs across the batch.
+   *
+   * @param transactionId id of the transaction
+   * @param payloads payloads in the order they would be processed individually
+   * @return the result of processing the batch
+   */
+  default ProcessResult processBatch(long transactionId, List<?> payloads) {
+    ProcessResult result = ProcessResult.CONTINUED;
+    for (int i = 0; i < payloads.size(); i++) {
+      result = process(transactionId, payloads.get(i));
+      if (result.getResult() == Transaction.Result.COMMIT
+          || result.getResult() == Transaction.Result.ABORT) {
+        break;
+      }
+    }
+    return result;
+  }
 }
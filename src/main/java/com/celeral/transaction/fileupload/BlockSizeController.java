@@ -0,0 +1,170 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the size of the next payload of an upload the way congestion control picks a window. The
+ * size doubles while the payloads are acknowledged well within the target latency, grows by the
+ * minimum size while the acknowledgements stay within the target and the throughput keeps
+ * improving, and is halved as soon as a payload takes longer than the target. Like the window,
+ * it's halved at most once per round trip: the slow acknowledgements of the payloads sent before
+ * the last decrease are put down to the same spike and ignored. On top of that the
+ * payloads sent but not yet acknowledged may not hold more than the memory ceiling, although the
+ * size never drops below the minimum.
+ *
+ * <p>The sizes are kept at multiples of the minimum size. The controller is thread safe since the
+ * acknowledgements usually arrive on a thread other than the one reading the payloads.
+ */
+public class BlockSizeController {
+  private final int minBlockSize;
+  private final int maxBlockSize;
+  private final long targetLatency;
+  private final long memoryCeiling;
+  private int blockSize;
+  private long outstanding;
+  private double throughput;
+  /* bytes sent and acknowledged so far; the payloads are assumed to be acknowledged in order */
+  private long sentBytes;
+  private long acknowledgedBytes;
+  private long recovery;
+
+  /**
+   * Creates a controller which starts at the minimum size, targets 50 ms acknowledgements and
+   * keeps up to 4 of the biggest payloads in flight.
+   */
+  public BlockSizeController(int minBlockSize, int maxBlockSize) {
+    this(
+        minBlockSize,
+        maxBlockSize,
+        TimeUnit.MILLISECONDS.toNanos(50),
+        4L * maxBlockSize,
+        minBlockSize);
+  }
+
+  /**
+   * Creates the controller.
+   *
+   * @param minBlockSize smallest payload size
+   * @param maxBlockSize biggest payload size; rounded down to a multiple of the minimum size
+   * @param targetLatency time in nanoseconds within which the payloads should be acknowledged
+   * @param memoryCeiling maximum number of bytes sent but not yet acknowledged
+   * @param initialBlockSize size to start with
+   */
+  public BlockSizeController(
+      int minBlockSize,
+      int maxBlockSize,
+      long targetLatency,
+      long memoryCeiling,
+      int initialBlockSize) {
+    if (minBlockSize <= 0
+        || maxBlockSize < minBlockSize
+        || targetLatency <= 0
+        || memoryCeiling < minBlockSize) {
+      throw new IllegalArgumentException(
+          "minBlockSize = "
+              + minBlockSize
+              + ", maxBlockSize = "
+              + maxBlockSize
+              + ", targetLatency = "
+              + targetLatency
+              + ", memoryCeiling = "
+              + memoryCeiling);
+    }
+
+    this.minBlockSize = minBlockSize;
+    this.maxBlockSize = maxBlockSize - maxBlockSize % minBlockSize;
+    this.targetLatency = targetLatency;
+    this.memoryCeiling = memoryCeiling;
+    this.blockSize = clamp(initialBlockSize);
+  }
+
+  private int clamp(long size) {
+    final long rounded = size - size % minBlockSize;
+    return (int) Math.max(minBlockSize, Math.min(rounded, maxBlockSize));
+  }
+
+  /** @return size of the next payload given the bytes still in flight */
+  public synchronized int getBlockSize() {
+    return clamp(Math.min(blockSize, memoryCeiling - outstanding));
+  }
+
+  /** Records that a payload of the given length has been sent. */
+  public synchronized void sent(int length) {
+    outstanding += length;
+    sentBytes += length;
+  }
+
+  /**
+   * Records the acknowledgement of a payload and adapts the size to it.
+   *
+   * @param length length of the acknowledged payload
+   * @param latency time in nanoseconds between sending the payload and its acknowledgement
+   */
+  public synchronized void acknowledged(int length, long latency) {
+    outstanding -= length;
+    acknowledgedBytes += length;
+    if (latency > targetLatency) {
+      if (acknowledgedBytes > recovery) {
+        blockSize = clamp(blockSize / 2);
+        throughput = 0;
+        recovery = sentBytes;
+      }
+      return;
+    }
+
+    /* the tail of a range says nothing about how the current size performs */
+    if (length < blockSize) {
+      return;
+    }
+
+    final double current = (double) length / Math.max(latency, 1);
+    if (latency < targetLatency / 2) {
+      blockSize = clamp(2L * blockSize);
+    } else if (current > throughput) {
+      blockSize = clamp((long) blockSize + minBlockSize);
+    }
+    throughput = current;
+  }
+
+  public int getMinBlockSize() {
+    return minBlockSize;
+  }
+
+  public int getMaxBlockSize() {
+    return maxBlockSize;
+  }
+
+  /** @return number of bytes sent but not yet acknowledged */
+  public synchronized long getOutstandingBytes() {
+    return outstanding;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "BlockSizeController{"
+        + "blockSize="
+        + blockSize
+        + ", outstanding="
+        + outstanding
+        + ", min="
+        + minBlockSize
+        + ", max="
+        + maxBlockSize
+        + '}';
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import com.celeral.utils.Throwables;
+
+/**
+ * Reads the files of a bundle one after the other into payloads of the block size, so that the
+ * small files share payloads instead of each costing one of its own.
+ */
+public class BundlePayloadIterator implements Iterator<UploadPayload>, Closeable {
+  private final List<? extends UploadTransactionHeader> files;
+  private final int blockSize;
+  private final long size;
+  private ChecksumType checksumType = ChecksumType.ADLER32;
+  private Codec codec = Codec.NONE;
+  private FileInputStream is;
+  private int file = -1;
+  private long remaining;
+  private long offset;
+
+  /**
+   * @param header header of the bundle to be uploaded
+   * @param blockSize maximum size of each payload
+   */
+  public BundlePayloadIterator(BundleTransactionHeader header, int blockSize) {
+    this.files = header.getFiles();
+    this.blockSize = blockSize;
+    this.size = header.getSize();
+  }
+
+  /** Selects the checksum protecting the payloads created from now on. */
+  public void setChecksumType(ChecksumType checksumType) {
+    this.checksumType = checksumType;
+  }
+
+  /** Selects the codec compressing the payloads created from now on. */
+  public void setCodec(Codec codec) {
+    this.codec = codec;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return offset < size;
+  }
+
+  @Override
+  public UploadPayload next() {
+    final byte[] bytes = new byte[(int) Math.min(blockSize, size - offset)];
+    int position = 0;
+    try {
+      while (position < bytes.length) {
+        while (remaining == 0) {
+          open(file + 1);
+        }
+
+        final int length = (int) Math.min(bytes.length - position, remaining);
+        final int read = is.read(bytes, position, length);
+        if (read == -1) {
+          throw new EOFException();
+        }
+        position += read;
+        remaining -= read;
+      }
+    } catch (IOException ex) {
+      throw Throwables.throwFormatted(
+          ex,
+          RuntimeException.class,
+          "Unable to read chunk at offset {} from file {}!",
+          offset + position,
+          files.get(file).getPath());
+    }
+
+    final UploadPayload payload = new UploadPayload(offset, bytes, checksumType);
+    offset += bytes.length;
+    return CompressedUploadPayload.compress(payload, codec);
+  }
+
+  private void open(int file) throws IOException {
+    close();
+    this.file = file;
+    final UploadTransactionHeader header = files.get(file);
+    remaining = header.getSize();
+    if (remaining > 0) {
+      is = new FileInputStream(header.getPath());
+    }
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (is != null) {
+      is.close();
+      is = null;
+    }
+  }
+}
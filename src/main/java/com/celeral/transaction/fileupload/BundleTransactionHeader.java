@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.util.List;
+
+/**
+ * Header of an upload of many files in a single transaction. The bytes of the files are packed
+ * back to back, in the order they are listed, into one stream whose payloads are addressed by
+ * their offset in it, so a payload may carry several small files or pieces of them.
+ *
+ * @see BundlePayloadIterator
+ * @see BundleUploadTransaction
+ */
+public interface BundleTransactionHeader {
+  /** @return headers of the files in the order their bytes are packed */
+  List<? extends UploadTransactionHeader> getFiles();
+
+  /** @return total number of bytes of the files */
+  default long getSize() {
+    long size = 0;
+    for (UploadTransactionHeader file : getFiles()) {
+      size += file.getSize();
+    }
+    return size;
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import static com.celeral.transaction.Transaction.Result.ABORT;
+import static com.celeral.transaction.Transaction.Result.COMMIT;
+import static com.celeral.transaction.Transaction.Result.CONTINUE;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.celeral.utils.Throwables;
+
+import com.celeral.transaction.Transaction;
+
+/**
+ * Uploads the files of a {@link BundleTransactionHeader bundle} in a single transaction. The
+ * payloads are written in order, each into as many temporary documents as the files it carries
+ * bytes of, and the commit renames all of the documents to their paths or, if any of the renames
+ * fails, reverts the ones already done so that either all of the files become visible or none of
+ * them does. Only a crash in the middle of the commit leaves some of the files renamed.
+ *
+ * @param <D> type of the temporary documents
+ */
+public abstract class BundleUploadTransaction<D extends BundleUploadTransaction.BundleDocument>
+    implements Transaction<BundleTransactionHeader, UploadPayload> {
+
+  /**
+   * Document which can undo its rename. Renaming it over an existing file keeps that file around
+   * until the bundle either reverts the rename or releases it.
+   */
+  public interface BundleDocument extends UploadTransaction.Document {
+
+    /**
+     * Undoes {@link #renameTo(String)}: moves the document back out of the path and puts back the
+     * file it replaced, if any.
+     *
+     * @param path path the document was renamed to
+     * @return true if the rename was reverted
+     * @throws IOException if the rename cannot be reverted
+     */
+    boolean revert(String path) throws IOException;
+
+    /** Drops whatever was kept to revert the rename to the path, once all the files are visible. */
+    default void release(String path) throws IOException {}
+  }
+
+  private List<? extends UploadTransactionHeader> files;
+  private long[] ends;
+  private final List<D> documents = new ArrayList<>();
+  private OutputStream stream;
+  private WritableByteChannel channel;
+  private MessageDigest digest;
+  private long written;
+  private GroupCommit groupCommit;
+
+  public abstract D createTemporaryDocument(String path) throws IOException;
+
+  /**
+   * Makes the commits durable like {@link UploadTransaction#setGroupCommit(GroupCommit)} does,
+   * syncing each distinct directory the files of the bundle are renamed into once.
+   *
+   * @param groupCommit group commit shared by the transactions, or null to not force the commits
+   */
+  public void setGroupCommit(GroupCommit groupCommit) {
+    this.groupCommit = groupCommit;
+  }
+
+  @Override
+  public Result init(BundleTransactionHeader header, Consumer<Object> details) throws IOException {
+    files = header.getFiles();
+    ends = new long[files.size()];
+    long end = 0;
+    for (int i = 0; i < ends.length; i++) {
+      end += files.get(i).getSize();
+      ends[i] = end;
+    }
+
+    return advance();
+  }
+
+  private long getSize() {
+    return ends.length == 0 ? 0 : ends[ends.length - 1];
+  }
+
+  /** Finishes the files which end at the written position and starts the ones which follow. */
+  private Result advance() throws IOException {
+    while (true) {
+      if (stream != null) {
+        if (written < ends[documents.size() - 1]) {
+          return CONTINUE;
+        }
+        finish();
+      }
+
+      if (documents.size() == files.size()) {
+        return COMMIT;
+      }
+
+      final UploadTransactionHeader file = files.get(documents.size());
+      final D document = createTemporaryDocument(file.getPath());
+      documents.add(document);
+      stream = document.openOutputStream();
+      channel = Channels.newChannel(stream);
+      digest = file.getDigestAlgorithm() == null ? null : newDigest(file);
+    }
+  }
+
+  private void finish() throws IOException {
+    final int index = documents.size() - 1;
+    final UploadTransactionHeader file = files.get(index);
+    if (groupCommit != null) {
+      documents.get(index).force(stream);
+    }
+    stream.close();
+    stream = null;
+    channel = null;
+
+    if (digest != null && !MessageDigest.isEqual(file.getDigest(), digest.digest())) {
+      throw Throwables.throwFormatted(
+          IllegalStateException.class,
+          "{} digest mismatch for {}!",
+          file.getDigestAlgorithm(),
+          file.getPath());
+    }
+  }
+
+  private static MessageDigest newDigest(UploadTransactionHeader file) {
+    try {
+      return MessageDigest.getInstance(file.getDigestAlgorithm());
+    } catch (NoSuchAlgorithmException ex) {
+      throw Throwables.throwFormatted(
+          ex, IllegalArgumentException.class, "Unsupported digest for {}!", file.getPath());
+    }
+  }
+
+  /**
+   * Verifies the checksum of the payload, writes its bytes to the files they belong to and then
+   * {@link UploadPayload#release() releases} it.
+   */
+  @Override
+  public Result process(UploadPayload payload, Consumer<Object> details) throws IOException {
+    try {
+      if (!payload.verifyChecksum()) {
+        logger.warn("Dropping {} of bundle due to checksum mismatch!", payload);
+        details.accept(new ChecksumMismatch(payload.offset, payload.getLength()));
+        return ABORT;
+      }
+
+      if (payload.offset != written || written + payload.getLength() > getSize()) {
+        throw Throwables.throwFormatted(
+            IllegalArgumentException.class,
+            "{} does not continue the {} of {} bytes written to the bundle!",
+            payload,
+            written,
+            getSize());
+      }
+
+      final ByteBuffer buffer = payload.getBuffer();
+      final int limit = buffer.limit();
+      Result result = CONTINUE;
+      while (buffer.hasRemaining()) {
+        final long available = ends[documents.size() - 1] - written;
+        buffer.limit((int) Math.min(limit, buffer.position() + available));
+        if (digest != null) {
+          digest.update(buffer.duplicate());
+        }
+        while (buffer.hasRemaining()) {
+          written += channel.write(buffer);
+        }
+        buffer.limit(limit);
+        result = advance();
+      }
+      return result;
+    } finally {
+      payload.release();
+    }
+  }
+
+  @Override
+  public void commit() throws IOException {
+    final List<D> renamed = new ArrayList<>(documents.size());
+    try {
+      for (int i = 0; i < documents.size(); i++) {
+        final String path = files.get(i).getPath();
+        if (!documents.get(i).renameTo(path)) {
+          throw Throwables.throwFormatted(
+              IOException.class, "Unable to rename {} to {}!", documents.get(i), path);
+        }
+        renamed.add(documents.get(i));
+      }
+
+      if (groupCommit != null) {
+        final Set<Path> directories = new LinkedHashSet<>();
+        for (int i = 0; i < documents.size(); i++) {
+          final Path directory = documents.get(i).getDirectory(files.get(i).getPath());
+          if (directory != null && directories.add(directory)) {
+            groupCommit.sync(directory);
+          }
+        }
+      }
+    } catch (IOException | RuntimeException ex) {
+      revert(renamed, ex);
+      throw ex;
+    }
+
+    for (int i = 0; i < documents.size(); i++) {
+      try {
+        documents.get(i).release(files.get(i).getPath());
+      } catch (IOException ex) {
+        logger.warn("Unable to release {}!", documents.get(i), ex);
+      }
+    }
+    logger.debug("Created {} files of bundle", documents.size());
+  }
+
+  private void revert(List<D> renamed, Exception cause) {
+    for (int i = renamed.size(); i-- > 0; ) {
+      final String path = files.get(i).getPath();
+      try {
+        if (!renamed.get(i).revert(path)) {
+          logger.error("Unable to revert the rename of {} to {}!", renamed.get(i), path);
+        }
+      } catch (IOException | RuntimeException ex) {
+        cause.addSuppressed(ex);
+      }
+    }
+  }
+
+  @Override
+  public void abort() throws IOException {
+    logger.debug("Deleting {} temporary documents of bundle", documents.size());
+    IOException exception = null;
+    if (stream != null) {
+      try {
+        stream.close();
+      } catch (IOException ex) {
+        exception = ex;
+      }
+      stream = null;
+      channel = null;
+    }
+
+    for (D document : documents) {
+      try {
+        document.delete();
+      } catch (IOException ex) {
+        if (exception == null) {
+          exception = ex;
+        } else {
+          exception.addSuppressed(ex);
+        }
+      }
+    }
+    documents.clear();
+
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  private static final Logger logger = LogManager.getLogger(BundleUploadTransaction.class);
+}
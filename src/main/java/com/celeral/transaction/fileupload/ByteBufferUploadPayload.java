@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Payload whose data lives in a {@link ByteBuffer}, e.g. a slice of a memory mapped file, instead
+ * of a byte array of its own. Writing it to a file channel hands the buffer straight to the
+ * channel without copying it on the heap.
+ */
+public class ByteBufferUploadPayload extends UploadPayload {
+  ByteBuffer buffer;
+
+  ByteBufferUploadPayload() {
+    /* for serialization */
+  }
+
+  /**
+   * Creates the payload over the remaining bytes of the buffer, protected with {@link
+   * ChecksumType#ADLER32}.
+   *
+   * @param offset position of the data within the file
+   * @param buffer data which the payload takes ownership of
+   */
+  public ByteBufferUploadPayload(long offset, ByteBuffer buffer) {
+    this(offset, buffer, ChecksumType.ADLER32);
+  }
+
+  /**
+   * Creates the payload over the remaining bytes of the buffer.
+   *
+   * @param offset position of the data within the file
+   * @param buffer data which the payload takes ownership of
+   * @param checksumType checksum protecting the data
+   */
+  public ByteBufferUploadPayload(long offset, ByteBuffer buffer, ChecksumType checksumType) {
+    this.offset = offset;
+    this.buffer = buffer;
+    this.checksumType = checksumType.getId();
+    this.checksum = computeChecksum(checksumType);
+  }
+
+  @Override
+  long computeChecksum(ChecksumType type) {
+    return type.compute(buffer);
+  }
+
+  @Override
+  public int getLength() {
+    return buffer.remaining();
+  }
+
+  @Override
+  public ByteBuffer getBuffer() {
+    return buffer.duplicate();
+  }
+
+  @Override
+  void writeTo(FileChannel channel, long position) throws IOException {
+    /* the payload may be shared, e.g. by mirrors writing it concurrently, so it stays untouched */
+    final ByteBuffer duplicate = buffer.duplicate();
+    while (duplicate.hasRemaining()) {
+      position += channel.write(duplicate, position);
+    }
+  }
+
+  @Override
+  void writeTo(OutputStream stream) throws IOException {
+    writeTo(buffer, stream);
+  }
+
+  /** Writes the remaining bytes of the buffer to the stream leaving the buffer untouched. */
+  static void writeTo(ByteBuffer buffer, OutputStream stream) throws IOException {
+    if (buffer.hasArray()) {
+      stream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+      return;
+    }
+
+    final ByteBuffer duplicate = buffer.duplicate();
+    if (stream instanceof FileOutputStream) {
+      final FileChannel channel = ((FileOutputStream) stream).getChannel();
+      while (duplicate.hasRemaining()) {
+        channel.write(duplicate);
+      }
+    } else {
+      final byte[] bytes = new byte[Math.min(8192, duplicate.remaining())];
+      while (duplicate.hasRemaining()) {
+        int length = Math.min(bytes.length, duplicate.remaining());
+        duplicate.get(bytes, 0, length);
+        stream.write(bytes, 0, length);
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.util.Arrays;
+
+/**
+ * Set of half open byte ranges {@code [start, end)} kept as sorted, disjoint and coalesced
+ * intervals in a pair of primitive arrays. Uploads which arrive in order collapse into a single
+ * interval so the footprint tracks the number of holes rather than the number of chunks. Not
+ * thread safe.
+ */
+public class ByteRanges {
+  private long[] starts;
+  private long[] ends;
+  private int count;
+  private long covered;
+
+  public ByteRanges() {
+    starts = new long[4];
+    ends = new long[4];
+  }
+
+  /** @return index of the first interval which ends at or after the position */
+  private int firstEndingAtOrAfter(long position) {
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ends[mid] < position) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Adds the range to the set.
+   *
+   * @param start first byte of the range
+   * @param end byte following the last byte of the range
+   * @return number of bytes which were not already in the set
+   */
+  public long add(long start, long end) {
+    if (start >= end) {
+      return 0;
+    }
+
+    final int first = firstEndingAtOrAfter(start);
+    int last = first;
+    long mergedStart = start;
+    long mergedEnd = end;
+    long absorbed = 0;
+    while (last < count && starts[last] <= end) {
+      mergedStart = Math.min(mergedStart, starts[last]);
+      mergedEnd = Math.max(mergedEnd, ends[last]);
+      absorbed += ends[last] - starts[last];
+      last++;
+    }
+
+    if (last == first) {
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, count << 1);
+        ends = Arrays.copyOf(ends, count << 1);
+      }
+      System.arraycopy(starts, first, starts, first + 1, count - first);
+      System.arraycopy(ends, first, ends, first + 1, count - first);
+      count++;
+    } else if (last > first + 1) {
+      System.arraycopy(starts, last, starts, first + 1, count - last);
+      System.arraycopy(ends, last, ends, first + 1, count - last);
+      count -= last - first - 1;
+    }
+    starts[first] = mergedStart;
+    ends[first] = mergedEnd;
+
+    final long added = mergedEnd - mergedStart - absorbed;
+    covered += added;
+    return added;
+  }
+
+  /** @return true if every byte of the range is in the set */
+  public boolean contains(long start, long end) {
+    if (start >= end) {
+      return true;
+    }
+
+    int index = firstEndingAtOrAfter(end);
+    return index < count && starts[index] <= start;
+  }
+
+  /**
+   * Computes the ranges within {@code [0, size)} which are not in this set.
+   *
+   * @param size size of the whole
+   * @return new set with the missing ranges
+   */
+  public ByteRanges complement(long size) {
+    ByteRanges missing = new ByteRanges();
+    long position = 0;
+    for (int i = 0; i < count && position < size; i++) {
+      missing.add(position, Math.min(starts[i], size));
+      position = ends[i];
+    }
+    missing.add(position, size);
+    return missing;
+  }
+
+  /** @return number of bytes in the set */
+  public long getCoveredBytes() {
+    return covered;
+  }
+
+  /** @return number of disjoint intervals in the set */
+  public int getRangeCount() {
+    return count;
+  }
+
+  public long getStart(int index) {
+    return starts[index];
+  }
+
+  public long getEnd(int index) {
+    return ends[index];
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("ByteRanges{");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append('[').append(starts[i]).append(", ").append(ends[i]).append(')');
+    }
+    return builder.append('}').toString();
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+/**
+ * Details sent back when payloads arrive with data which does not match their checksum. Uploads to
+ * random access documents drop the payloads and continue, expecting the ranges to be sent again;
+ * the sequential uploads abort.
+ */
+public class ChecksumMismatch {
+  private final ByteRanges ranges;
+
+  private ChecksumMismatch() {
+    this(new ByteRanges());
+  }
+
+  public ChecksumMismatch(long offset, int length) {
+    this(new ByteRanges());
+    ranges.add(offset, offset + length);
+  }
+
+  /** @param ranges ranges of all the payloads dropped while processing a batch */
+  public ChecksumMismatch(ByteRanges ranges) {
+    this.ranges = ranges;
+  }
+
+  /** @return offset of the first dropped range */
+  public long getOffset() {
+    return ranges.getStart(0);
+  }
+
+  /** @return length of the first dropped range */
+  public int getLength() {
+    return (int) (ranges.getEnd(0) - ranges.getStart(0));
+  }
+
+  public ByteRanges getRanges() {
+    return ranges;
+  }
+
+  @Override
+  public String toString() {
+    return "ChecksumMismatch{" + "ranges=" + ranges + '}';
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.Supplier;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import com.celeral.utils.Throwables;
+
+/**
+ * Checksums which could protect the payloads. None of them share mutable state across threads:
+ * the JDK backed ones keep an instance per thread and the 64 bit hash is computed on the stack.
+ */
+public enum ChecksumType {
+  /** The original checksum of the payloads; kept as the default for compatibility. */
+  ADLER32(Adler32::new),
+  CRC32(CRC32::new),
+  /** CRC32C which is intrinsified on the CPUs with the support; requires Java 9 or newer. */
+  CRC32C(ChecksumType::newCrc32c),
+  /** The 64 bit xxHash, a fast non cryptographic hash. */
+  XXHASH64(null) {
+    @Override
+    public long compute(byte[] bytes, int offset, int length) {
+      return compute(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    @Override
+    public long compute(ByteBuffer buffer) {
+      return XxHash64.hash(buffer);
+    }
+  };
+
+  private static final ChecksumType[] values = values();
+  private final ThreadLocal<Checksum> checksum;
+  private final ThreadLocal<byte[]> scratch;
+
+  ChecksumType(Supplier<Checksum> supplier) {
+    checksum = supplier == null ? null : ThreadLocal.withInitial(supplier);
+    scratch = supplier == null ? null : ThreadLocal.withInitial(() -> new byte[8192]);
+  }
+
+  private static Checksum newCrc32c() {
+    try {
+      return (Checksum) Class.forName("java.util.zip.CRC32C").getConstructor().newInstance();
+    } catch (ReflectiveOperationException ex) {
+      throw Throwables.throwFormatted(
+          ex, UnsupportedOperationException.class, "CRC32C needs Java 9 or newer!");
+    }
+  }
+
+  /** @return the identifier of the checksum on the wire */
+  public byte getId() {
+    return (byte) ordinal();
+  }
+
+  public static ChecksumType valueOf(byte id) {
+    if (id < 0 || id >= values.length) {
+      throw Throwables.throwFormatted(
+          IllegalArgumentException.class, "Unknown checksum type {}!", id);
+    }
+    return values[id];
+  }
+
+  public long compute(byte[] bytes, int offset, int length) {
+    final Checksum checksum = this.checksum.get();
+    checksum.reset();
+    checksum.update(bytes, offset, length);
+    return checksum.getValue();
+  }
+
+  /**
+   * Computes the checksum of the bytes between the position and the limit of the buffer.
+   *
+   * @param buffer buffer whose position and limit are left untouched
+   * @return the checksum
+   */
+  public long compute(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      return compute(
+          buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+
+    final Checksum checksum = this.checksum.get();
+    checksum.reset();
+    /* read through a view of our own so that the threads sharing the buffer do not race */
+    final ByteBuffer duplicate = buffer.duplicate();
+    if (checksum instanceof Adler32) {
+      ((Adler32) checksum).update(duplicate);
+    } else if (checksum instanceof java.util.zip.CRC32) {
+      ((java.util.zip.CRC32) checksum).update(duplicate);
+    } else {
+      final byte[] bytes = scratch.get();
+      while (duplicate.hasRemaining()) {
+        int length = Math.min(bytes.length, duplicate.remaining());
+        duplicate.get(bytes, 0, length);
+        checksum.update(bytes, 0, length);
+      }
+    }
+    return checksum.getValue();
+  }
+
+  static final class XxHash64 {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private XxHash64() {}
+
+    private static long round(long accumulator, long input) {
+      return Long.rotateLeft(accumulator + input * P2, 31) * P1;
+    }
+
+    private static long merge(long hash, long accumulator) {
+      return (hash ^ round(0, accumulator)) * P1 + P4;
+    }
+
+    static long hash(ByteBuffer buffer) {
+      final boolean swap = buffer.order() == ByteOrder.BIG_ENDIAN;
+      final int limit = buffer.limit();
+      final int length = buffer.remaining();
+      int i = buffer.position();
+
+      long hash;
+      if (length >= 32) {
+        long v1 = P1 + P2;
+        long v2 = P2;
+        long v3 = 0;
+        long v4 = -P1;
+        for (final int end = limit - 32; i <= end; i += 32) {
+          v1 = round(v1, littleEndian(buffer.getLong(i), swap));
+          v2 = round(v2, littleEndian(buffer.getLong(i + 8), swap));
+          v3 = round(v3, littleEndian(buffer.getLong(i + 16), swap));
+          v4 = round(v4, littleEndian(buffer.getLong(i + 24), swap));
+        }
+        hash =
+            Long.rotateLeft(v1, 1)
+                + Long.rotateLeft(v2, 7)
+                + Long.rotateLeft(v3, 12)
+                + Long.rotateLeft(v4, 18);
+        hash = merge(hash, v1);
+        hash = merge(hash, v2);
+        hash = merge(hash, v3);
+        hash = merge(hash, v4);
+      } else {
+        hash = P5;
+      }
+      hash += length;
+
+      for (; i + 8 <= limit; i += 8) {
+        hash ^= round(0, littleEndian(buffer.getLong(i), swap));
+        hash = Long.rotateLeft(hash, 27) * P1 + P4;
+      }
+      if (i + 4 <= limit) {
+        int word = buffer.getInt(i);
+        hash ^= ((swap ? Integer.reverseBytes(word) : word) & 0xFFFFFFFFL) * P1;
+        hash = Long.rotateLeft(hash, 23) * P2 + P3;
+        i += 4;
+      }
+      for (; i < limit; i++) {
+        hash ^= (buffer.get(i) & 0xFFL) * P5;
+        hash = Long.rotateLeft(hash, 11) * P1;
+      }
+
+      hash ^= hash >>> 33;
+      hash *= P2;
+      hash ^= hash >>> 29;
+      hash *= P3;
+      hash ^= hash >>> 32;
+      return hash;
+    }
+
+    private static long littleEndian(long value, boolean swap) {
+      return swap ? Long.reverseBytes(value) : value;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.util.Arrays;
+
+/**
+ * Lengths and 64 bit xxHashes of the consecutive chunks a {@link ContentDefinedChunker} cut a file
+ * into, along with the parameters of the chunker so that the receiver cuts its own files the same
+ * way. Two chunks are taken to be identical when their lengths and hashes match; uploads which
+ * can't afford the odds of a collision should be protected with a {@link
+ * UploadTransactionHeader#getDigest() digest}.
+ */
+public class ChunkSignatures {
+  private final int minSize;
+  private final int averageSize;
+  private final int maxSize;
+  private final int[] lengths;
+  private final long[] hashes;
+
+  private ChunkSignatures() {
+    this(0, 0, 0, null, null);
+  }
+
+  public ChunkSignatures(int minSize, int averageSize, int maxSize, int[] lengths, long[] hashes) {
+    this.minSize = minSize;
+    this.averageSize = averageSize;
+    this.maxSize = maxSize;
+    this.lengths = lengths;
+    this.hashes = hashes;
+  }
+
+  /** @return a chunker which cuts the files the same way as the one which made the signatures */
+  public ContentDefinedChunker getChunker() {
+    return new ContentDefinedChunker(minSize, averageSize, maxSize);
+  }
+
+  public int getChunkCount() {
+    return lengths.length;
+  }
+
+  public int getLength(int chunk) {
+    return lengths[chunk];
+  }
+
+  public long getHash(int chunk) {
+    return hashes[chunk];
+  }
+
+  /** @return sum of the lengths of the chunks */
+  public long getSize() {
+    long size = 0;
+    for (int length : lengths) {
+      size += length;
+    }
+    return size;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ChunkSignatures)) {
+      return false;
+    }
+
+    final ChunkSignatures that = (ChunkSignatures) o;
+    return minSize == that.minSize
+        && averageSize == that.averageSize
+        && maxSize == that.maxSize
+        && Arrays.equals(lengths, that.lengths)
+        && Arrays.equals(hashes, that.hashes);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(lengths) + Arrays.hashCode(hashes);
+  }
+
+  @Override
+  public String toString() {
+    return "ChunkSignatures{" + "chunks=" + lengths.length + ", size=" + getSize() + '}';
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.celeral.utils.Throwables;
+
+/**
+ * Codecs which could compress the data of the payloads. Each thread keeps its own deflaters and
+ * inflater, so compressing a chunk allocates nothing but the compressed copy.
+ */
+public enum Codec {
+  /** The data is sent as is. */
+  NONE(Deflater.NO_COMPRESSION),
+  /** Deflate at its fastest level, which trades some ratio for LZ like speed. */
+  DEFLATE_FAST(Deflater.BEST_SPEED),
+  /** Deflate at its default level. */
+  DEFLATE(Deflater.DEFAULT_COMPRESSION);
+
+  private static final Codec[] values = values();
+  private static final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(Inflater::new);
+  private static final ThreadLocal<byte[][]> scratch =
+      ThreadLocal.withInitial(() -> new byte[2][8192]);
+
+  private final ThreadLocal<Deflater> deflater;
+
+  Codec(int level) {
+    deflater = ThreadLocal.withInitial(() -> new Deflater(level));
+  }
+
+  /** @return the identifier of the codec on the wire */
+  public byte getId() {
+    return (byte) ordinal();
+  }
+
+  public static Codec valueOf(byte id) {
+    if (id < 0 || id >= values.length) {
+      throw Throwables.throwFormatted(IllegalArgumentException.class, "Unknown codec {}!", id);
+    }
+    return values[id];
+  }
+
+  private static byte[] scratch(int index, int length) {
+    final byte[][] buffers = scratch.get();
+    if (buffers[index].length < length) {
+      buffers[index] = new byte[Math.max(length, buffers[index].length * 2)];
+    }
+    return buffers[index];
+  }
+
+  /**
+   * Compresses the bytes between the position and the limit of the buffer, giving up as soon as
+   * the compressed bytes would not fit in the limit.
+   *
+   * @param buffer buffer whose position and limit are left untouched
+   * @param limit maximum length of the compressed bytes worth keeping
+   * @return the compressed bytes or null if they would be longer than the limit
+   */
+  public byte[] compress(ByteBuffer buffer, int limit) {
+    final int length = buffer.remaining();
+    final byte[] bytes;
+    final int offset;
+    if (buffer.hasArray()) {
+      bytes = buffer.array();
+      offset = buffer.arrayOffset() + buffer.position();
+    } else {
+      bytes = scratch(0, length);
+      offset = 0;
+      buffer.duplicate().get(bytes, 0, length);
+    }
+
+    final Deflater deflater = this.deflater.get();
+    deflater.reset();
+    deflater.setInput(bytes, offset, length);
+    deflater.finish();
+
+    final byte[] compressed = scratch(1, limit);
+    int size = 0;
+    while (!deflater.finished() && size < limit) {
+      final int count = deflater.deflate(compressed, size, limit - size);
+      if (count == 0) {
+        break;
+      }
+      size += count;
+    }
+
+    return deflater.finished() ? Arrays.copyOf(compressed, size) : null;
+  }
+
+  /**
+   * Decompresses the bytes into the array, which must be exactly as long as the original data.
+   *
+   * @throws DataFormatException if the bytes are corrupt or do not decompress to the length of the
+   *     array
+   */
+  public void decompress(byte[] bytes, int offset, int length, byte[] destination)
+      throws DataFormatException {
+    decompress(bytes, offset, length, ByteBuffer.wrap(destination));
+  }
+
+  /**
+   * Decompresses the bytes between the position and the limit of the buffer, which must be exactly
+   * as many as those of the original data. Direct buffers are filled through a scratch array kept
+   * by the thread.
+   *
+   * @param destination buffer whose position and limit are left untouched
+   * @throws DataFormatException if the bytes are corrupt or do not decompress to the remaining
+   *     length of the buffer
+   */
+  public void decompress(byte[] bytes, int offset, int length, ByteBuffer destination)
+      throws DataFormatException {
+    final Inflater inflater = Codec.inflater.get();
+    inflater.reset();
+    inflater.setInput(bytes, offset, length);
+
+    final int expected = destination.remaining();
+    final ByteBuffer target = destination.duplicate();
+    final byte[] array = target.hasArray() ? target.array() : scratch(0, Math.min(expected, 8192));
+    final int base = target.hasArray() ? target.arrayOffset() + target.position() : 0;
+
+    int size = 0;
+    while (size < expected) {
+      final int count;
+      if (target.hasArray()) {
+        count = inflater.inflate(array, base + size, expected - size);
+      } else {
+        count = inflater.inflate(array, 0, Math.min(array.length, expected - size));
+        target.put(array, 0, count);
+      }
+      if (count == 0
+          && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+        break;
+      }
+      size += count;
+    }
+
+    if (size != expected) {
+      throw new DataFormatException(
+          "Decompressed " + size + " bytes instead of " + expected + "!");
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.zip.DataFormatException;
+
+import com.celeral.utils.Throwables;
+
+/**
+ * Payload which carries its data compressed. The offset, the length and the checksum are those of
+ * the original bytes, so to the transaction it looks like any other payload: the data is
+ * decompressed once, when the checksum is verified, into a buffer borrowed from the pool of the
+ * serializer, if it has one, which is then written out as is.
+ *
+ * <p>The payload is reference counted like a {@link PooledBuffer} so that mirrors can share it;
+ * the decompressed buffer goes back to the pool when the last reference is released.
+ */
+public class CompressedUploadPayload extends UploadPayload {
+  /** Chunks shorter than this are not worth the effort of compressing. */
+  private static final int MIN_LENGTH = 64;
+
+  private static final AtomicIntegerFieldUpdater<CompressedUploadPayload> REFERENCES =
+      AtomicIntegerFieldUpdater.newUpdater(CompressedUploadPayload.class, "references");
+
+  byte codec;
+  int length;
+  PayloadBufferPool pool;
+  private PooledBuffer pooled;
+  private volatile ByteBuffer decompressed;
+  private volatile int references = 1;
+
+  CompressedUploadPayload() {
+    /* for serialization */
+  }
+
+  /**
+   * Compresses the payload unless the compression saves less than an eighth of its length.
+   *
+   * @param payload payload to be compressed; released if the compressed one replaces it
+   * @param codec codec to compress with
+   * @return the compressed payload or the payload itself if compressing it does not pay off
+   */
+  public static UploadPayload compress(UploadPayload payload, Codec codec) {
+    final int length = payload.getLength();
+    if (codec == Codec.NONE || length < MIN_LENGTH) {
+      return payload;
+    }
+
+    final byte[] compressed = codec.compress(payload.getBuffer(), length - length / 8);
+    if (compressed == null) {
+      return payload;
+    }
+
+    final CompressedUploadPayload result = new CompressedUploadPayload();
+    result.offset = payload.offset;
+    result.data = compressed;
+    result.length = length;
+    result.codec = codec.getId();
+    result.checksumType = payload.checksumType;
+    result.checksum = payload.checksum;
+    payload.release();
+    return result;
+  }
+
+  private ByteBuffer decompress() throws DataFormatException {
+    ByteBuffer buffer = decompressed;
+    if (buffer == null) {
+      synchronized (this) {
+        buffer = decompressed;
+        if (buffer == null) {
+          buffer = decompressInto();
+        }
+      }
+    }
+    return buffer;
+  }
+
+  private ByteBuffer decompressInto() throws DataFormatException {
+    if (references <= 0) {
+      throw new IllegalStateException("Decompressing a released payload!");
+    }
+
+    final PooledBuffer borrowed = pool == null ? null : pool.acquire(length);
+    final ByteBuffer buffer;
+    if (borrowed == null) {
+      buffer = ByteBuffer.allocate(length);
+    } else {
+      buffer = borrowed.buffer();
+      buffer.limit(length);
+    }
+
+    try {
+      getCodec().decompress(data, 0, data.length, buffer);
+    } catch (DataFormatException | RuntimeException ex) {
+      if (borrowed != null) {
+        borrowed.release();
+      }
+      throw ex;
+    }
+
+    pooled = borrowed;
+    decompressed = buffer;
+    return buffer;
+  }
+
+  private ByteBuffer decompressed() {
+    try {
+      return decompress();
+    } catch (DataFormatException ex) {
+      throw Throwables.throwFormatted(ex, IllegalStateException.class, "Corrupt {}!", this);
+    }
+  }
+
+  @Override
+  long computeChecksum(ChecksumType type) {
+    return type.compute(decompressed().duplicate());
+  }
+
+  /** @return true if the data decompresses to the bytes whose checksum the sender computed */
+  @Override
+  public boolean verifyChecksum() {
+    try {
+      decompress();
+    } catch (DataFormatException ex) {
+      return false;
+    }
+    return super.verifyChecksum();
+  }
+
+  @Override
+  public Codec getCodec() {
+    return Codec.valueOf(codec);
+  }
+
+  /** @return length of the data before it was compressed */
+  @Override
+  public int getLength() {
+    return length;
+  }
+
+  public int getCompressedLength() {
+    return data.length;
+  }
+
+  @Override
+  public ByteBuffer getBuffer() {
+    return decompressed().duplicate();
+  }
+
+  @Override
+  void writeTo(OutputStream stream) throws IOException {
+    ByteBufferUploadPayload.writeTo(decompressed(), stream);
+  }
+
+  /** Drops a reference, giving the decompressed copy of the data back once it was the last one. */
+  @Override
+  public void release() {
+    final int count = REFERENCES.decrementAndGet(this);
+    if (count > 0) {
+      return;
+    }
+    if (count < 0) {
+      REFERENCES.incrementAndGet(this);
+      throw new IllegalStateException("Releasing an already released payload!");
+    }
+
+    final PooledBuffer borrowed;
+    synchronized (this) {
+      borrowed = pooled;
+      pooled = null;
+      decompressed = null;
+    }
+    if (borrowed != null) {
+      borrowed.release();
+    }
+  }
+
+  @Override
+  public CompressedUploadPayload retain() {
+    for (int count = references; ; count = references) {
+      if (count <= 0) {
+        throw new IllegalStateException("Retaining a released payload!");
+      }
+      if (REFERENCES.compareAndSet(this, count, count + 1)) {
+        return this;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CompressedUploadPayload{"
+        + "data="
+        + length
+        + ", compressed="
+        + data.length
+        + ", sequenceId="
+        + offset
+        + '}';
+  }
+}
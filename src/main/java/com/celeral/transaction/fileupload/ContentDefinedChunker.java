@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Cuts a file into chunks at the positions chosen by its content rather than by fixed offsets, so
+ * that inserting or removing bytes only changes the chunks around the edit. A boundary is placed
+ * where the top bits of a gear hash of the last 64 bytes are all zero, which happens once every
+ * average size bytes, but never closer than the minimum size to the previous boundary and never
+ * farther than the maximum size.
+ */
+public class ContentDefinedChunker {
+  private static final long[] GEAR = new long[256];
+
+  static {
+    /* splitmix64, so that every peer derives the same table */
+    long seed = 0x6A09E667F3BCC908L;
+    for (int i = 0; i < GEAR.length; i++) {
+      long z = seed += 0x9E3779B97F4A7C15L;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      GEAR[i] = z ^ (z >>> 31);
+    }
+  }
+
+  private final int minSize;
+  private final int averageSize;
+  private final int maxSize;
+  private final int shift;
+
+  /** Creates a chunker for chunks of 2 KB to 64 KB, 8 KB on average. */
+  public ContentDefinedChunker() {
+    this(2 << 10, 8 << 10, 64 << 10);
+  }
+
+  /**
+   * Creates the chunker.
+   *
+   * @param minSize minimum size of a chunk other than the last one
+   * @param averageSize expected size of a chunk; must be a power of 2
+   * @param maxSize maximum size of a chunk
+   */
+  public ContentDefinedChunker(int minSize, int averageSize, int maxSize) {
+    if (minSize <= 0
+        || averageSize < minSize
+        || maxSize < averageSize
+        || Integer.bitCount(averageSize) != 1) {
+      throw new IllegalArgumentException(
+          "minSize = " + minSize + ", averageSize = " + averageSize + ", maxSize = " + maxSize);
+    }
+
+    this.minSize = minSize;
+    this.averageSize = averageSize;
+    this.maxSize = maxSize;
+    this.shift = 64 - Integer.numberOfTrailingZeros(averageSize);
+  }
+
+  public int getMinSize() {
+    return minSize;
+  }
+
+  public int getAverageSize() {
+    return averageSize;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Finds the end of the chunk starting at the position of the buffer.
+   *
+   * @param buffer buffer with at least the maximum size of bytes or else all the remaining bytes
+   *     of the file
+   * @return the position right after the chunk
+   */
+  int boundary(ByteBuffer buffer) {
+    final int start = buffer.position();
+    final int end = Math.min(buffer.limit(), start + maxSize);
+    long hash = 0;
+    for (int i = start + minSize; i < end; i++) {
+      hash = (hash << 1) + GEAR[buffer.get(i) & 0xFF];
+      if (hash >>> shift == 0) {
+        return i + 1;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Cuts the file into chunks.
+   *
+   * @param path path of the file
+   * @return the signatures of the chunks of the whole file
+   * @throws IOException if the file cannot be read
+   */
+  public ChunkSignatures chunk(String path) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      return chunk(channel, channel.size());
+    }
+  }
+
+  /**
+   * Cuts the bytes of the channel from its start to the given size into chunks.
+   *
+   * @param channel channel to read from; its position is left untouched
+   * @param size number of bytes to chunk
+   * @return the signatures of the chunks
+   * @throws IOException if the channel cannot be read
+   */
+  public ChunkSignatures chunk(FileChannel channel, long size) throws IOException {
+    final int capacity = (int) Math.min(size, 2L * Math.max(maxSize, 32 << 10));
+    final ByteBuffer buffer = ByteBuffer.allocate(Math.max(capacity, 1));
+    int[] lengths = new int[(int) Math.min(1024, size / averageSize + 1)];
+    long[] hashes = new long[lengths.length];
+    int count = 0;
+
+    /* the byte at index i of the buffer is the one at base + i of the file */
+    long base = 0;
+    buffer.limit(0);
+    while (true) {
+      if (buffer.remaining() < maxSize && base + buffer.limit() < size) {
+        base += buffer.position();
+        buffer.compact();
+        buffer.limit((int) Math.min(buffer.capacity(), size - base));
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer, base + buffer.position()) < 0) {
+            throw new IOException("Unexpected end of file before " + size + " bytes!");
+          }
+        }
+        buffer.flip();
+      }
+
+      if (!buffer.hasRemaining()) {
+        break;
+      }
+
+      final int boundary = boundary(buffer);
+      final int limit = buffer.limit();
+      buffer.limit(boundary);
+      if (count == lengths.length) {
+        lengths = Arrays.copyOf(lengths, count * 2);
+        hashes = Arrays.copyOf(hashes, count * 2);
+      }
+      lengths[count] = boundary - buffer.position();
+      hashes[count] = ChecksumType.XXHASH64.compute(buffer);
+      count++;
+
+      buffer.limit(limit).position(boundary);
+    }
+
+    return new ChunkSignatures(
+        minSize,
+        averageSize,
+        maxSize,
+        Arrays.copyOf(lengths, count),
+        Arrays.copyOf(hashes, count));
+  }
+}
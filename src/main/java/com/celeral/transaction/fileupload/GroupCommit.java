@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Makes the renames of the committed uploads durable by forcing the directories they were renamed
+ * into, coalescing the requests of concurrent commits so that a directory is forced once for all of
+ * the renames into it which happened while the previous batch was being forced or within the
+ * batching window. The first committer to arrive leads the batch: it waits for the window to
+ * collect more requests, forces every distinct directory and wakes the others up.
+ *
+ * <p>A longer window saves more forces under load at the expense of the latency of each commit; a
+ * window of 0 still coalesces the requests which pile up while a batch is being forced.
+ */
+public class GroupCommit {
+  private final long windowNanos;
+  private final Object lock = new Object();
+  private Batch pending;
+  private boolean syncing;
+
+  private static class Batch {
+    final long created = System.nanoTime();
+    final Set<Path> directories = new LinkedHashSet<>();
+    final Map<Path, Exception> failures = new HashMap<>();
+    boolean done;
+  }
+
+  /** @param windowNanos how long the leader of a batch waits for more requests before forcing */
+  public GroupCommit(long windowNanos) {
+    if (windowNanos < 0) {
+      throw new IllegalArgumentException("windowNanos = " + windowNanos);
+    }
+    this.windowNanos = windowNanos;
+  }
+
+  public long getWindowNanos() {
+    return windowNanos;
+  }
+
+  /**
+   * Blocks until the directory has been forced after the call was made.
+   *
+   * @param directory directory to force
+   * @throws IOException if the directory cannot be forced
+   */
+  public void sync(Path directory) throws IOException {
+    final Batch batch;
+    synchronized (lock) {
+      if (pending == null) {
+        pending = new Batch();
+      }
+      batch = pending;
+      batch.directories.add(directory);
+
+      while (!batch.done && syncing) {
+        try {
+          lock.wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while syncing " + directory + "!");
+        }
+      }
+
+      if (!batch.done) {
+        syncing = true;
+        long remaining;
+        while ((remaining = batch.created + windowNanos - System.nanoTime()) > 0) {
+          try {
+            TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+          } catch (InterruptedException ex) {
+            /* the others are waiting for this batch, so it's forced right away instead */
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+        pending = null;
+      }
+    }
+
+    if (!batch.done) {
+      lead(batch);
+    }
+
+    final Exception failure = batch.failures.get(directory);
+    if (failure != null) {
+      throw new IOException("Failed to sync " + directory + "!", failure);
+    }
+  }
+
+  private void lead(Batch batch) {
+    try {
+      for (Path directory : batch.directories) {
+        try {
+          force(directory);
+        } catch (IOException | RuntimeException ex) {
+          batch.failures.put(directory, ex);
+        }
+      }
+    } finally {
+      synchronized (lock) {
+        batch.done = true;
+        syncing = false;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Forces the directory to the storage.
+   *
+   * @param directory directory to force
+   * @throws IOException if the directory cannot be opened or forced
+   */
+  protected void force(Path directory) throws IOException {
+    logger.trace("Syncing directory {}", directory);
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+  }
+
+  private static final Logger logger = LogManager.getLogger(GroupCommit.class);
+}
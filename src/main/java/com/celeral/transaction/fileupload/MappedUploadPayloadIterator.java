@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.celeral.utils.Throwables;
+
+/**
+ * Counterpart of {@link UploadPayloadIterator} which maps the file into memory a window at a time
+ * and hands out {@link ByteBufferUploadPayload}s over slices of the window. No data is copied onto
+ * the heap and the only allocations per payload are the payload and its slice.
+ *
+ * <p>The payloads keep their window mapped for as long as they are reachable, so they should not
+ * be retained longer than it takes to send them.
+ */
+public class MappedUploadPayloadIterator implements Iterator<UploadPayload>, Closeable {
+  private static final long DEFAULT_WINDOW_SIZE = 64 << 20;
+
+  private final FileChannel channel;
+  private final int blockSize;
+  private final long windowSize;
+  private final UploadTransactionHeader header;
+  private final ByteRanges ranges;
+  private ChecksumType checksumType = ChecksumType.ADLER32;
+  private MappedByteBuffer window;
+  private long windowStart;
+  private int range;
+  private long end;
+  long offset;
+
+  public MappedUploadPayloadIterator(UploadTransactionHeader header, int blockSize) {
+    this(header, blockSize, null);
+  }
+
+  public MappedUploadPayloadIterator(
+      UploadTransactionHeader header, int blockSize, ByteRanges ranges) {
+    this(header, blockSize, ranges, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * Creates the iterator.
+   *
+   * @param header header of the file to be uploaded
+   * @param blockSize maximum size of each payload
+   * @param ranges ranges to be read or null to read the whole file
+   * @param windowSize size of the region of the file which is mapped at a time; rounded down to a
+   *     multiple of the block size
+   */
+  public MappedUploadPayloadIterator(
+      UploadTransactionHeader header, int blockSize, ByteRanges ranges, long windowSize) {
+    if (blockSize <= 0 || windowSize < blockSize || windowSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          "blockSize = " + blockSize + ", windowSize = " + windowSize);
+    }
+
+    this.blockSize = blockSize;
+    this.windowSize = windowSize - windowSize % blockSize;
+    this.header = header;
+    this.ranges = ranges;
+    try {
+      channel = FileChannel.open(Paths.get(header.getPath()), StandardOpenOption.READ);
+    } catch (IOException ex) {
+      throw Throwables.throwFormatted(
+          ex, RuntimeException.class, "Unable to open {}!", header.getPath());
+    }
+
+    if (ranges == null) {
+      end = header.getSize();
+    } else if (ranges.getRangeCount() > 0) {
+      seek(0);
+    }
+  }
+
+  private void seek(int range) {
+    this.range = range;
+    offset = ranges.getStart(range);
+    end = Math.min(ranges.getEnd(range), header.getSize());
+  }
+
+  private void map(long position) throws IOException {
+    windowStart = position;
+    window =
+        channel.map(
+            FileChannel.MapMode.READ_ONLY,
+            position,
+            Math.min(windowSize, header.getSize() - position));
+  }
+
+  /** Selects the checksum protecting the payloads created from now on. */
+  public void setChecksumType(ChecksumType checksumType) {
+    this.checksumType = checksumType;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return offset < end;
+  }
+
+  @Override
+  public UploadPayload next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    final long nextOffset = Math.min(offset + blockSize, end);
+    try {
+      if (window == null || offset < windowStart || nextOffset > windowStart + window.capacity()) {
+        map(offset);
+      }
+
+      final MappedByteBuffer slice = window;
+      final int position = (int) (offset - windowStart);
+      slice.limit(position + (int) (nextOffset - offset)).position(position);
+      return new ByteBufferUploadPayload(offset, slice.slice(), checksumType);
+    } catch (IOException ex) {
+      throw Throwables.throwFormatted(
+          ex,
+          RuntimeException.class,
+          "Unable to map chunk at offset {} from file {}!",
+          offset,
+          header.getPath());
+    } finally {
+      offset = nextOffset;
+      if (offset == end && ranges != null && range + 1 < ranges.getRangeCount()) {
+        seek(range + 1);
+      }
+    }
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    channel.close();
+  }
+}
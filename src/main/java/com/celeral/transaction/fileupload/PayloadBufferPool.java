@@ -0,0 +1,227 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Pool of payload buffers with power of 2 size classes. Each thread keeps a small cache of
+ * released buffers per size class in front of a bounded pool shared by all the threads, so in the
+ * steady state acquiring and releasing a buffer neither allocates nor contends. Requests larger
+ * than the biggest size class are served with unpooled buffers.
+ *
+ * <p>A sample of the acquired buffers is tracked for leaks: if a tracked buffer becomes
+ * unreachable without being released, it's reported the next time a buffer is acquired.
+ */
+public class PayloadBufferPool {
+  private static final int MIN_SHIFT = 9;
+
+  private final boolean direct;
+  private final int maxShift;
+  private final int threadCacheSize;
+  private final ArrayBlockingQueue<PooledBuffer>[] shared;
+  private final ThreadLocal<ArrayDeque<PooledBuffer>[]> caches;
+  private final int leakSamplingInterval;
+  private final AtomicInteger leakSampler = new AtomicInteger();
+  private final ReferenceQueue<PooledBuffer> collected = new ReferenceQueue<>();
+  private final Set<LeakTracker> tracked = Collections.newSetFromMap(new ConcurrentHashMap<>());
+  private final LongAdder allocated = new LongAdder();
+  private final LongAdder outstanding = new LongAdder();
+  private final LongAdder leaked = new LongAdder();
+
+  static final class LeakTracker extends PhantomReference<PooledBuffer> {
+    final Throwable allocation;
+    final int capacity;
+
+    LeakTracker(PooledBuffer referent, ReferenceQueue<? super PooledBuffer> queue) {
+      super(referent, queue);
+      allocation = new Throwable("Buffer acquired here was never released");
+      capacity = referent.capacity();
+    }
+  }
+
+  /** Creates a pool of heap buffers of up to 4 MB which samples one in 128 buffers for leaks. */
+  public PayloadBufferPool() {
+    this(false, 4 << 20, 256, 16, 128);
+  }
+
+  /**
+   * Creates the pool.
+   *
+   * @param direct true to allocate the buffers off the heap
+   * @param maxBufferSize size of the biggest pooled buffer, rounded up to a power of 2
+   * @param maxPooledPerSizeClass maximum number of released buffers kept in the shared pool for
+   *     each size class
+   * @param threadCacheSize maximum number of released buffers each thread keeps for each size
+   *     class
+   * @param leakSamplingInterval 1 to track every buffer for leaks, n to track one in n buffers, 0
+   *     to disable leak detection
+   */
+  @SuppressWarnings("unchecked")
+  public PayloadBufferPool(
+      boolean direct,
+      int maxBufferSize,
+      int maxPooledPerSizeClass,
+      int threadCacheSize,
+      int leakSamplingInterval) {
+    if (maxBufferSize < 1 << MIN_SHIFT || maxPooledPerSizeClass <= 0 || threadCacheSize < 0) {
+      throw new IllegalArgumentException(
+          "maxBufferSize = "
+              + maxBufferSize
+              + ", maxPooledPerSizeClass = "
+              + maxPooledPerSizeClass
+              + ", threadCacheSize = "
+              + threadCacheSize);
+    }
+
+    this.direct = direct;
+    this.maxShift = 32 - Integer.numberOfLeadingZeros(maxBufferSize - 1);
+    this.threadCacheSize = threadCacheSize;
+    this.leakSamplingInterval = leakSamplingInterval;
+
+    final int sizeClasses = maxShift - MIN_SHIFT + 1;
+    shared = new ArrayBlockingQueue[sizeClasses];
+    for (int i = sizeClasses; i-- > 0; ) {
+      shared[i] = new ArrayBlockingQueue<>(maxPooledPerSizeClass);
+    }
+    caches =
+        ThreadLocal.withInitial(
+            () -> {
+              ArrayDeque<PooledBuffer>[] cache = new ArrayDeque[sizeClasses];
+              for (int i = sizeClasses; i-- > 0; ) {
+                cache[i] = new ArrayDeque<>(threadCacheSize);
+              }
+              return cache;
+            });
+  }
+
+  static int sizeClass(int capacity) {
+    return capacity <= 1 << MIN_SHIFT
+        ? 0
+        : 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+  }
+
+  /**
+   * Acquires a buffer which can hold at least the given number of bytes. The buffer is cleared
+   * and its limit is at its capacity.
+   *
+   * @param capacity minimum capacity of the buffer
+   * @return buffer with reference count of 1
+   */
+  public PooledBuffer acquire(int capacity) {
+    final int sizeClass = sizeClass(capacity);
+
+    PooledBuffer buffer;
+    if (sizeClass < shared.length) {
+      buffer = caches.get()[sizeClass].pollLast();
+      if (buffer == null) {
+        buffer = shared[sizeClass].poll();
+        if (buffer == null) {
+          buffer = new PooledBuffer(this, sizeClass, allocate(1 << (sizeClass + MIN_SHIFT)));
+        }
+      }
+    } else {
+      buffer = new PooledBuffer(this, -1, allocate(capacity));
+    }
+
+    buffer.acquired();
+    outstanding.increment();
+    track(buffer);
+    return buffer;
+  }
+
+  private ByteBuffer allocate(int capacity) {
+    allocated.increment();
+    return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  private void track(PooledBuffer buffer) {
+    Reference<? extends PooledBuffer> reference;
+    while ((reference = collected.poll()) != null) {
+      final LeakTracker leak = (LeakTracker) reference;
+      if (tracked.remove(leak)) {
+        leaked.increment();
+        outstanding.decrement();
+        logger.error("Leaked a payload buffer of {} bytes!", leak.capacity, leak.allocation);
+      }
+    }
+
+    if (leakSamplingInterval > 0 && leakSampler.getAndIncrement() % leakSamplingInterval == 0) {
+      buffer.tracker = new LeakTracker(buffer, collected);
+      tracked.add(buffer.tracker);
+    }
+  }
+
+  void recycle(PooledBuffer buffer) {
+    outstanding.decrement();
+    if (buffer.tracker != null) {
+      tracked.remove(buffer.tracker);
+      buffer.tracker.clear();
+      buffer.tracker = null;
+    }
+
+    if (buffer.sizeClass < 0) {
+      return;
+    }
+
+    final ArrayDeque<PooledBuffer> cache = caches.get()[buffer.sizeClass];
+    if (cache.size() < threadCacheSize) {
+      cache.addLast(buffer);
+    } else {
+      /* when the shared pool is full as well, let the garbage collector have it */
+      shared[buffer.sizeClass].offer(buffer);
+    }
+  }
+
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /** @return biggest capacity served with pooled buffers */
+  public int getMaxBufferSize() {
+    return 1 << maxShift;
+  }
+
+  /** @return number of buffers allocated by the pool so far */
+  public long getAllocatedCount() {
+    return allocated.sum();
+  }
+
+  /** @return number of buffers acquired but not yet released */
+  public long getOutstandingCount() {
+    return outstanding.sum();
+  }
+
+  /** @return number of buffers detected to be garbage collected without being released */
+  public long getLeakCount() {
+    return leaked.sum();
+  }
+
+  private static final Logger logger = LogManager.getLogger(PayloadBufferPool.class);
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Reference counted buffer handed out by a {@link PayloadBufferPool}. It's born with a reference
+ * count of 1 and goes back to the pool when the count drops to 0, after which neither it nor its
+ * buffer may be touched by the previous owners.
+ */
+public final class PooledBuffer {
+  private static final AtomicIntegerFieldUpdater<PooledBuffer> REFERENCES =
+      AtomicIntegerFieldUpdater.newUpdater(PooledBuffer.class, "references");
+
+  final PayloadBufferPool pool;
+  final int sizeClass;
+  final ByteBuffer buffer;
+  PayloadBufferPool.LeakTracker tracker;
+  PooledUploadPayload payload;
+  private volatile int references;
+
+  PooledBuffer(PayloadBufferPool pool, int sizeClass, ByteBuffer buffer) {
+    this.pool = pool;
+    this.sizeClass = sizeClass;
+    this.buffer = buffer;
+  }
+
+  void acquired() {
+    buffer.clear();
+    references = 1;
+  }
+
+  /** @return the buffer which is owned by the holders of the references */
+  public ByteBuffer buffer() {
+    return buffer;
+  }
+
+  public int capacity() {
+    return buffer.capacity();
+  }
+
+  public int references() {
+    return references;
+  }
+
+  public PooledBuffer retain() {
+    for (int count = references; ; count = references) {
+      if (count <= 0) {
+        throw new IllegalStateException("Retaining a released buffer!");
+      }
+      if (REFERENCES.compareAndSet(this, count, count + 1)) {
+        return this;
+      }
+    }
+  }
+
+  /**
+   * Drops a reference to the buffer.
+   *
+   * @return true if this was the last reference and the buffer went back to the pool
+   */
+  public boolean release() {
+    final int count = REFERENCES.decrementAndGet(this);
+    if (count > 0) {
+      return false;
+    }
+    if (count < 0) {
+      REFERENCES.incrementAndGet(this);
+      throw new IllegalStateException("Releasing an already released buffer!");
+    }
+
+    pool.recycle(this);
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "PooledBuffer{" + "capacity=" + buffer.capacity() + ", references=" + references + '}';
+  }
+}
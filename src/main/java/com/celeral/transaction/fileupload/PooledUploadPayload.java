@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+/**
+ * Payload over a {@link PooledBuffer}. The payload object is recycled along with its buffer, so
+ * after {@link #release()} neither may be touched.
+ */
+public class PooledUploadPayload extends ByteBufferUploadPayload {
+  private PooledBuffer pooled;
+
+  private PooledUploadPayload() {
+    /* for serialization */
+  }
+
+  /**
+   * Turns the bytes between the position and the limit of the pooled buffer into a payload. The
+   * payload takes over the reference held by the caller.
+   *
+   * @param pooled buffer with the data of the payload
+   * @param offset position of the data within the file
+   * @param checksumType checksum protecting the data
+   * @return payload which gives the buffer back to its pool on {@link #release()}
+   */
+  public static PooledUploadPayload wrap(
+      PooledBuffer pooled, long offset, ChecksumType checksumType) {
+    final PooledUploadPayload payload = wrap(pooled, offset, checksumType.getId(), 0);
+    payload.checksum = payload.computeChecksum(checksumType);
+    return payload;
+  }
+
+  /** Wraps the data received along with the checksum computed by the sender. */
+  static PooledUploadPayload wrap(
+      PooledBuffer pooled, long offset, byte checksumType, long checksum) {
+    PooledUploadPayload payload = pooled.payload;
+    if (payload == null) {
+      pooled.payload = payload = new PooledUploadPayload();
+      payload.pooled = pooled;
+      payload.buffer = pooled.buffer;
+    }
+
+    payload.offset = offset;
+    payload.checksumType = checksumType;
+    payload.checksum = checksum;
+    return payload;
+  }
+
+  public PooledBuffer getPooledBuffer() {
+    return pooled;
+  }
+
+  @Override
+  public void release() {
+    pooled.release();
+  }
+
+  @Override
+  public PooledUploadPayload retain() {
+    pooled.retain();
+    return this;
+  }
+}
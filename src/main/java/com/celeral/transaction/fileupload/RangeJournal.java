@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the byte ranges written to a temporary document. It starts with the
+ * identity of the upload (path, size and modified time) followed by a fixed size record for each
+ * range, protected by a CRC so that a record torn by a crash is detected and dropped on load.
+ * Not thread safe.
+ */
+public class RangeJournal implements Closeable {
+  private static final int MAGIC = 0x52414e47; // RANG
+  private static final int RECORD_SIZE = 8 + 8 + 4;
+
+  private final FileChannel channel;
+  private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+  private final CRC32 crc = new CRC32();
+  private final ByteRanges ranges;
+  private long position;
+
+  private RangeJournal(FileChannel channel, ByteRanges ranges, long position) {
+    this.channel = channel;
+    this.ranges = ranges;
+    this.position = position;
+  }
+
+  private static ByteBuffer identity(UploadTransactionHeader header) {
+    byte[] path = header.getPath().getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocate(4 + 8 + 8 + 4 + path.length);
+    buffer.putInt(MAGIC).putLong(header.getSize()).putLong(header.getModifiedTime());
+    buffer.putInt(path.length).put(path);
+    buffer.flip();
+    return buffer;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        return false;
+      }
+      position += read;
+    }
+    buffer.flip();
+    return true;
+  }
+
+  /**
+   * Starts a new journal for the upload, discarding any previous content of the channel.
+   *
+   * @param channel readable and writable channel backing the journal
+   * @param header header of the upload
+   * @return the empty journal
+   * @throws IOException if the journal cannot be written
+   */
+  public static RangeJournal create(FileChannel channel, UploadTransactionHeader header)
+      throws IOException {
+    channel.truncate(0);
+    ByteBuffer identity = identity(header);
+    int length = identity.remaining();
+    writeFully(channel, identity, 0);
+    return new RangeJournal(channel, new ByteRanges(), length);
+  }
+
+  /**
+   * Loads a journal written earlier for the same upload.
+   *
+   * @param channel readable and writable channel backing the journal
+   * @param header header of the upload
+   * @return the journal with the ranges recorded so far or null if the channel does not contain a
+   *     journal for this upload
+   * @throws IOException if the journal cannot be read
+   */
+  public static RangeJournal open(FileChannel channel, UploadTransactionHeader header)
+      throws IOException {
+    ByteBuffer expected = identity(header);
+    ByteBuffer actual = ByteBuffer.allocate(expected.remaining());
+    if (!readFully(channel, actual, 0) || !actual.equals(expected)) {
+      return null;
+    }
+
+    final ByteRanges ranges = new ByteRanges();
+    final RangeJournal journal = new RangeJournal(channel, ranges, expected.limit());
+    final ByteBuffer record = journal.record;
+    while (true) {
+      record.clear();
+      if (!readFully(channel, record, journal.position)) {
+        break;
+      }
+
+      long start = record.getLong();
+      long end = record.getLong();
+      journal.crc.reset();
+      journal.crc.update(record.array(), 0, 16);
+      if ((int) journal.crc.getValue() != record.getInt()
+          || start < 0
+          || end > header.getSize()) {
+        break;
+      }
+
+      ranges.add(start, end);
+      journal.position += RECORD_SIZE;
+    }
+
+    /* drop whatever follows the last intact record */
+    channel.truncate(journal.position);
+    return journal;
+  }
+
+  /** Records that the bytes in the range have been written. */
+  public void append(long start, long end) throws IOException {
+    record.clear();
+    record.putLong(start).putLong(end);
+    crc.reset();
+    crc.update(record.array(), 0, 16);
+    record.putInt((int) crc.getValue());
+    record.flip();
+    writeFully(channel, record, position);
+    position += RECORD_SIZE;
+  }
+
+  /** @return the ranges recovered when the journal was opened; appends do not update them */
+  public ByteRanges getRanges() {
+    return ranges;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
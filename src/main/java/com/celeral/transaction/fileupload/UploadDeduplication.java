@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+/**
+ * Details sent back from the initialization of an upload whose chunks were partly found in a
+ * local copy of the file. The chunks found have already been copied into the temporary document,
+ * so only the missing ranges need to be sent, e.g. using {@link
+ * UploadPayloadIterator#UploadPayloadIterator(UploadTransactionHeader, int, ByteRanges)}.
+ */
+public class UploadDeduplication {
+  private final ByteRanges missingRanges;
+  private final long deduplicatedBytes;
+
+  private UploadDeduplication() {
+    this(null, 0);
+  }
+
+  public UploadDeduplication(ByteRanges missingRanges, long deduplicatedBytes) {
+    this.missingRanges = missingRanges;
+    this.deduplicatedBytes = deduplicatedBytes;
+  }
+
+  public ByteRanges getMissingRanges() {
+    return missingRanges;
+  }
+
+  /** @return number of bytes copied locally instead of being uploaded */
+  public long getDeduplicatedBytes() {
+    return deduplicatedBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "UploadDeduplication{"
+        + "missingRanges="
+        + missingRanges
+        + ", deduplicatedBytes="
+        + deduplicatedBytes
+        + '}';
+  }
+}
@@ -15,33 +15,98 @@
  */
 package com.celeral.transaction.fileupload;
 
-import java.util.zip.Adler32;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
-public class UploadPayload {
-  static final Adler32 checksumComputer = new Adler32();
-
-  static synchronized long computeChecksum(byte[] bytes) {
-    checksumComputer.reset();
-    checksumComputer.update(bytes, 0, bytes.length);
-    return checksumComputer.getValue();
-  }
+import com.celeral.transaction.Releasable;
+import com.celeral.transaction.Sized;
 
+public class UploadPayload implements Releasable, Sized {
   long offset;
   byte[] data;
   long checksum;
+  byte checksumType;
 
-  private UploadPayload() {
+  UploadPayload() {
     /* for serialization */
   }
 
   public UploadPayload(long offset, byte[] data) {
+    this(offset, data, ChecksumType.ADLER32);
+  }
+
+  public UploadPayload(long offset, byte[] data, ChecksumType checksumType) {
     this.offset = offset;
     this.data = data;
-    this.checksum = computeChecksum(data);
+    this.checksumType = checksumType.getId();
+    this.checksum = computeChecksum(checksumType);
+  }
+
+  long computeChecksum(ChecksumType type) {
+    return type.compute(data, 0, data.length);
+  }
+
+  /** @return true if the data matches the checksum computed by the sender */
+  public boolean verifyChecksum() {
+    return computeChecksum(getChecksumType()) == checksum;
+  }
+
+  /** @return codec the data is compressed with on the wire */
+  public Codec getCodec() {
+    return Codec.NONE;
+  }
+
+  public ChecksumType getChecksumType() {
+    return ChecksumType.valueOf(checksumType);
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  @Override
+  public int getLength() {
+    return data.length;
+  }
+
+  /** @return a new buffer over the data of this payload which the caller is free to consume */
+  public ByteBuffer getBuffer() {
+    return ByteBuffer.wrap(data);
+  }
+
+  void writeTo(OutputStream stream) throws IOException {
+    stream.write(data);
+  }
+
+  void writeTo(FileChannel channel, long position) throws IOException {
+    final ByteBuffer buffer = getBuffer();
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  /**
+   * Gives up the data of this payload once it's been consumed. Payloads whose data is borrowed, e.g.
+   * from a {@link PayloadBufferPool}, return it so it can be reused; the payload must not be
+   * touched afterwards.
+   */
+  @Override
+  public void release() {}
+
+  /**
+   * Takes one more reference to the data, so that the payload can be handed to one more consumer
+   * which {@link #release() releases} it on its own.
+   *
+   * @return this payload
+   */
+  public UploadPayload retain() {
+    return this;
   }
 
   @Override
   public String toString() {
-    return "UploadPayload{" + "data=" + data.length + ", sequenceId=" + offset + '}';
+    return "UploadPayload{" + "data=" + getLength() + ", sequenceId=" + offset + '}';
   }
 }
@@ -20,6 +20,7 @@ import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 import com.celeral.utils.Throwables;
@@ -28,30 +29,119 @@ public class UploadPayloadIterator implements Iterator<UploadPayload>, Closeable
   private final FileInputStream is;
   private final int blockSize;
   private final UploadTransactionHeader header;
+  private final ByteRanges ranges;
+  private ChecksumType checksumType = ChecksumType.ADLER32;
+  private Codec codec = Codec.NONE;
+  private final PayloadBufferPool pool;
+  private BlockSizeController blockSizeController;
+  private int range;
+  private long end;
   long offset;
 
   public UploadPayloadIterator(UploadTransactionHeader header, int blockSize) {
+    this(header, blockSize, null);
+  }
+
+  /**
+   * Creates an iterator which only reads the given ranges of the file, e.g. the ones reported
+   * missing by {@link UploadResumption}.
+   *
+   * @param header header of the file to be uploaded
+   * @param blockSize maximum size of each payload
+   * @param ranges ranges to be read or null to read the whole file
+   */
+  public UploadPayloadIterator(UploadTransactionHeader header, int blockSize, ByteRanges ranges) {
+    this(header, blockSize, ranges, null);
+  }
+
+  /**
+   * Creates an iterator which reads the payloads into buffers borrowed from the pool. The payloads
+   * return the buffers when they are {@link UploadPayload#release() released}, which {@link
+   * UploadTransaction} does as soon as it has written them.
+   *
+   * @param header header of the file to be uploaded
+   * @param blockSize maximum size of each payload
+   * @param ranges ranges to be read or null to read the whole file
+   * @param pool pool to borrow the buffers from or null to allocate a new array for each payload
+   */
+  public UploadPayloadIterator(
+      UploadTransactionHeader header, int blockSize, ByteRanges ranges, PayloadBufferPool pool) {
     this.blockSize = blockSize;
     this.header = header;
+    this.ranges = ranges;
+    this.pool = pool;
     try {
       is = new FileInputStream(header.getPath());
     } catch (FileNotFoundException ex) {
       throw Throwables.throwFormatted(
           ex, RuntimeException.class, "Unable to open {}!", header.getPath());
     }
+
+    if (ranges == null) {
+      end = header.getSize();
+    } else if (ranges.getRangeCount() > 0) {
+      seek(0);
+    }
+  }
+
+  private void seek(int range) {
+    this.range = range;
+    offset = ranges.getStart(range);
+    end = Math.min(ranges.getEnd(range), header.getSize());
+    try {
+      is.getChannel().position(offset);
+    } catch (IOException ex) {
+      throw Throwables.throwFormatted(
+          ex,
+          RuntimeException.class,
+          "Unable to seek to offset {} in file {}!",
+          offset,
+          header.getPath());
+    }
+  }
+
+  /** Selects the checksum protecting the payloads created from now on. */
+  public void setChecksumType(ChecksumType checksumType) {
+    this.checksumType = checksumType;
+  }
+
+  /**
+   * Selects the codec compressing the payloads created from now on. The chunks which don't shrink
+   * by at least an eighth are sent uncompressed.
+   */
+  public void setCodec(Codec codec) {
+    this.codec = codec;
+  }
+
+  /**
+   * Lets the controller pick the size of the payloads created from now on instead of the fixed
+   * block size. The sender is expected to report the payloads sent and acknowledged to the same
+   * controller, as {@link com.celeral.transaction.transport.TransactionClient#stream(long,
+   * java.util.Iterator, BlockSizeController)} does.
+   *
+   * @param blockSizeController controller of the payload size or null to use the block size
+   */
+  public void setBlockSizeController(BlockSizeController blockSizeController) {
+    this.blockSizeController = blockSizeController;
   }
 
   @Override
   public boolean hasNext() {
-    return offset < header.getSize();
+    return offset < end;
   }
 
   @Override
   public UploadPayload next() {
+    final int blockSize =
+        blockSizeController == null ? this.blockSize : blockSizeController.getBlockSize();
     long nextOffset = offset + blockSize;
-    int length = nextOffset < header.getSize() ? blockSize : (int) (header.getSize() - offset);
-    byte[] bytes = new byte[length];
+    int length = nextOffset < end ? blockSize : (int) (end - offset);
     try {
+      if (pool != null) {
+        return CompressedUploadPayload.compress(readPooled(length), codec);
+      }
+
+      byte[] bytes = new byte[length];
       int offset = 0;
       int read = is.read(bytes);
       if (read == -1) {
@@ -65,7 +155,8 @@ public class UploadPayloadIterator implements Iterator<UploadPayload>, Closeable
           throw new EOFException();
         }
       }
-      return new UploadPayload(this.offset, bytes);
+      return CompressedUploadPayload.compress(
+          new UploadPayload(this.offset, bytes, checksumType), codec);
     } catch (IOException ex) {
       throw Throwables.throwFormatted(
           ex,
@@ -74,8 +165,29 @@ public class UploadPayloadIterator implements Iterator<UploadPayload>, Closeable
           offset,
           header.getPath());
     } finally {
-      offset = nextOffset;
+      offset = Math.min(nextOffset, end);
+      if (offset == end && ranges != null && range + 1 < ranges.getRangeCount()) {
+        seek(range + 1);
+      }
+    }
+  }
+
+  private UploadPayload readPooled(int length) throws IOException {
+    final PooledBuffer pooled = pool.acquire(length);
+    final ByteBuffer buffer = pooled.buffer();
+    buffer.limit(length);
+    try {
+      while (buffer.hasRemaining()) {
+        if (is.getChannel().read(buffer) == -1) {
+          throw new EOFException();
+        }
+      }
+    } catch (IOException ex) {
+      pooled.release();
+      throw ex;
     }
+    buffer.flip();
+    return PooledUploadPayload.wrap(pooled, offset, checksumType);
   }
 
   @Override
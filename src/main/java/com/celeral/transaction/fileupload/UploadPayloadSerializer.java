@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Serializes all the flavors of {@link UploadPayload}: the offset as a varint, the checksum type
+ * and the codec in a byte followed by the checksum in as many bytes as it needs, then the length
+ * and the data. The data goes straight from the payload, be it an array or a buffer, into the
+ * output. The data of a {@link CompressedUploadPayload} is preceded by its compressed length and
+ * is read back as a compressed payload.
+ *
+ * <p>The payloads are read into heap arrays, or into buffers borrowed from a pool if one is
+ * given, in which case the receiver needs to {@link UploadPayload#release() release} them. The
+ * compressed payloads decompress into buffers borrowed from the same pool.
+ */
+public class UploadPayloadSerializer extends Serializer<UploadPayload> {
+  private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[8192]);
+
+  private final PayloadBufferPool pool;
+
+  public UploadPayloadSerializer() {
+    this(null);
+  }
+
+  /** @param pool pool to read the payloads into or null to allocate an array for each payload */
+  public UploadPayloadSerializer(PayloadBufferPool pool) {
+    this.pool = pool;
+  }
+
+  @Override
+  public void write(Kryo kryo, Output output, UploadPayload payload) {
+    final Codec codec = payload.getCodec();
+    output.writeVarLong(payload.offset, true);
+    output.writeByte(payload.checksumType | codec.getId() << 4);
+    if (payload.checksumType == ChecksumType.XXHASH64.getId()) {
+      output.writeLong(payload.checksum);
+    } else {
+      output.writeInt((int) payload.checksum);
+    }
+
+    output.writeVarInt(payload.getLength(), true);
+    if (codec != Codec.NONE) {
+      final byte[] compressed = payload.data;
+      output.writeVarInt(compressed.length, true);
+      output.writeBytes(compressed);
+      return;
+    }
+
+    try {
+      payload.writeTo(output);
+    } catch (IOException ex) {
+      throw new KryoException(ex);
+    }
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public UploadPayload read(Kryo kryo, Input input, Class type) {
+    final long offset = input.readVarLong(true);
+    final byte header = input.readByte();
+    final byte checksumType = (byte) (header & 0x0F);
+    final byte codec = (byte) ((header & 0xFF) >>> 4);
+    final long checksum =
+        checksumType == ChecksumType.XXHASH64.getId()
+            ? input.readLong()
+            : input.readInt() & 0xFFFFFFFFL;
+    final int length = input.readVarInt(true);
+
+    if (codec != Codec.NONE.getId()) {
+      final CompressedUploadPayload payload = new CompressedUploadPayload();
+      payload.offset = offset;
+      payload.codec = Codec.valueOf(codec).getId();
+      payload.length = length;
+      payload.data = input.readBytes(input.readVarInt(true));
+      payload.checksumType = checksumType;
+      payload.checksum = checksum;
+      payload.pool = pool;
+      return payload;
+    }
+
+    if (pool == null) {
+      final UploadPayload payload = new UploadPayload();
+      payload.offset = offset;
+      payload.data = input.readBytes(length);
+      payload.checksumType = checksumType;
+      payload.checksum = checksum;
+      return payload;
+    }
+
+    final PooledBuffer pooled = pool.acquire(length);
+    final ByteBuffer buffer = pooled.buffer();
+    try {
+      if (buffer.hasArray()) {
+        input.readBytes(buffer.array(), buffer.arrayOffset(), length);
+        buffer.limit(length);
+      } else {
+        final byte[] chunk = scratch.get();
+        for (int remaining = length; remaining > 0; ) {
+          final int count = Math.min(remaining, chunk.length);
+          input.readBytes(chunk, 0, count);
+          buffer.put(chunk, 0, count);
+          remaining -= count;
+        }
+        buffer.flip();
+      }
+    } catch (RuntimeException ex) {
+      pooled.release();
+      throw ex;
+    }
+
+    return PooledUploadPayload.wrap(pooled, offset, checksumType, checksum);
+  }
+}
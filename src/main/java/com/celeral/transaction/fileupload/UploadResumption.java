@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+/**
+ * Details sent back from the initialization of an upload which reattached to the temporary
+ * document of an earlier, interrupted upload of the same file. Only the missing ranges need to be
+ * sent, e.g. using {@link UploadPayloadIterator#UploadPayloadIterator(UploadTransactionHeader, int,
+ * ByteRanges)}.
+ */
+public class UploadResumption {
+  private final ByteRanges missingRanges;
+
+  private UploadResumption() {
+    this(null);
+  }
+
+  public UploadResumption(ByteRanges missingRanges) {
+    this.missingRanges = missingRanges;
+  }
+
+  public ByteRanges getMissingRanges() {
+    return missingRanges;
+  }
+
+  @Override
+  public String toString() {
+    return "UploadResumption{" + "missingRanges=" + missingRanges + '}';
+  }
+}
@@ -15,17 +15,34 @@
  */
 package com.celeral.transaction.fileupload;
 
+import static com.celeral.transaction.Transaction.Result.ABORT;
 import static com.celeral.transaction.Transaction.Result.COMMIT;
 import static com.celeral.transaction.Transaction.Result.CONTINUE;
+import static com.celeral.transaction.Transaction.Result.SKIP;
 
 import java.io.Closeable;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.celeral.utils.Throwables;
+
 import com.celeral.transaction.Transaction;
 
 public abstract class UploadTransaction<D extends UploadTransaction.Document>
@@ -38,41 +55,679 @@ public abstract class UploadTransaction<D extends UploadTransaction.Document>
     boolean delete() throws IOException;
 
     boolean renameTo(String path) throws IOException;
+
+    /**
+     * Forces the data written through the stream of the document to the storage. Only called for
+     * {@link #setGroupCommit(GroupCommit) durable} uploads; the default syncs file output streams.
+     */
+    default void force(OutputStream stream) throws IOException {
+      if (stream instanceof FileOutputStream) {
+        ((FileOutputStream) stream).getFD().sync();
+      } else {
+        stream.flush();
+      }
+    }
+
+    /**
+     * @return the directory which the document is renamed into, which durable uploads sync after
+     *     the rename, or null if the rename is durable by itself
+     */
+    default Path getDirectory(String path) {
+      return null;
+    }
+  }
+
+  /**
+   * Document which supports writes at arbitrary positions. Uploads to such documents accept the
+   * payloads in any order, possibly concurrently from multiple streams, and ignore duplicates.
+   */
+  public interface RandomAccessDocument extends Document {
+
+    /** @return writable channel which also needs to be readable to verify the file digest */
+    FileChannel openChannel() throws IOException;
+  }
+
+  /**
+   * Random access document which keeps a journal of the ranges written to it. When an upload is
+   * interrupted, e.g. by a restart, the next upload of the same file reattaches to the document and
+   * only the missing ranges need to be sent.
+   */
+  public interface ResumableDocument extends RandomAccessDocument {
+
+    /** @return readable and writable channel to the journal, created if it does not exist */
+    FileChannel openJournal() throws IOException;
+
+    boolean deleteJournal() throws IOException;
+  }
+
+  /**
+   * Random access document which is also written asynchronously. The payloads handed to {@link
+   * #processAsync(UploadPayload, Consumer)} are written with positional writes which complete on
+   * the threads of the asynchronous channel, so the thread submitting a payload is not held while
+   * it's written and a few threads can keep many uploads busy.
+   */
+  public interface AsynchronousDocument extends RandomAccessDocument {
+
+    /** @return asynchronous channel to write the same file as {@link #openChannel()} */
+    AsynchronousFileChannel openAsynchronousChannel() throws IOException;
   }
 
-  private OutputStream channel;
+  private OutputStream stream;
+  private FileChannel channel;
+  private AsynchronousFileChannel asynchronousChannel;
+  private ByteRanges received;
+  private RangeJournal journal;
   private D tempFile;
   private long size;
+  private long written;
   private String path;
+  private String digestAlgorithm;
+  private byte[] expectedDigest;
+  private MessageDigest digest;
+  private GroupCommit groupCommit;
+  private boolean prepared;
   Closeable aborter = () -> {};
 
   public abstract D createTemporaryDocument(String path) throws IOException;
 
+  /**
+   * Makes the commits durable: the data of the temporary document is forced before it's renamed to
+   * the path and the directory it's renamed into is forced, along with those of the concurrent
+   * commits sharing the group commit, before the commit returns. By default the commits are not
+   * forced at all.
+   *
+   * @param groupCommit group commit shared by the transactions, or null to not force the commits
+   */
+  public void setGroupCommit(GroupCommit groupCommit) {
+    this.groupCommit = groupCommit;
+  }
+
+  /**
+   * Locates the temporary document left behind by an earlier upload of the same file. Only the
+   * resumable documents are reattached to and the ones whose journal does not match the header
+   * are deleted. Implementations which want to resume uploads need to name the temporary
+   * documents deterministically based on the header.
+   *
+   * @param header header of the upload
+   * @return the temporary document if it exists, null otherwise
+   * @throws IOException if the lookup fails
+   */
+  public D findTemporaryDocument(UploadTransactionHeader header) throws IOException {
+    return null;
+  }
+
+  /**
+   * Opens a local file which may share content with the file being uploaded, typically the
+   * current version of the file at the destination. It's only consulted for the uploads whose
+   * header carries {@link UploadTransactionHeader#getChunkSignatures() chunk signatures}: the
+   * chunks found in it are copied into random access documents instead of being uploaded, and when
+   * it's the destination itself and already has the content of the upload, the upload is {@link
+   * Result#SKIP skipped}.
+   *
+   * @param header header of the upload
+   * @return readable channel to the file, which the transaction closes, or null if there is none
+   * @throws IOException if the file exists but cannot be opened
+   */
+  public FileChannel openBasis(UploadTransactionHeader header) throws IOException {
+    return null;
+  }
+
+  /**
+   * Tells whether the {@link #openBasis(UploadTransactionHeader) basis} is the file at the
+   * destination of the upload. Only then can an upload whose content the basis already has be
+   * skipped, provided the header carries a digest which the basis matches; otherwise the content
+   * is copied from the basis and committed.
+   *
+   * @param header header of the upload
+   * @return true if the basis is the destination, false by default
+   */
+  public boolean isBasisAtDestination(UploadTransactionHeader header) {
+    return false;
+  }
+
   @Override
   public Result init(UploadTransactionHeader header, Consumer<Object> details) throws IOException {
     size = header.getSize();
     path = header.getPath();
+    digestAlgorithm = header.getDigestAlgorithm();
+    expectedDigest = header.getDigest();
+
+    final D previous = findTemporaryDocument(header);
+    if (previous instanceof ResumableDocument && resume(previous, header)) {
+      final ByteRanges missing = received.complement(size);
+      logger.debug("Resuming upload of {} with {} bytes missing", path, missing.getCoveredBytes());
+      details.accept(new UploadResumption(missing));
+      return missing.getCoveredBytes() == 0 ? COMMIT : CONTINUE;
+    }
 
+    final ChunkSignatures signatures = header.getChunkSignatures();
+    if (signatures != null && signatures.getSize() != size) {
+      throw Throwables.throwFormatted(
+          IllegalArgumentException.class,
+          "{} do not cover the {} bytes of {}!",
+          signatures,
+          size,
+          path);
+    }
+
+    final FileChannel basis = signatures == null ? null : openBasis(header);
+    try (Closeable unused = basis) {
+      final ChunkSignatures basisSignatures =
+          basis == null ? null : signatures.getChunker().chunk(basis, basis.size());
+      if (basisSignatures != null
+          && basisSignatures.equals(signatures)
+          && isBasisAtDestination(header)
+          && digestAlgorithm != null
+          && MessageDigest.isEqual(expectedDigest, digestChannel(basis))) {
+        logger.debug("Skipping upload of {} which is already present", path);
+        return SKIP;
+      }
+
+      final Result result = create(header);
+      if (basisSignatures == null) {
+        return result;
+      }
+      if (channel == null) {
+        logger.debug("Unable to deduplicate {} into sequential {}", path, tempFile);
+        return result;
+      }
+      return deduplicate(basis, basisSignatures, signatures, details);
+    }
+  }
+
+  private Result create(UploadTransactionHeader header) throws IOException {
     tempFile = createTemporaryDocument(path);
-    try {
-      channel = tempFile.openOutputStream();
-      aborter =
-          () -> {
-            try (Closeable unused = tempFile::delete) {
-              channel.close();
-            }
-          };
-    } catch (Throwable th) {
-      aborter = () -> channel.close();
+    aborter =
+        () -> {
+          try (Closeable unused = this::discard) {
+            close();
+          }
+        };
+
+    if (tempFile instanceof RandomAccessDocument) {
+      channel = ((RandomAccessDocument) tempFile).openChannel();
+      received = new ByteRanges();
+      if (tempFile instanceof ResumableDocument) {
+        journal = RangeJournal.create(((ResumableDocument) tempFile).openJournal(), header);
+      }
+      if (tempFile instanceof AsynchronousDocument) {
+        asynchronousChannel = ((AsynchronousDocument) tempFile).openAsynchronousChannel();
+      }
+    } else {
+      stream = tempFile.openOutputStream();
+      if (digestAlgorithm != null) {
+        digest = newDigest();
+      }
     }
+
     return size == 0 ? COMMIT : CONTINUE;
   }
 
+  /** Copies the chunks of the upload found in the basis into the temporary document. */
+  private Result deduplicate(
+      FileChannel basis,
+      ChunkSignatures basisSignatures,
+      ChunkSignatures signatures,
+      Consumer<Object> details)
+      throws IOException {
+    final Map<Long, Integer> chunks = new HashMap<>();
+    final long[] offsets = new long[basisSignatures.getChunkCount()];
+    long offset = 0;
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = offset;
+      offset += basisSignatures.getLength(i);
+      chunks.putIfAbsent(basisSignatures.getHash(i), i);
+    }
+
+    long copied = 0;
+    offset = 0;
+    for (int i = 0; i < signatures.getChunkCount(); i++) {
+      final int length = signatures.getLength(i);
+      final Integer chunk = chunks.get(signatures.getHash(i));
+      if (chunk != null && basisSignatures.getLength(chunk) == length) {
+        /* unlike transferFrom, transferTo may write past the end of the document */
+        channel.position(offset);
+        for (long position = offsets[chunk], end = position + length; position < end; ) {
+          final long transferred = basis.transferTo(position, end - position, channel);
+          if (transferred <= 0) {
+            throw Throwables.throwFormatted(
+                IOException.class, "Unable to copy chunk at {} for {}!", offset, path);
+          }
+          position += transferred;
+        }
+        received.add(offset, offset + length);
+        copied += length;
+      }
+      offset += length;
+    }
+
+    if (journal != null) {
+      for (int i = 0; i < received.getRangeCount(); i++) {
+        journal.append(received.getStart(i), received.getEnd(i));
+      }
+    }
+
+    final ByteRanges missing = received.complement(size);
+    logger.debug("Deduplicated {} bytes of {}", copied, path);
+    details.accept(new UploadDeduplication(missing, copied));
+    return missing.getCoveredBytes() == 0 ? COMMIT : CONTINUE;
+  }
+
+  private boolean resume(D document, UploadTransactionHeader header) throws IOException {
+    final ResumableDocument resumable = (ResumableDocument) document;
+
+    final RangeJournal previous;
+    final FileChannel journalChannel = resumable.openJournal();
+    try {
+      previous = RangeJournal.open(journalChannel, header);
+    } catch (IOException ex) {
+      journalChannel.close();
+      throw ex;
+    }
+
+    if (previous == null) {
+      logger.debug("Discarding stale temporary document {} for {}", document, path);
+      journalChannel.close();
+      document.delete();
+      resumable.deleteJournal();
+      return false;
+    }
+
+    tempFile = document;
+    journal = previous;
+    received = previous.getRanges();
+    aborter =
+        () -> {
+          try (Closeable unused = this::discard) {
+            close();
+          }
+        };
+    channel = resumable.openChannel();
+    if (document instanceof AsynchronousDocument) {
+      asynchronousChannel = ((AsynchronousDocument) document).openAsynchronousChannel();
+    }
+    return true;
+  }
+
+  private MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(digestAlgorithm);
+    } catch (NoSuchAlgorithmException ex) {
+      throw Throwables.throwFormatted(
+          ex, IllegalArgumentException.class, "Unsupported digest for {}!", path);
+    }
+  }
+
+  /**
+   * Verifies the checksum of the payload, writes it and then {@link UploadPayload#release()
+   * releases} it.
+   */
   @Override
   public Result process(UploadPayload payload, Consumer<Object> details) throws IOException {
-    channel.write(payload.data);
+    try {
+      if (!payload.verifyChecksum()) {
+        logger.warn("Dropping {} for {} due to checksum mismatch!", payload, path);
+        details.accept(new ChecksumMismatch(payload.offset, payload.getLength()));
+        return channel == null ? ABORT : CONTINUE;
+      }
+
+      return write(payload);
+    } finally {
+      payload.release();
+    }
+  }
+
+  private Result write(UploadPayload payload) throws IOException {
+    if (channel == null) {
+      checkSequential(payload, written);
+      payload.writeTo(stream);
+      if (digest != null) {
+        digest.update(payload.getBuffer());
+      }
+      written += payload.getLength();
+      return written == size ? COMMIT : CONTINUE;
+    }
+
+    if (isDuplicate(payload)) {
+      return CONTINUE;
+    }
 
-    return payload.offset + payload.data.length == size ? COMMIT : CONTINUE;
+    final long start = payload.offset;
+    payload.writeTo(channel, start);
+    return record(start, start + payload.getLength()) ? COMMIT : CONTINUE;
+  }
+
+  /** Checks that the payload is within the document and whether it was already received. */
+  private boolean isDuplicate(UploadPayload payload) {
+    final long start = payload.offset;
+    final long end = start + payload.getLength();
+    if (start < 0 || end > size) {
+      throw Throwables.throwFormatted(
+          IllegalArgumentException.class,
+          "{} is outside of the {} bytes of {}!",
+          payload,
+          size,
+          path);
+    }
+
+    synchronized (received) {
+      if (received.contains(start, end)) {
+        logger.debug("Ignoring duplicate {} for {}", payload, path);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Records the range as written to the document.
+   *
+   * @return true if the range completed the document
+   */
+  private boolean record(long start, long end) throws IOException {
+    synchronized (received) {
+      if (received.add(start, end) == 0) {
+        return false;
+      }
+
+      if (journal != null) {
+        journal.append(start, end);
+      }
+      return received.getCoveredBytes() == size;
+    }
+  }
+
+  /**
+   * Verifies the checksum of the payload and writes it asynchronously to the {@link
+   * AsynchronousDocument}s, completing the future and {@link UploadPayload#release() releasing}
+   * the payload once the write completes. The payloads for any other document are processed
+   * right away.
+   */
+  @Override
+  public CompletableFuture<Result> processAsync(UploadPayload payload, Consumer<Object> details) {
+    if (asynchronousChannel == null) {
+      return Transaction.super.processAsync(payload, details);
+    }
+
+    final CompletableFuture<Result> future = new CompletableFuture<>();
+    try {
+      if (!payload.verifyChecksum()) {
+        logger.warn("Dropping {} for {} due to checksum mismatch!", payload, path);
+        details.accept(new ChecksumMismatch(payload.offset, payload.getLength()));
+        payload.release();
+        future.complete(CONTINUE);
+      } else if (isDuplicate(payload)) {
+        payload.release();
+        future.complete(CONTINUE);
+      } else {
+        final AsynchronousWrite write = new AsynchronousWrite(payload, future);
+        write.next(write.start);
+      }
+    } catch (RuntimeException ex) {
+      payload.release();
+      future.completeExceptionally(ex);
+    }
+    return future;
+  }
+
+  /** Positional write of a payload, resubmitted from its completions until it's all written. */
+  private final class AsynchronousWrite implements CompletionHandler<Integer, Long> {
+    private final UploadPayload payload;
+    private final ByteBuffer buffer;
+    private final long start;
+    private final long end;
+    private final CompletableFuture<Result> future;
+
+    AsynchronousWrite(UploadPayload payload, CompletableFuture<Result> future) {
+      this.payload = payload;
+      this.buffer = payload.getBuffer();
+      this.start = payload.offset;
+      this.end = start + payload.getLength();
+      this.future = future;
+    }
+
+    void next(long position) {
+      asynchronousChannel.write(buffer, position, position, this);
+    }
+
+    @Override
+    public void completed(Integer written, Long position) {
+      if (buffer.hasRemaining()) {
+        try {
+          next(position + written);
+        } catch (RuntimeException ex) {
+          failed(ex, position);
+        }
+        return;
+      }
+
+      payload.release();
+      try {
+        future.complete(record(start, end) ? COMMIT : CONTINUE);
+      } catch (IOException | RuntimeException ex) {
+        future.completeExceptionally(ex);
+      }
+    }
+
+    @Override
+    public void failed(Throwable th, Long position) {
+      payload.release();
+      future.completeExceptionally(th);
+    }
+  }
+
+  /**
+   * Verifies the checksums of the payloads and writes them, coalescing the adjacent ones into a
+   * single gathering write. All the payloads are {@link UploadPayload#release() released} once
+   * written.
+   */
+  @Override
+  public Result processBatch(List<? extends UploadPayload> payloads, Consumer<Object> details)
+      throws IOException {
+    try {
+      return channel == null
+          ? writeSequentially(payloads, details)
+          : writeRandomly(payloads, details);
+    } finally {
+      for (int i = 0; i < payloads.size(); i++) {
+        payloads.get(i).release();
+      }
+    }
+  }
+
+  private Result writeSequentially(List<? extends UploadPayload> payloads, Consumer<Object> details)
+      throws IOException {
+    final int count = payloads.size();
+    long end = written;
+    for (int i = 0; i < count; i++) {
+      final UploadPayload payload = payloads.get(i);
+      if (!payload.verifyChecksum()) {
+        logger.warn("Dropping {} for {} due to checksum mismatch!", payload, path);
+        details.accept(new ChecksumMismatch(payload.offset, payload.getLength()));
+        return ABORT;
+      }
+      checkSequential(payload, end);
+      end += payload.getLength();
+    }
+
+    if (count == 0) {
+      return CONTINUE;
+    }
+
+    if (stream instanceof FileOutputStream) {
+      final ByteBuffer[] buffers = new ByteBuffer[count];
+      for (int i = 0; i < count; i++) {
+        buffers[i] = payloads.get(i).getBuffer();
+      }
+      writeFully(((FileOutputStream) stream).getChannel(), buffers, 0, count);
+    } else {
+      for (int i = 0; i < count; i++) {
+        payloads.get(i).writeTo(stream);
+      }
+    }
+
+    if (digest != null) {
+      for (int i = 0; i < count; i++) {
+        digest.update(payloads.get(i).getBuffer());
+      }
+    }
+
+    written = end;
+    return written == size ? COMMIT : CONTINUE;
+  }
+
+  /**
+   * The payloads of a sequential document may have any length, e.g. when their size adapts to the
+   * network, but each one must start where the previous one ended.
+   */
+  private void checkSequential(UploadPayload payload, long expected) {
+    if (payload.offset != expected || expected + payload.getLength() > size) {
+      throw Throwables.throwFormatted(
+          IllegalArgumentException.class,
+          "{} does not continue the {} of {} bytes written to {}!",
+          payload,
+          expected,
+          size,
+          path);
+    }
+  }
+
+  private Result writeRandomly(List<? extends UploadPayload> payloads, Consumer<Object> details)
+      throws IOException {
+    final int count = payloads.size();
+    final ByteBuffer[] buffers = new ByteBuffer[count];
+    ByteRanges mismatched = null;
+    Result result = CONTINUE;
+
+    int run = 0;
+    long start = 0;
+    long end = 0;
+    for (int i = 0; i <= count; i++) {
+      final UploadPayload payload = i < count ? payloads.get(i) : null;
+      if (payload != null) {
+        final long offset = payload.offset;
+        if (offset < 0 || offset + payload.getLength() > size) {
+          throw Throwables.throwFormatted(
+              IllegalArgumentException.class,
+              "{} is outside of the {} bytes of {}!",
+              payload,
+              size,
+              path);
+        }
+
+        if (!payload.verifyChecksum()) {
+          logger.warn("Dropping {} for {} due to checksum mismatch!", payload, path);
+          if (mismatched == null) {
+            mismatched = new ByteRanges();
+          }
+          mismatched.add(offset, offset + payload.getLength());
+          continue;
+        }
+
+        if (run > 0 && offset == end) {
+          buffers[run++] = payload.getBuffer();
+          end += payload.getLength();
+          continue;
+        }
+      }
+
+      if (run > 0 && write(buffers, run, start, end)) {
+        result = COMMIT;
+      }
+
+      if (payload != null) {
+        run = 0;
+        buffers[run++] = payload.getBuffer();
+        start = payload.offset;
+        end = start + payload.getLength();
+      }
+    }
+
+    if (mismatched != null) {
+      details.accept(new ChecksumMismatch(mismatched));
+    }
+    return result;
+  }
+
+  /**
+   * Writes a run of adjacent buffers covering the range with a single gathering write.
+   *
+   * @return true if the write completed the document
+   */
+  private boolean write(ByteBuffer[] buffers, int count, long start, long end) throws IOException {
+    synchronized (received) {
+      if (received.contains(start, end)) {
+        logger.debug("Ignoring duplicate range [{}, {}) for {}", start, end, path);
+        return false;
+      }
+    }
+
+    /* gathering writes only happen at the position of the channel */
+    synchronized (channel) {
+      channel.position(start);
+      writeFully(channel, buffers, 0, count);
+    }
+
+    return record(start, end);
+  }
+
+  private static void writeFully(
+      GatheringByteChannel channel, ByteBuffer[] buffers, int offset, int length)
+      throws IOException {
+    final int last = offset + length - 1;
+    while (buffers[last].hasRemaining()) {
+      channel.write(buffers, offset, length);
+      while (offset < last && !buffers[offset].hasRemaining()) {
+        offset++;
+        length--;
+      }
+    }
+  }
+
+  private void close() throws IOException {
+    try (Closeable unused = journal) {
+      if (asynchronousChannel != null) {
+        asynchronousChannel.close();
+      }
+      if (channel != null) {
+        channel.close();
+      }
+      if (stream != null) {
+        stream.close();
+      }
+    }
+  }
+
+  /** Closes the temporary document, leaving it and its journal in place to be resumed. */
+  @Override
+  public void dispose() throws IOException {
+    close();
+  }
+
+  private void discard() throws IOException {
+    try (Closeable unused = tempFile::delete) {
+      if (tempFile instanceof ResumableDocument) {
+        ((ResumableDocument) tempFile).deleteJournal();
+      }
+    }
+  }
+
+  /**
+   * Deletes the temporary document, along with its journal, left behind by an upload of the file
+   * which was interrupted by a crash. Only the documents which {@link
+   * #findTemporaryDocument(UploadTransactionHeader)} can locate are deleted.
+   */
+  @Override
+  public void rollback(UploadTransactionHeader header) throws IOException {
+    final D previous = findTemporaryDocument(header);
+    if (previous != null) {
+      logger.debug("Deleting orphaned temporary document {} for {}", previous, header.getPath());
+      try (Closeable unused = previous::delete) {
+        if (previous instanceof ResumableDocument) {
+          ((ResumableDocument) previous).deleteJournal();
+        }
+      }
+    }
   }
 
   @Override
@@ -81,9 +736,66 @@ public abstract class UploadTransaction<D extends UploadTransaction.Document>
     aborter.close();
   }
 
+  private byte[] digestChannel(FileChannel channel) throws IOException {
+    final MessageDigest digest = newDigest();
+    final ByteBuffer buffer = ByteBuffer.allocate(64 << 10);
+    long position = 0;
+    int read;
+    while (position < size && (read = channel.read(buffer, position)) >= 0) {
+      position += read;
+      buffer.flip();
+      digest.update(buffer);
+      buffer.clear();
+    }
+    return digest.digest();
+  }
+
+  private void verifyDigest() throws IOException {
+    final byte[] actual = digest == null ? digestChannel(channel) : digest.digest();
+    if (!MessageDigest.isEqual(expectedDigest, actual)) {
+      throw Throwables.throwFormatted(
+          IllegalStateException.class, "{} digest mismatch for {}!", digestAlgorithm, path);
+    }
+  }
+
+  /**
+   * Verifies the digest of the file and, for the durable uploads, forces its data, leaving only
+   * the rename for the commit.
+   */
+  @Override
+  public boolean prepare() throws IOException {
+    if (!prepared) {
+      if (digestAlgorithm != null) {
+        verifyDigest();
+      }
+      if (groupCommit != null) {
+        if (channel != null) {
+          channel.force(false);
+        } else {
+          tempFile.force(stream);
+        }
+      }
+      close();
+      prepared = true;
+    }
+    return true;
+  }
+
   public void commit() throws IOException {
-    channel.close();
-    tempFile.renameTo(path);
+    prepare();
+    if (!tempFile.renameTo(path)) {
+      throw Throwables.throwFormatted(
+          IOException.class, "Unable to rename {} to {}!", tempFile, path);
+    }
+    if (groupCommit != null) {
+      final Path directory = tempFile.getDirectory(path);
+      if (directory != null) {
+        groupCommit.sync(directory);
+      }
+    }
+    if (journal != null) {
+      ((ResumableDocument) tempFile).deleteJournal();
+    }
     logger.debug("Creating file {}", path);
   }
 
@@ -21,4 +21,46 @@ public interface UploadTransactionHeader {
   long getSize();
 
   long getModifiedTime();
+
+  /**
+   * Names the {@link java.security.MessageDigest} algorithm of {@link #getDigest()}.
+   *
+   * @return the algorithm or null if the upload is not protected by a digest of the whole file
+   */
+  default String getDigestAlgorithm() {
+    return null;
+  }
+
+  /** @return digest of the whole file, verified before the upload commits */
+  default byte[] getDigest() {
+    return null;
+  }
+
+  /**
+   * Describes the content of the file so that the receiver can find the chunks it already has,
+   * e.g. in the previous version of the file, and have only the rest uploaded.
+   *
+   * @return signatures computed with a {@link ContentDefinedChunker} or null to upload everything
+   * @see UploadTransaction#openBasis(UploadTransactionHeader)
+   */
+  default ChunkSignatures getChunkSignatures() {
+    return null;
+  }
+
+  /**
+   * Computes the bytes a transaction is about to upload, e.g. for an {@link
+   * com.celeral.transaction.processor.AdmissionController}.
+   *
+   * @param header header of the transaction
+   * @return the size of the upload or the bundle and 0 for any other header
+   */
+  static long sizeOf(Object header) {
+    if (header instanceof UploadTransactionHeader) {
+      return ((UploadTransactionHeader) header).getSize();
+    }
+    if (header instanceof BundleTransactionHeader) {
+      return ((BundleTransactionHeader) header).getSize();
+    }
+    return 0;
+  }
 }
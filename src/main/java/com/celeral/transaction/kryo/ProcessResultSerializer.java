@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import com.celeral.transaction.Transaction;
+import com.celeral.transaction.TransactionProcessor.ProcessResult;
+import com.celeral.transaction.TransactionProcessor.ProcessResultImpl;
+
+/** Writes the result in a byte followed by the details, if any. */
+public class ProcessResultSerializer extends Serializer<ProcessResult> {
+  static final Transaction.Result[] RESULTS = Transaction.Result.values();
+
+  @Override
+  public void write(Kryo kryo, Output output, ProcessResult result) {
+    output.writeByte(result.getResult().ordinal());
+    kryo.writeClassAndObject(output, result.getDetails());
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public ProcessResult read(Kryo kryo, Input input, Class type) {
+    final Transaction.Result result = RESULTS[input.readByte()];
+    return new ProcessResultImpl(result, kryo.readClassAndObject(input));
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Serializer of a constant which writes nothing at all, so the constant costs only the byte of its
+ * class registration on the wire and is read back as the same instance.
+ */
+public class SingletonSerializer<T> extends Serializer<T> {
+  private final T instance;
+
+  public SingletonSerializer(T instance) {
+    this.instance = instance;
+    setImmutable(true);
+  }
+
+  @Override
+  public void write(Kryo kryo, Output output, T object) {}
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public T read(Kryo kryo, Input input, Class type) {
+    return instance;
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+
+import com.celeral.transaction.TransactionProcessor.InitializationResult;
+import com.celeral.transaction.TransactionProcessor.InitializationResultImpl;
+import com.celeral.transaction.TransactionProcessor.ProcessResult;
+import com.celeral.transaction.TransactionProcessor.ProcessResultImpl;
+import com.celeral.transaction.TransactionProcessor.ResultHolder;
+import com.celeral.transaction.fileupload.ByteBufferUploadPayload;
+import com.celeral.transaction.fileupload.ByteRanges;
+import com.celeral.transaction.fileupload.ChecksumMismatch;
+import com.celeral.transaction.fileupload.ChunkSignatures;
+import com.celeral.transaction.fileupload.CompressedUploadPayload;
+import com.celeral.transaction.fileupload.PayloadBufferPool;
+import com.celeral.transaction.fileupload.PooledUploadPayload;
+import com.celeral.transaction.fileupload.UploadDeduplication;
+import com.celeral.transaction.fileupload.UploadPayload;
+import com.celeral.transaction.fileupload.UploadPayloadSerializer;
+import com.celeral.transaction.fileupload.UploadResumption;
+import com.celeral.transaction.processor.AdmissionRejection;
+import com.celeral.transaction.processor.TwoPhaseCommitCoordinator;
+
+/**
+ * Registers the types which go over the wire with hand written serializers under fixed ids, so
+ * that each peer which registers them agrees on the ids. New types need to be registered at the
+ * end to keep the existing ids stable.
+ */
+public final class TransactionKryo {
+  /** Id of the first registration; the ones below are left to Kryo and the application. */
+  public static final int FIRST_ID = 40;
+
+  private static final ThreadLocal<Kryo> kryos =
+      ThreadLocal.withInitial(TransactionKryo::newInstance);
+
+  private TransactionKryo() {}
+
+  /**
+   * Creates a Kryo instance with the registrations. The wire types do not form cycles, so it
+   * doesn't track references to save the byte each object would cost.
+   *
+   * @return the instance
+   */
+  public static Kryo newInstance() {
+    final Kryo kryo = new Kryo();
+    kryo.setReferences(false);
+    return register(kryo);
+  }
+
+  /** @return instance created by {@link #newInstance()} for the calling thread */
+  public static Kryo get() {
+    return kryos.get();
+  }
+
+  public static Kryo register(Kryo kryo) {
+    return register(kryo, null);
+  }
+
+  /**
+   * Registers the wire types with the Kryo instance.
+   *
+   * @param kryo the instance
+   * @param pool pool to read the payloads into or null to allocate an array for each payload
+   * @return the instance
+   */
+  public static Kryo register(Kryo kryo, PayloadBufferPool pool) {
+    int id = FIRST_ID;
+
+    kryo.register(ProcessResultImpl.class, new ProcessResultSerializer(), id++);
+    /* the holders are read back as InitializationResultImpl */
+    final InitializationResultSerializer initializationResults =
+        new InitializationResultSerializer();
+    kryo.register(InitializationResultImpl.class, initializationResults, id++);
+    kryo.register(ResultHolder.class, initializationResults, id++);
+
+    for (ProcessResult singleton :
+        new ProcessResult[] {
+          ProcessResult.CONTINUED,
+          ProcessResult.ABORTED,
+          ProcessResult.COMMITTED,
+          ProcessResult.SKIP,
+          InitializationResult.ABORTED,
+          InitializationResult.COMMITTED,
+          InitializationResult.SKIP
+        }) {
+      kryo.register(singleton.getClass(), new SingletonSerializer<>(singleton), id++);
+    }
+
+    final UploadPayloadSerializer payloads = new UploadPayloadSerializer(pool);
+    kryo.register(UploadPayload.class, payloads, id++);
+    kryo.register(ByteBufferUploadPayload.class, payloads, id++);
+    kryo.register(PooledUploadPayload.class, payloads, id++);
+
+    kryo.register(long[].class, id++);
+    kryo.register(ByteRanges.class, id++);
+    kryo.register(UploadResumption.class, id++);
+    kryo.register(ChecksumMismatch.class, id++);
+    kryo.register(CompressedUploadPayload.class, payloads, id++);
+    kryo.register(int[].class, id++);
+    kryo.register(ChunkSignatures.class, id++);
+    kryo.register(UploadDeduplication.class, id++);
+    kryo.register(AdmissionRejection.class, id++);
+    kryo.register(AdmissionRejection.Reason.class, id++);
+    kryo.register(TwoPhaseCommitCoordinator.ParticipantId.class, id++);
+    kryo.register(TwoPhaseCommitCoordinator.ParticipantId[].class, id++);
+    return kryo;
+  }
+}
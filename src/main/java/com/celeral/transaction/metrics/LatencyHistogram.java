@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with 4 buckets per power of 2, i.e. within 25% of the
+ * actual values. Each bucket is a striped counter so concurrent recordings neither lock nor contend
+ * on the same cache line.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final LongAdder[] buckets = new LongAdder[64 * SUB_BUCKETS];
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public LatencyHistogram() {
+    for (int i = buckets.length; i-- > 0; ) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) Math.max(value, 0);
+    }
+
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+  }
+
+  /** @return the largest value which falls in the bucket */
+  static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+
+    final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    final long next = SUB_BUCKETS + bucket % SUB_BUCKETS + 1;
+    /* the last bucket overflows to Long.MAX_VALUE */
+    return (next << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+  public void record(long nanos) {
+    buckets[bucket(nanos)].increment();
+    sum.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  /**
+   * Estimates a percentile from the buckets; concurrent recordings may or may not be accounted.
+   *
+   * @param percentile between 0 and 100
+   * @return upper bound of the bucket in which the percentile falls, 0 if nothing was recorded
+   */
+  public long getPercentile(double percentile) {
+    final long[] counts = new long[buckets.length];
+    long total = 0;
+    for (int i = 0; i < counts.length; i++) {
+      total += counts[i] = buckets[i].sum();
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(upperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public LatencySnapshot snapshot() {
+    final long count = getCount();
+    return new LatencySnapshot(
+        count,
+        count == 0 ? 0 : sum.sum() / count,
+        getPercentile(50),
+        getPercentile(90),
+        getPercentile(99),
+        getPercentile(99.9),
+        max.get());
+  }
+}
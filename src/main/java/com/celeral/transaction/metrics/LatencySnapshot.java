@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.metrics;
+
+import java.beans.ConstructorProperties;
+
+/** Summary of a {@link LatencyHistogram} at a point in time, in nanoseconds. */
+public class LatencySnapshot {
+  private final long count;
+  private final long mean;
+  private final long median;
+  private final long p90;
+  private final long p99;
+  private final long p999;
+  private final long max;
+
+  @ConstructorProperties({"count", "mean", "median", "p90", "p99", "p999", "max"})
+  public LatencySnapshot(
+      long count, long mean, long median, long p90, long p99, long p999, long max) {
+    this.count = count;
+    this.mean = mean;
+    this.median = median;
+    this.p90 = p90;
+    this.p99 = p99;
+    this.p999 = p999;
+    this.max = max;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getMean() {
+    return mean;
+  }
+
+  public long getMedian() {
+    return median;
+  }
+
+  public long getP90() {
+    return p90;
+  }
+
+  public long getP99() {
+    return p99;
+  }
+
+  public long getP999() {
+    return p999;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return "LatencySnapshot{"
+        + "count="
+        + count
+        + ", mean="
+        + mean
+        + ", median="
+        + median
+        + ", p90="
+        + p90
+        + ", p99="
+        + p99
+        + ", p999="
+        + p999
+        + ", max="
+        + max
+        + '}';
+  }
+}
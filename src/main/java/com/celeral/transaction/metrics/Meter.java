@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts events and estimates their rate per second as a one minute exponentially weighted moving
+ * average, updated every 5 seconds. The events are added to a striped counter; the thread which
+ * finds the average stale wins a CAS and folds the events into it, so no thread ever blocks.
+ */
+public class Meter {
+  private static final long TICK = TimeUnit.SECONDS.toNanos(5);
+  private static final double ALPHA = 1 - Math.exp(-5 / 60.0);
+
+  private final LongSupplier clock;
+  private final LongAdder count = new LongAdder();
+  private final LongAdder uncounted = new LongAdder();
+  private final AtomicLong lastTick;
+  private volatile boolean initialized;
+  private volatile double rate;
+
+  public Meter() {
+    this(System::nanoTime);
+  }
+
+  /** @param clock source of monotonic time in nanoseconds */
+  public Meter(LongSupplier clock) {
+    this.clock = clock;
+    this.lastTick = new AtomicLong(clock.getAsLong());
+  }
+
+  public void mark(long events) {
+    tickIfNecessary();
+    count.add(events);
+    uncounted.add(events);
+  }
+
+  private void tickIfNecessary() {
+    final long previous = lastTick.get();
+    final long now = clock.getAsLong();
+    final long elapsed = now - previous;
+    if (elapsed < TICK) {
+      return;
+    }
+
+    final long ticks = elapsed / TICK;
+    if (lastTick.compareAndSet(previous, previous + ticks * TICK)) {
+      /* the first tick has the events since the last one, the rest had none */
+      tick(uncounted.sumThenReset());
+      for (long i = Math.min(ticks, 60) - 1; i > 0; i--) {
+        tick(0);
+      }
+    }
+  }
+
+  private void tick(long events) {
+    final double instant = events / (TICK / 1e9);
+    if (initialized) {
+      rate += ALPHA * (instant - rate);
+    } else {
+      rate = instant;
+      initialized = true;
+    }
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  /** @return events per second averaged over the last minute */
+  public double getRate() {
+    tickIfNecessary();
+    return rate;
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.celeral.utils.Throwables;
+
+import com.celeral.transaction.Sized;
+import com.celeral.transaction.Transaction;
+
+/**
+ * Listener which keeps latency histograms of each phase, counts of the results, the number of
+ * transactions in flight and the rates of the bytes received, aborts and exceptions. All the
+ * updates go to striped counters so it's cheap enough to leave on in production. Register it with
+ * the platform MBean server to expose it over JMX.
+ */
+public class ProcessorMetrics implements TransactionListener, ProcessorMetricsMXBean {
+  private static final Transaction.Result[] RESULTS = Transaction.Result.values();
+
+  private final ToLongFunction<Object> payloadSize;
+  private final EnumMap<Phase, LatencyHistogram> latencies = new EnumMap<>(Phase.class);
+  private final LongAdder[] initResults = new LongAdder[RESULTS.length];
+  private final LongAdder[] processResults = new LongAdder[RESULTS.length];
+  private final LongAdder inFlight = new LongAdder();
+  private final Meter bytes = new Meter();
+  private final Meter aborts = new Meter();
+  private final Meter exceptions = new Meter();
+
+  /** Creates the metrics which count the bytes of the {@link Sized} payloads. */
+  public ProcessorMetrics() {
+    this(payload -> payload instanceof Sized ? ((Sized) payload).getLength() : 0);
+  }
+
+  /** @param payloadSize function which returns the number of bytes in a payload */
+  public ProcessorMetrics(ToLongFunction<Object> payloadSize) {
+    this.payloadSize = payloadSize;
+    for (Phase phase : Phase.values()) {
+      latencies.put(phase, new LatencyHistogram());
+    }
+    for (int i = RESULTS.length; i-- > 0; ) {
+      initResults[i] = new LongAdder();
+      processResults[i] = new LongAdder();
+    }
+  }
+
+  @Override
+  public void completed(Phase phase, Transaction.Result result, long nanos) {
+    latencies.get(phase).record(nanos);
+    switch (phase) {
+      case INIT:
+        initResults[result.ordinal()].increment();
+        break;
+
+      case PROCESS:
+        processResults[result.ordinal()].increment();
+        break;
+
+      case ABORT:
+        aborts.mark(1);
+        break;
+
+      default:
+        break;
+    }
+  }
+
+  @Override
+  public void failed(Phase phase, Throwable throwable) {
+    exceptions.mark(1);
+  }
+
+  @Override
+  public void processing(Object payload) {
+    final long size = payloadSize.applyAsLong(payload);
+    if (size > 0) {
+      bytes.mark(size);
+    }
+  }
+
+  @Override
+  public void opened() {
+    inFlight.increment();
+  }
+
+  @Override
+  public void closed() {
+    inFlight.decrement();
+  }
+
+  public LatencyHistogram getLatency(Phase phase) {
+    return latencies.get(phase);
+  }
+
+  @Override
+  public long getInFlightCount() {
+    return inFlight.sum();
+  }
+
+  @Override
+  public LatencySnapshot getInitLatency() {
+    return latencies.get(Phase.INIT).snapshot();
+  }
+
+  @Override
+  public LatencySnapshot getProcessLatency() {
+    return latencies.get(Phase.PROCESS).snapshot();
+  }
+
+  @Override
+  public LatencySnapshot getCommitLatency() {
+    return latencies.get(Phase.COMMIT).snapshot();
+  }
+
+  @Override
+  public LatencySnapshot getAbortLatency() {
+    return latencies.get(Phase.ABORT).snapshot();
+  }
+
+  private static Map<String, Long> toMap(LongAdder[] counts) {
+    final Map<String, Long> map = new LinkedHashMap<>();
+    for (Transaction.Result result : RESULTS) {
+      map.put(result.name(), counts[result.ordinal()].sum());
+    }
+    return map;
+  }
+
+  @Override
+  public Map<String, Long> getInitResults() {
+    return toMap(initResults);
+  }
+
+  @Override
+  public Map<String, Long> getProcessResults() {
+    return toMap(processResults);
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return bytes.getCount();
+  }
+
+  @Override
+  public double getBytesPerSecond() {
+    return bytes.getRate();
+  }
+
+  @Override
+  public long getAbortCount() {
+    return aborts.getCount();
+  }
+
+  @Override
+  public double getAbortsPerSecond() {
+    return aborts.getRate();
+  }
+
+  @Override
+  public long getExceptionCount() {
+    return exceptions.getCount();
+  }
+
+  @Override
+  public double getExceptionsPerSecond() {
+    return exceptions.getRate();
+  }
+
+  /**
+   * Registers the metrics with the platform MBean server.
+   *
+   * @param name name distinguishing the processor from the others in the same JVM
+   * @return the name under which the metrics are registered
+   */
+  public ObjectName register(String name) {
+    try {
+      final ObjectName objectName =
+          new ObjectName(
+              "com.celeral.transaction:type=ProcessorMetrics,name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+      return objectName;
+    } catch (JMException ex) {
+      throw Throwables.throwFormatted(
+          ex, IllegalArgumentException.class, "Unable to register metrics for {}!", name);
+    }
+  }
+
+  public static void unregister(ObjectName name) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    } catch (JMException ex) {
+      throw Throwables.throwFormatted(
+          ex, IllegalArgumentException.class, "Unable to unregister metrics {}!", name);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.metrics;
+
+import java.util.Map;
+
+/** Management interface of {@link ProcessorMetrics}; the latencies are in nanoseconds. */
+public interface ProcessorMetricsMXBean {
+  long getInFlightCount();
+
+  LatencySnapshot getInitLatency();
+
+  LatencySnapshot getProcessLatency();
+
+  LatencySnapshot getCommitLatency();
+
+  LatencySnapshot getAbortLatency();
+
+  /** @return number of initializations by their result */
+  Map<String, Long> getInitResults();
+
+  /** @return number of processed payloads by their result */
+  Map<String, Long> getProcessResults();
+
+  long getBytesReceived();
+
+  double getBytesPerSecond();
+
+  long getAbortCount();
+
+  double getAbortsPerSecond();
+
+  long getExceptionCount();
+
+  double getExceptionsPerSecond();
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.metrics;
+
+import com.celeral.transaction.Transaction;
+
+/**
+ * Receives the events of the transactions driven by a processor. The callbacks are made inline on
+ * the threads calling the processor, so the implementations need to be thread safe and quick.
+ */
+public interface TransactionListener {
+  enum Phase {
+    INIT,
+    PROCESS,
+    COMMIT,
+    ABORT
+  }
+
+  /** Listener which ignores all the events; the processors skip timing the phases for it. */
+  TransactionListener NOOP = new TransactionListener() {};
+
+  /**
+   * Called when a phase of a transaction completes normally.
+   *
+   * @param phase the phase
+   * @param result result of the phase; {@link Transaction.Result#COMMIT} and {@link
+   *     Transaction.Result#ABORT} for the commit and abort phases respectively
+   * @param nanos time spent in the phase
+   */
+  default void completed(Phase phase, Transaction.Result result, long nanos) {}
+
+  /** Called when a phase of a transaction throws. */
+  default void failed(Phase phase, Throwable throwable) {}
+
+  /**
+   * Called with each payload before it's handed to the transaction, which may release it.
+   *
+   * @param payload payload about to be processed
+   */
+  default void processing(Object payload) {}
+
+  /** Called when a transaction is stored by the processor to await its payloads. */
+  default void opened() {}
+
+  /** Called when a stored transaction is removed from the processor. */
+  default void closed() {}
+}
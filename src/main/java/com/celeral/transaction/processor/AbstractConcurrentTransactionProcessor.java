@@ -0,0 +1,151 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import com.celeral.transaction.Transaction;
+
+/**
+ * Transaction processor which keeps any number of transactions open at the same time. Unlike
+ * {@link AbstractSerialTransactionProcessor}, it's safe to interleave the calls for different
+ * transactions and to make them from different threads. The calls for the same transaction are
+ * expected to be made one at a time.
+ */
+public abstract class AbstractConcurrentTransactionProcessor extends AbstractTransactionProcessor {
+  final ConcurrentLongObjectMap<OpenTransaction> transactions;
+  volatile TransactionReaper reaper;
+
+  static final class OpenTransaction {
+    private static final AtomicIntegerFieldUpdater<OpenTransaction> USERS =
+        AtomicIntegerFieldUpdater.newUpdater(OpenTransaction.class, "users");
+
+    final long id;
+    final Transaction<?, ?> transaction;
+    final long initialized;
+    volatile long accessed;
+    /* number of calls using the transaction, or -1 once the reaper claimed it */
+    private volatile int users;
+
+    /* bookkeeping owned by the reaper */
+    int rounds;
+
+    OpenTransaction(long id, Transaction<?, ?> transaction, long now) {
+      this.id = id;
+      this.transaction = transaction;
+      this.initialized = now;
+      this.accessed = now;
+    }
+
+    boolean use() {
+      int current;
+      do {
+        if ((current = users) < 0) {
+          return false;
+        }
+      } while (!USERS.compareAndSet(this, current, current + 1));
+      return true;
+    }
+
+    void unuse() {
+      USERS.decrementAndGet(this);
+    }
+
+    /** @return true if no call is using the transaction, which from now on none will */
+    boolean claim() {
+      return USERS.compareAndSet(this, 0, -1);
+    }
+  }
+
+  public AbstractConcurrentTransactionProcessor() {
+    this(Runtime.getRuntime().availableProcessors() * 4);
+  }
+
+  /** @param concurrency estimated number of threads concurrently initializing transactions */
+  public AbstractConcurrentTransactionProcessor(int concurrency) {
+    transactions = new ConcurrentLongObjectMap<>(concurrency);
+  }
+
+  @Override
+  public long store(Transaction<?, ?> transaction) {
+    long transactionId = getNextTransactionId();
+    restore(transactionId, transaction);
+    return transactionId;
+  }
+
+  @Override
+  protected void restore(long transactionId, Transaction<?, ?> transaction) {
+    final TransactionReaper reaper = this.reaper;
+    if (reaper == null) {
+      transactions.put(transactionId, new OpenTransaction(transactionId, transaction, 0));
+    } else {
+      OpenTransaction open = new OpenTransaction(transactionId, transaction, reaper.now());
+      transactions.put(transactionId, open);
+      reaper.register(open);
+    }
+  }
+
+  @Override
+  public Transaction<?, ?> retrieve(long transactionId) {
+    OpenTransaction open = transactions.get(transactionId);
+    if (open == null) {
+      return null;
+    }
+
+    final TransactionReaper reaper = this.reaper;
+    if (reaper != null) {
+      open.accessed = reaper.now();
+    }
+    return open.transaction;
+  }
+
+  @Override
+  Transaction<?, ?> acquire(long transactionId) {
+    OpenTransaction open = transactions.get(transactionId);
+    if (open == null || !open.use()) {
+      return null;
+    }
+
+    final TransactionReaper reaper = this.reaper;
+    if (reaper != null) {
+      open.accessed = reaper.now();
+    }
+    return open.transaction;
+  }
+
+  @Override
+  void release(long transactionId) {
+    OpenTransaction open = transactions.get(transactionId);
+    if (open != null) {
+      /* the idle time counts from the end of the call */
+      final TransactionReaper reaper = this.reaper;
+      if (reaper != null) {
+        open.accessed = reaper.now();
+      }
+      open.unuse();
+    }
+  }
+
+  @Override
+  public Transaction<?, ?> remove(long transactionId) {
+    OpenTransaction open = transactions.remove(transactionId);
+    return open == null ? null : open.transaction;
+  }
+
+  public int getOpenTransactionCount() {
+    return transactions.size();
+  }
+}
@@ -26,6 +26,14 @@ public abstract class AbstractSerialTransactionProcessor extends AbstractTransac
     return getNextTransactionId();
   }
 
+  @Override
+  protected void restore(long transactionId, Transaction<?, ?> transaction) {
+    if (currentTransaction != null) {
+      throw new IllegalStateException("Only one transaction may be open at a time!");
+    }
+    currentTransaction = transaction;
+  }
+
   @Override
   public Transaction<?, ?> retrieve(long transactionId) {
     return currentTransaction;
@@ -15,21 +15,85 @@
  */
 package com.celeral.transaction.processor;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import com.celeral.utils.Throwables;
 
+import com.celeral.transaction.Releasable;
 import com.celeral.transaction.Transaction;
 import com.celeral.transaction.TransactionProcessor;
+import com.celeral.transaction.metrics.TransactionListener;
+import com.celeral.transaction.metrics.TransactionListener.Phase;
+import com.celeral.transaction.wal.WriteAheadLog;
 
 public abstract class AbstractTransactionProcessor implements TransactionProcessor {
 
   AtomicLong TRANSACTION_ID_GENERATOR = new AtomicLong();
+  volatile TransactionListener listener = TransactionListener.NOOP;
+  volatile WriteAheadLog log;
+  volatile AdmissionController admission;
+  private final ConcurrentLongObjectMap<AdmissionController.Permit> permits =
+      new ConcurrentLongObjectMap<>();
+  private final ConcurrentLongObjectMap<EnlistedTransaction> enlisted =
+      new ConcurrentLongObjectMap<>();
+  private final Map<Long, InDoubt> inDoubt = new LinkedHashMap<>();
+  private volatile String name;
+
+  /**
+   * Transaction prepared in a two phase commit which waits for the decision of the coordinator:
+   * either the live instance whose commit failed or the header of one recovered from the log.
+   */
+  private static final class InDoubt {
+    final Object header;
+    final Transaction<?, ?> transaction;
+
+    InDoubt(Object header, Transaction<?, ?> transaction) {
+      this.header = header;
+      this.transaction = transaction;
+    }
+  }
 
+  /**
+   * Collects the details reported by the transaction. Each thread reuses its own consumer so that
+   * the calls do not allocate; a transaction which calls back into a processor from its own
+   * callbacks gets a fresh one for the nested call.
+   */
   static class DetailsConsumer implements Consumer<Object> {
+    private static final ThreadLocal<DetailsConsumer> cached =
+        ThreadLocal.withInitial(DetailsConsumer::new);
+
     Object o;
     boolean set;
+    private boolean busy;
+
+    static DetailsConsumer acquire() {
+      final DetailsConsumer details = cached.get();
+      if (details.busy) {
+        return new DetailsConsumer();
+      }
+
+      details.busy = true;
+      return details;
+    }
+
+    void release() {
+      o = null;
+      set = false;
+      busy = false;
+    }
 
     @Override
     public void accept(Object o) {
@@ -50,114 +114,844 @@ public abstract class AbstractTransactionProcessor implements TransactionProcess
 
   public abstract Transaction<?, ?> newTransaction();
 
-  @Override
-  public InitializationResult init(Object header) {
-    @SuppressWarnings("rawtypes")
-    Transaction transaction = newTransaction();
+  public TransactionListener getTransactionListener() {
+    return listener;
+  }
 
-    final DetailsConsumer details = new DetailsConsumer();
-    final Transaction.Result result;
+  /** @param listener listener to be notified of the events of the transactions, null for none */
+  public void setTransactionListener(TransactionListener listener) {
+    this.listener = listener == null ? TransactionListener.NOOP : listener;
+  }
+
+  private static long start(TransactionListener listener) {
+    return listener == TransactionListener.NOOP ? 0 : System.nanoTime();
+  }
+
+  private static long elapsed(TransactionListener listener, long start) {
+    return listener == TransactionListener.NOOP ? 0 : System.nanoTime() - start;
+  }
+
+  void abort(Transaction<?, ?> transaction, TransactionListener listener) throws Exception {
+    final long start = start(listener);
     try {
-      result = transaction.init(header, details);
+      transaction.abort();
     } catch (Exception ex) {
+      listener.failed(Phase.ABORT, ex);
+      throw ex;
+    }
+    listener.completed(Phase.ABORT, Transaction.Result.ABORT, elapsed(listener, start));
+  }
+
+  private void commit(Transaction<?, ?> transaction, TransactionListener listener)
+      throws Exception {
+    final long start = start(listener);
+    try {
+      transaction.commit();
+    } catch (Exception ex) {
+      listener.failed(Phase.COMMIT, ex);
+      throw ex;
+    }
+    listener.completed(Phase.COMMIT, Transaction.Result.COMMIT, elapsed(listener, start));
+  }
+
+  /**
+   * Claims the open transaction for the caller about to end it. Only the caller which removes the
+   * transaction gets to commit or abort it; the ones racing with it, e.g. an asynchronous write
+   * failing after another one completed the transaction and had it committed, leave it alone.
+   *
+   * @return true if the caller is to end the transaction
+   */
+  private boolean claim(long transactionId) {
+    return remove(transactionId) != null;
+  }
+
+  /**
+   * Records the end of a stored transaction in the log, if any, releases its admission permit and
+   * notifies the listener.
+   */
+  void ended(long transactionId, boolean committed, TransactionListener listener) {
+    final AdmissionController.Permit permit = permits.remove(transactionId);
+    if (permit != null) {
+      permit.release();
+    }
+    final EnlistedTransaction participant = enlisted.remove(transactionId);
+    if (participant != null) {
+      participant.finished.set(true);
+    }
+
+    try {
+      final WriteAheadLog log = this.log;
+      if (log != null) {
+        log.ended(transactionId, committed);
+      }
+    } catch (IOException ex) {
+      throw Throwables.throwSneaky(ex);
+    } finally {
+      listener.closed();
+    }
+  }
+
+  private void initialized(
+      long transactionId,
+      Object header,
+      Transaction<?, ?> transaction,
+      TransactionListener listener) {
+    final WriteAheadLog log = this.log;
+    if (log == null) {
+      return;
+    }
+
+    try {
+      log.initialized(transactionId, header);
+    } catch (IOException | RuntimeException ex) {
+      remove(transactionId);
       try {
-        transaction.abort();
+        abort(transaction, listener);
       } catch (Exception ex1) {
         ex.addSuppressed(ex1);
       }
-
       throw Throwables.throwSneaky(ex);
     }
+  }
 
-    switch (result) {
-      case CONTINUE:
-        long transactionid = store(transaction);
-        return new TransactionProcessor.InitializationResultImpl(transactionid, result, details.o);
+  /**
+   * Makes the processor durable: from now on the initialization and the end of each transaction
+   * is recorded in the log before the call returns. The state which the previous run left in the
+   * log is recovered first. The ids continue after the highest one it handed out. Each
+   * transaction it left unfinished is initialized afresh with its header and, if asked to and
+   * the transaction continues, reattached under its old id; the rest are {@link
+   * Transaction#rollback rolled back}. The exception are the transactions which were prepared in
+   * a two phase commit: they are left {@link #getInDoubt() in doubt} until the decision of the
+   * coordinator is known.
+   *
+   * <p>It should be called before the processor is used.
+   *
+   * @param log log to recover from and to record the transactions in
+   * @param reattach true to reattach the unfinished transactions which can continue, false to
+   *     roll all of them back
+   * @return number of transactions reattached
+   * @throws IOException if the log cannot be written
+   */
+  public int recover(WriteAheadLog log, boolean reattach) throws IOException {
+    TRANSACTION_ID_GENERATOR.accumulateAndGet(log.getHighestTransactionId(), Math::max);
+    this.log = log;
 
-      case ABORT:
-        try {
-          transaction.abort();
-        } catch (Exception ex) {
-          throw Throwables.throwSneaky(ex);
+    int reattached = 0;
+    final Set<Long> prepared = log.getPrepared();
+    for (Map.Entry<Long, Object> entry : log.getUnfinished().entrySet()) {
+      if (prepared.contains(entry.getKey())) {
+        synchronized (inDoubt) {
+          inDoubt.put(entry.getKey(), new InDoubt(entry.getValue(), null));
         }
+      } else if (reattach && reattach(entry.getKey(), entry.getValue(), log)) {
+        reattached++;
+      } else {
+        rollback(entry.getKey(), entry.getValue(), log);
+      }
+    }
+    return reattached;
+  }
 
-        return details.set
-            ? new TransactionProcessor.InitializationResultImpl(
-                0, Transaction.Result.ABORT, details.o)
-            : InitializationResult.ABORTED;
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private boolean reattach(long transactionId, Object header, WriteAheadLog log)
+      throws IOException {
+    final Transaction transaction = newTransaction();
+    final boolean committed;
+    try {
+      switch ((Transaction.Result) transaction.init(header, details -> {})) {
+        case CONTINUE:
+          restore(transactionId, transaction);
+          listener.opened();
+          logger.debug("Reattached transaction {}", transactionId);
+          return true;
 
-      case COMMIT:
+        case COMMIT:
+          transaction.commit();
+          committed = true;
+          break;
+
+        case SKIP:
+          committed = true;
+          break;
+
+        default:
+          transaction.abort();
+          committed = false;
+          break;
+      }
+    } catch (Exception ex) {
+      logger.warn("Unable to reattach transaction {}, rolling it back!", transactionId, ex);
+      try {
+        transaction.abort();
+      } catch (Exception ex1) {
+        logger.debug("Exception while aborting transaction {}!", transactionId, ex1);
+      }
+      return false;
+    }
+
+    log.ended(transactionId, committed);
+    return true;
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private void rollback(long transactionId, Object header, WriteAheadLog log)
+      throws IOException {
+    final Transaction transaction = newTransaction();
+    try {
+      transaction.rollback(header);
+    } catch (Exception ex) {
+      logger.warn("Exception while rolling back transaction {}!", transactionId, ex);
+    }
+    log.ended(transactionId, false);
+  }
+
+  /**
+   * @return ids of the transactions prepared in a two phase commit which wait for the decision of
+   *     the coordinator, i.e. the ones recovered prepared and the ones which failed to commit
+   */
+  public Set<Long> getInDoubt() {
+    synchronized (inDoubt) {
+      return new LinkedHashSet<>(inDoubt.keySet());
+    }
+  }
+
+  /**
+   * Carries out the decision of the coordinator on a transaction {@link #getInDoubt() in doubt}.
+   * A transaction which failed to commit is committed again. A transaction recovered from the log
+   * is initialized afresh with its header, which is expected to find the data it prepared and
+   * report {@link Transaction.Result#COMMIT}, and is then committed; if it's not ready, it's
+   * {@link Transaction#dispose() disposed} of. The transactions to be aborted are aborted or, if
+   * recovered, {@link Transaction#rollback rolled back}.
+   *
+   * @param transactionId id of the transaction in doubt
+   * @param commit true if the coordinator decided to commit the transaction, false otherwise
+   * @throws IllegalStateException if the transaction is not in doubt or not ready to commit
+   * @throws Exception exceptions received while committing; the transaction then stays in doubt
+   */
+  public void resolve(long transactionId, boolean commit) throws Exception {
+    final InDoubt entry;
+    synchronized (inDoubt) {
+      entry = inDoubt.remove(transactionId);
+    }
+    if (entry == null) {
+      throw Throwables.throwFormatted(
+          IllegalStateException.class, "Transaction {} is not in doubt!", transactionId);
+    }
+
+    final TransactionListener listener = this.listener;
+    if (!commit) {
+      if (entry.transaction == null) {
+        rollback(transactionId, entry.header, log);
+      } else {
         try {
+          abort(entry.transaction, listener);
+        } finally {
+          ended(transactionId, false, listener);
+        }
+      }
+      return;
+    }
+
+    try {
+      if (entry.transaction == null) {
+        recommit(transactionId, entry.header);
+      } else {
+        commit(entry.transaction, listener);
+      }
+    } catch (Exception ex) {
+      /* rolling it back would go against the decision to commit, so it's left for another try */
+      synchronized (inDoubt) {
+        inDoubt.put(transactionId, entry);
+      }
+      throw ex;
+    }
+
+    if (entry.transaction == null) {
+      log.ended(transactionId, true);
+    } else {
+      ended(transactionId, true, listener);
+    }
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private void recommit(long transactionId, Object header) throws Exception {
+    final Transaction transaction = newTransaction();
+    try {
+      final Transaction.Result result = transaction.init(header, details -> {});
+      switch (result) {
+        case COMMIT:
           transaction.commit();
-        } catch (Exception ex) {
-          throw Throwables.throwSneaky(ex);
+          break;
+
+        case SKIP:
+          break;
+
+        default:
+          throw Throwables.throwFormatted(
+              IllegalStateException.class,
+              "Prepared transaction {} resumed with {} instead of a commit!",
+              transactionId,
+              result);
+      }
+    } catch (Exception ex) {
+      try {
+        transaction.dispose();
+      } catch (Exception ex1) {
+        ex.addSuppressed(ex1);
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * Stores the transaction under the given id; used to reattach the transactions recovered from
+   * a log.
+   *
+   * @param transactionId id of the transaction
+   * @param transaction the transaction
+   * @throws UnsupportedOperationException if the processor cannot reattach transactions
+   */
+  protected void restore(long transactionId, Transaction<?, ?> transaction) {
+    throw new UnsupportedOperationException("Unable to restore transaction " + transactionId);
+  }
+
+  /**
+   * Limits the transactions the processor admits. The initializations which the controller
+   * rejects are {@link Transaction.Result#ABORT aborted} with an {@link AdmissionRejection} in
+   * the details, without creating a transaction. Those which the controller queues block the
+   * initializing thread, which therefore must not be an event loop such as a network thread.
+   *
+   * @param admission controller of the limits or null to admit every transaction
+   */
+  public void setAdmissionController(AdmissionController admission) {
+    this.admission = admission;
+  }
+
+  public AdmissionController getAdmissionController() {
+    return admission;
+  }
+
+  /** @return name under which the coordinators of the two phase commits find the processor */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Names the processor, so that the transactions it {@link #enlist(long) enlists} can be found
+   * by a {@link TwoPhaseCommitCoordinator#recover(Map) recovering} coordinator.
+   *
+   * @param name name unique among the processors the coordinator commits across
+   */
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Enlists the open transaction in a two phase commit. Once it reports {@link
+   * Transaction.Result#COMMIT} it's left open instead of committed, and the returned participant
+   * lets the {@link TwoPhaseCommitCoordinator} prepare it and then commit or abort it along with
+   * the transactions of the other processors.
+   *
+   * @param transactionId id of the open transaction
+   * @return the participant standing for the transaction
+   * @throws IllegalStateException if there is no open transaction with the id
+   */
+  public TwoPhaseCommitCoordinator.Participant enlist(long transactionId) {
+    final Transaction<?, ?> transaction = retrieveOpen(transactionId);
+    return enlisted.computeIfAbsent(
+        transactionId, id -> new EnlistedTransaction(id, transaction));
+  }
+
+  private final class EnlistedTransaction implements TwoPhaseCommitCoordinator.Participant {
+    final long transactionId;
+    final Transaction<?, ?> transaction;
+    final AtomicBoolean finished = new AtomicBoolean();
+    volatile boolean ready;
+
+    EnlistedTransaction(long transactionId, Transaction<?, ?> transaction) {
+      this.transactionId = transactionId;
+      this.transaction = transaction;
+    }
+
+    /**
+     * Prepares the transaction and records it in the log, if any. Once prepared, the transaction
+     * stays in use until the coordinator commits or aborts it, so that it's not reaped meanwhile.
+     */
+    @Override
+    public boolean prepare() throws Exception {
+      if (!ready || finished.get() || acquire(transactionId) == null) {
+        return false;
+      }
+
+      boolean prepared = false;
+      try {
+        if (transaction.prepare()) {
+          final WriteAheadLog log = AbstractTransactionProcessor.this.log;
+          if (log != null) {
+            log.prepared(transactionId);
+          }
+          prepared = true;
+        }
+      } finally {
+        if (!prepared) {
+          release(transactionId);
+        }
+      }
+      return prepared;
+    }
+
+    /**
+     * Commits the transaction as decided by the coordinator. The decision is already logged, so a
+     * transaction which fails to commit is not aborted but stays prepared, {@link #getInDoubt()
+     * in doubt} until it's {@link #resolve(long, boolean) resolved}.
+     */
+    @Override
+    public void commit() throws Exception {
+      if (!claim(transactionId)) {
+        throw Throwables.throwFormatted(
+            IllegalStateException.class, "No open transaction with id {}!", transactionId);
+      }
+
+      final TransactionListener listener = AbstractTransactionProcessor.this.listener;
+      try {
+        AbstractTransactionProcessor.this.commit(transaction, listener);
+      } catch (Exception ex) {
+        synchronized (inDoubt) {
+          inDoubt.put(transactionId, new InDoubt(null, transaction));
         }
+        throw ex;
+      }
+      ended(transactionId, true, listener);
+    }
 
-        return details.set
-            ? new TransactionProcessor.InitializationResultImpl(
-                0, Transaction.Result.COMMIT, details.o)
-            : InitializationResult.COMMITTED;
+    @Override
+    public void abort() throws Exception {
+      if (!claim(transactionId)) {
+        return;
+      }
 
-      case SKIP:
-        return InitializationResult.SKIP;
+      final TransactionListener listener = AbstractTransactionProcessor.this.listener;
+      try {
+        AbstractTransactionProcessor.this.abort(transaction, listener);
+      } finally {
+        ended(transactionId, false, listener);
+      }
     }
 
-    throw Throwables.throwFormatted(
-        RuntimeException::new, "Unreachable Statement with result = {}!", result);
+    @Override
+    public TwoPhaseCommitCoordinator.ParticipantId getId() {
+      return new TwoPhaseCommitCoordinator.ParticipantId(name, transactionId);
+    }
+
+    @Override
+    public String toString() {
+      return "transaction " + transactionId + " of " + name;
+    }
   }
 
   @Override
-  public ProcessResult process(long transactionId, Object payload) {
+  public InitializationResult init(Object header) {
+    return init(header, (ResultHolder) null);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Unlike {@link #init(Object)}, it does not allocate a result even when the transaction
+   * continues.
+   */
+  @Override
+  public InitializationResult init(Object header, ResultHolder holder) {
+    final AdmissionController admission = this.admission;
+    return admission == null ? initialize(header, holder) : admit(admission, header, holder);
+  }
+
+  private InitializationResult admit(
+      AdmissionController admission, Object header, ResultHolder holder) {
+    final AdmissionController.Permit permit;
+    final DetailsConsumer details = DetailsConsumer.acquire();
+    try {
+      permit = admission.acquire(header, details);
+      if (permit == null) {
+        logger.debug("Rejected transaction with {}", details.o);
+        return holder == null
+            ? new InitializationResultImpl(0, Transaction.Result.ABORT, details.o)
+            : holder.set(0, Transaction.Result.ABORT, details.o);
+      }
+    } finally {
+      details.release();
+    }
+
+    boolean open = false;
+    try {
+      final InitializationResult result = initialize(header, holder);
+      if (result.getResult() == Transaction.Result.CONTINUE) {
+        final long transactionId = result.getTransactionId();
+        permits.put(transactionId, permit);
+        open = true;
+        /*
+         * the transaction is visible as soon as it's stored, so it may have ended, or been reaped,
+         * before the permit was there for ended() to release; whoever removes the permit does.
+         */
+        if (retrieve(transactionId) == null && permits.remove(transactionId, permit)) {
+          permit.release();
+        }
+      }
+      return result;
+    } finally {
+      if (!open) {
+        permit.release();
+      }
+    }
+  }
+
+  private InitializationResult initialize(Object header, ResultHolder holder) {
     @SuppressWarnings("rawtypes")
-    Transaction transaction = retrieve(transactionId);
+    Transaction transaction = newTransaction();
 
-    final DetailsConsumer details = new DetailsConsumer();
-    final Transaction.Result result;
+    final TransactionListener listener = this.listener;
+    final DetailsConsumer details = DetailsConsumer.acquire();
     try {
-      result = transaction.process(payload, details);
-    } catch (Exception ex) {
+      final long start = start(listener);
+      final Transaction.Result result;
       try {
-        transaction.abort();
+        result = transaction.init(header, details);
+      } catch (Exception ex) {
+        listener.failed(Phase.INIT, ex);
+        try {
+          abort(transaction, listener);
+        } catch (Exception ex1) {
+          ex.addSuppressed(ex1);
+        }
+
+        throw Throwables.throwSneaky(ex);
+      }
+      listener.completed(Phase.INIT, result, elapsed(listener, start));
+
+      switch (result) {
+        case CONTINUE:
+          long transactionid = store(transaction);
+          initialized(transactionid, header, transaction, listener);
+          listener.opened();
+          return holder == null
+              ? new InitializationResultImpl(transactionid, result, details.o)
+              : holder.set(transactionid, result, details.o);
+
+        case ABORT:
+          try {
+            abort(transaction, listener);
+          } catch (Exception ex) {
+            throw Throwables.throwSneaky(ex);
+          }
+
+          if (holder != null) {
+            return holder.set(0, result, details.o);
+          }
+          return details.set
+              ? new InitializationResultImpl(0, Transaction.Result.ABORT, details.o)
+              : InitializationResult.ABORTED;
+
+        case COMMIT:
+          try {
+            commit(transaction, listener);
+          } catch (Exception ex) {
+            try {
+              abort(transaction, listener);
+            } catch (Exception ex1) {
+              ex.addSuppressed(ex1);
+            }
+            throw Throwables.throwSneaky(ex);
+          }
+
+          if (holder != null) {
+            return holder.set(0, result, details.o);
+          }
+          return details.set
+              ? new InitializationResultImpl(0, Transaction.Result.COMMIT, details.o)
+              : InitializationResult.COMMITTED;
+
+        case SKIP:
+          return holder == null ? InitializationResult.SKIP : holder.set(0, result, null);
+      }
+
+      throw Throwables.throwFormatted(
+          RuntimeException::new, "Unreachable Statement with result = {}!", result);
+    } finally {
+      details.release();
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private Transaction retrieveOpen(long transactionId) {
+    Transaction transaction = retrieve(transactionId);
+    if (transaction == null) {
+      throw Throwables.throwFormatted(
+          IllegalStateException.class, "No open transaction with id {}!", transactionId);
+    }
+    return transaction;
+  }
+
+  /**
+   * Retrieves the open transaction for a call which uses it, so that it's not reaped until the
+   * call {@link #release(long) releases} it.
+   *
+   * @return the transaction or null if there is no open transaction with the id
+   */
+  Transaction<?, ?> acquire(long transactionId) {
+    return retrieve(transactionId);
+  }
+
+  /** Ends the use of the transaction by a call which {@link #acquire(long) acquired} it. */
+  void release(long transactionId) {}
+
+  /**
+   * Acquires the open transaction to process the payload, releasing the payload if there is no
+   * such transaction as nobody else is going to take the ownership of it.
+   */
+  @SuppressWarnings("rawtypes")
+  private Transaction acquireOpen(long transactionId, Object payload) {
+    Transaction transaction = acquire(transactionId);
+    if (transaction == null) {
+      discard(payload);
+      throw Throwables.throwFormatted(
+          IllegalStateException.class, "No open transaction with id {}!", transactionId);
+    }
+    return transaction;
+  }
+
+  private static void discard(Object payload) {
+    if (payload instanceof Releasable) {
+      ((Releasable) payload).release();
+    }
+  }
+
+  private RuntimeException fail(
+      long transactionId,
+      Transaction<?, ?> transaction,
+      TransactionListener listener,
+      Exception ex) {
+    listener.failed(Phase.PROCESS, ex);
+    if (claim(transactionId)) {
+      try {
+        abort(transaction, listener);
       } catch (Exception ex1) {
         ex.addSuppressed(ex1);
+      } finally {
+        ended(transactionId, false, listener);
       }
+    } else {
+      logger.debug("Transaction {} ended before its processing failed!", transactionId);
+    }
 
-      throw Throwables.throwSneaky(ex);
+    throw Throwables.throwSneaky(ex);
+  }
+
+  @Override
+  public ProcessResult process(long transactionId, Object payload) {
+    return process(transactionId, payload, null);
+  }
+
+  @Override
+  public ProcessResult process(long transactionId, Object payload, ResultHolder holder) {
+    @SuppressWarnings("rawtypes")
+    Transaction transaction = acquireOpen(transactionId, payload);
+
+    final TransactionListener listener = this.listener;
+    final DetailsConsumer details = DetailsConsumer.acquire();
+    try {
+      listener.processing(payload);
+      final long start = start(listener);
+      final Transaction.Result result;
+      try {
+        result = transaction.process(payload, details);
+      } catch (Exception ex) {
+        throw fail(transactionId, transaction, listener, ex);
+      }
+      listener.completed(Phase.PROCESS, result, elapsed(listener, start));
+
+      return complete(transactionId, transaction, listener, result, details, holder);
+    } finally {
+      details.release();
+      release(transactionId);
+    }
+  }
+
+  @Override
+  public ProcessResult processBatch(long transactionId, List<?> payloads) {
+    @SuppressWarnings("rawtypes")
+    Transaction transaction = acquire(transactionId);
+    if (transaction == null) {
+      for (int i = 0; i < payloads.size(); i++) {
+        discard(payloads.get(i));
+      }
+      throw Throwables.throwFormatted(
+          IllegalStateException.class, "No open transaction with id {}!", transactionId);
+    }
+
+    final TransactionListener listener = this.listener;
+    final DetailsConsumer details = DetailsConsumer.acquire();
+    try {
+      if (listener != TransactionListener.NOOP) {
+        for (int i = 0; i < payloads.size(); i++) {
+          listener.processing(payloads.get(i));
+        }
+      }
+      final long start = start(listener);
+      final Transaction.Result result;
+      try {
+        result = transaction.processBatch(payloads, details);
+      } catch (Exception ex) {
+        throw fail(transactionId, transaction, listener, ex);
+      }
+      listener.completed(Phase.PROCESS, result, elapsed(listener, start));
+
+      return complete(transactionId, transaction, listener, result, details, null);
+    } finally {
+      details.release();
+      release(transactionId);
     }
+  }
 
+  /**
+   * Processes the payload through {@link Transaction#processAsync(Object, Consumer)}, so that the
+   * calling thread is not held while e.g. the payload is written asynchronously. The transaction
+   * is committed or aborted on the thread which completes the processing. Only the first of the
+   * payloads in flight to end the transaction does so; the completions of the rest, e.g. a write
+   * failing since the commit closed the file, leave the ended transaction alone.
+   *
+   * @param transactionId id of the open transaction
+   * @param payload payload to be processed
+   * @return future which completes with the result of processing the payload
+   */
+  @SuppressWarnings("unchecked")
+  public CompletableFuture<ProcessResult> processAsync(long transactionId, Object payload) {
+    final CompletableFuture<ProcessResult> future = new CompletableFuture<>();
+    @SuppressWarnings("rawtypes")
+    final Transaction transaction;
+    try {
+      transaction = acquireOpen(transactionId, payload);
+    } catch (IllegalStateException ex) {
+      future.completeExceptionally(ex);
+      return future;
+    }
+
+    final TransactionListener listener = this.listener;
+    /* the details are reported on another thread, so the cached consumers cannot be used */
+    final DetailsConsumer details = new DetailsConsumer();
+    final long start = start(listener);
+    final CompletableFuture<Transaction.Result> processing;
+    try {
+      listener.processing(payload);
+      processing = transaction.processAsync(payload, details);
+      if (processing == null) {
+        throw Throwables.throwFormatted(
+            IllegalStateException.class, "No future for processing {}!", payload);
+      }
+    } catch (Exception ex) {
+      /* the use is released and the future completed as if the processing failed later */
+      try {
+        throw fail(transactionId, transaction, listener, ex);
+      } catch (Throwable th) {
+        future.completeExceptionally(th);
+      } finally {
+        release(transactionId);
+      }
+      return future;
+    }
+
+    processing.whenComplete(
+        (result, th) -> {
+          try {
+            if (th != null) {
+              final Throwable cause = th instanceof CompletionException ? th.getCause() : th;
+              throw fail(
+                  transactionId,
+                  transaction,
+                  listener,
+                  cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+            }
+            listener.completed(Phase.PROCESS, result, elapsed(listener, start));
+
+            future.complete(complete(transactionId, transaction, listener, result, details, null));
+          } catch (Throwable th1) {
+            future.completeExceptionally(th1);
+          } finally {
+            release(transactionId);
+          }
+        });
+    return future;
+  }
+
+  private ProcessResult complete(
+      long transactionId,
+      Transaction<?, ?> transaction,
+      TransactionListener listener,
+      Transaction.Result result,
+      DetailsConsumer details,
+      ResultHolder holder) {
     switch (result) {
       case CONTINUE:
-        return new ProcessResultImpl(Transaction.Result.CONTINUE, details.o);
+        if (holder != null) {
+          return holder.set(transactionId, result, details.o);
+        }
+        return details.set
+            ? new ProcessResultImpl(Transaction.Result.CONTINUE, details.o)
+            : ProcessResult.CONTINUED;
 
       case ABORT:
-        try {
-          transaction.abort();
-        } catch (Exception ex) {
-          throw Throwables.throwSneaky(ex);
-        } finally {
-          remove(transactionId);
+        if (claim(transactionId)) {
+          try {
+            abort(transaction, listener);
+          } catch (Exception ex) {
+            throw Throwables.throwSneaky(ex);
+          } finally {
+            ended(transactionId, false, listener);
+          }
+        }
+
+        if (holder != null) {
+          return holder.set(transactionId, result, details.o);
         }
         return details.set
             ? new ProcessResultImpl(Transaction.Result.ABORT, details.o)
             : ProcessResult.ABORTED;
 
       case COMMIT:
-        try {
-          transaction.commit();
-        } catch (Exception ex) {
-          throw Throwables.throwSneaky(ex);
-        } finally {
-          remove(transactionId);
+        final EnlistedTransaction participant = enlisted.get(transactionId);
+        if (participant != null) {
+          /* the coordinator of the two phase commit takes it from here */
+          participant.ready = true;
+        } else if (claim(transactionId)) {
+          boolean committed = false;
+          try {
+            commit(transaction, listener);
+            committed = true;
+          } catch (Exception ex) {
+            try {
+              abort(transaction, listener);
+            } catch (Exception ex1) {
+              ex.addSuppressed(ex1);
+            }
+            throw Throwables.throwSneaky(ex);
+          } finally {
+            ended(transactionId, committed, listener);
+          }
+        }
+
+        if (holder != null) {
+          return holder.set(transactionId, result, details.o);
         }
         return details.set
-            ? new ProcessResultImpl(Transaction.Result.CONTINUE, details.o)
+            ? new ProcessResultImpl(Transaction.Result.COMMIT, details.o)
             : ProcessResult.COMMITTED;
 
       case SKIP:
-        return ProcessResult.SKIP;
+        return holder == null ? ProcessResult.SKIP : holder.set(transactionId, result, null);
     }
 
     throw Throwables.throwFormatted(
         RuntimeException::new, "Unreachable Statement with result = {}!", result);
   }
+
+  private static final Logger logger = LogManager.getLogger(AbstractTransactionProcessor.class);
 }
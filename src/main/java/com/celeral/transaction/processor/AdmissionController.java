@@ -0,0 +1,279 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Limits the transactions which a processor admits: the number of open transactions, the bytes
+ * they are about to transfer and the number of initializations per second. An initialization
+ * which would exceed a limit is rejected right away with an {@link AdmissionRejection}, unless a
+ * queue is configured, in which case up to the queue length of them wait for the limits to allow
+ * them in until their deadline passes.
+ *
+ * <p>The bytes of a transaction are computed from its header by the size function the controller
+ * is created with, e.g. {@link com.celeral.transaction.fileupload.UploadTransactionHeader#sizeOf}
+ * for the uploads; without one the byte limit does not apply. A single transaction larger than the
+ * byte limit is admitted when no other transaction holds any bytes, so that it does not starve.
+ *
+ * <p>The queued initializations wait on the thread calling {@link
+ * AbstractTransactionProcessor#init(Object)}, so a controller with a queue is only for the
+ * processors initialized on threads which may block, e.g. those of the executor of an {@link
+ * OrderedAsyncTransactionProcessor}. Initializing on an event loop, like a selector thread
+ * multiplexing network connections, would stall everything else the loop serves while the
+ * transaction waits; such callers need a controller without a queue, whose rejections the clients
+ * retry after the advised delay.
+ *
+ * @see AbstractTransactionProcessor#setAdmissionController(AdmissionController)
+ */
+public class AdmissionController {
+  private static final long MIN_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final int maxTransactions;
+  private final long maxBytes;
+  private final double maxRate;
+  private final int queueLength;
+  private final long queueTimeoutNanos;
+  private final ToLongFunction<Object> sizes;
+
+  private int transactions;
+  private long bytes;
+  private double tokens;
+  private long refilled = System.nanoTime();
+  private int queued;
+  private long averageHoldNanos;
+
+  /** Permit held by an admitted transaction until it's released once the transaction ends. */
+  public final class Permit {
+    private final long bytes;
+    private final long acquired = System.nanoTime();
+    private boolean released;
+
+    Permit(long bytes) {
+      this.bytes = bytes;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    public void release() {
+      AdmissionController.this.release(this);
+    }
+  }
+
+  /**
+   * Creates the controller which rejects the initializations over the limits right away.
+   *
+   * @param maxTransactions maximum number of open transactions
+   * @param maxBytes maximum sum of the sizes of the open transactions
+   * @param maxRate maximum number of initializations per second, admitted in bursts of up to a
+   *     second's worth, or {@link Double#POSITIVE_INFINITY} to not limit the rate
+   */
+  public AdmissionController(int maxTransactions, long maxBytes, double maxRate) {
+    this(maxTransactions, maxBytes, maxRate, 0, 0);
+  }
+
+  /**
+   * Creates the controller.
+   *
+   * @param maxTransactions maximum number of open transactions
+   * @param maxBytes maximum sum of the sizes of the open transactions
+   * @param maxRate maximum number of initializations per second, admitted in bursts of up to a
+   *     second's worth
+   * @param queueLength maximum number of initializations waiting to be admitted, each blocking the
+   *     thread initializing it
+   * @param queueTimeoutNanos how long each of them waits before being rejected
+   */
+  public AdmissionController(
+      int maxTransactions, long maxBytes, double maxRate, int queueLength, long queueTimeoutNanos) {
+    this(maxTransactions, maxBytes, maxRate, queueLength, queueTimeoutNanos, header -> 0);
+  }
+
+  /**
+   * Creates the controller.
+   *
+   * @param maxTransactions maximum number of open transactions
+   * @param maxBytes maximum sum of the sizes of the open transactions
+   * @param maxRate maximum number of initializations per second, admitted in bursts of up to a
+   *     second's worth
+   * @param queueLength maximum number of initializations waiting to be admitted, each blocking the
+   *     thread initializing it
+   * @param queueTimeoutNanos how long each of them waits before being rejected
+   * @param sizes function computing the bytes a transaction accounts for from its header
+   */
+  public AdmissionController(
+      int maxTransactions,
+      long maxBytes,
+      double maxRate,
+      int queueLength,
+      long queueTimeoutNanos,
+      ToLongFunction<Object> sizes) {
+    if (maxTransactions <= 0 || maxBytes <= 0 || !(maxRate > 0) || queueLength < 0) {
+      throw new IllegalArgumentException(
+          "maxTransactions = "
+              + maxTransactions
+              + ", maxBytes = "
+              + maxBytes
+              + ", maxRate = "
+              + maxRate
+              + ", queueLength = "
+              + queueLength);
+    }
+
+    this.maxTransactions = maxTransactions;
+    this.maxBytes = maxBytes;
+    this.maxRate = maxRate;
+    this.queueLength = queueLength;
+    this.queueTimeoutNanos = queueTimeoutNanos;
+    this.sizes = sizes;
+    this.tokens = getBurst();
+  }
+
+  private double getBurst() {
+    return Math.max(1, maxRate);
+  }
+
+  /**
+   * Computes the bytes a transaction accounts for against the byte limit.
+   *
+   * @param header header of the transaction
+   * @return the size computed by the size function of the controller
+   */
+  protected long getSize(Object header) {
+    return sizes.applyAsLong(header);
+  }
+
+  private void refill(long now) {
+    if (Double.isInfinite(maxRate)) {
+      return;
+    }
+    tokens = Math.min(getBurst(), tokens + (now - refilled) * maxRate / 1e9);
+    refilled = now;
+  }
+
+  private AdmissionRejection.Reason check(long size) {
+    if (transactions >= maxTransactions) {
+      return AdmissionRejection.Reason.TRANSACTIONS;
+    }
+    if (bytes > 0 && size > maxBytes - bytes) {
+      return AdmissionRejection.Reason.BYTES;
+    }
+    if (tokens < 1) {
+      return AdmissionRejection.Reason.RATE;
+    }
+    return null;
+  }
+
+  private long getRetryAfterNanos(AdmissionRejection.Reason reason) {
+    if (reason == AdmissionRejection.Reason.RATE) {
+      return (long) Math.ceil((1 - tokens) * 1e9 / maxRate);
+    }
+    /* one of the open transactions is expected to end in this much time */
+    return Math.max(MIN_RETRY_NANOS, averageHoldNanos / Math.max(1, transactions));
+  }
+
+  /**
+   * Admits the transaction, possibly after waiting in the queue. Waiting blocks the calling
+   * thread for up to the queue timeout.
+   *
+   * @param header header of the transaction
+   * @param details consumer of the {@link AdmissionRejection} if the transaction is rejected
+   * @return the permit to release once the transaction ends or null if it's rejected
+   */
+  public synchronized Permit acquire(Object header, Consumer<Object> details) {
+    final long size = getSize(header);
+    long deadline = 0;
+    boolean waiting = false;
+    try {
+      while (true) {
+        final long now = System.nanoTime();
+        refill(now);
+        final AdmissionRejection.Reason reason = check(size);
+        if (reason == null) {
+          transactions++;
+          bytes += size;
+          tokens -= 1;
+          return new Permit(size);
+        }
+
+        if (!waiting) {
+          if (queued >= queueLength || queueTimeoutNanos <= 0) {
+            return reject(reason, details);
+          }
+          queued++;
+          waiting = true;
+          deadline = now + queueTimeoutNanos;
+        }
+
+        long remaining = deadline - now;
+        if (remaining <= 0) {
+          return reject(reason, details);
+        }
+        if (reason == AdmissionRejection.Reason.RATE) {
+          remaining = Math.min(remaining, getRetryAfterNanos(reason));
+        }
+
+        try {
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          return reject(reason, details);
+        }
+      }
+    } finally {
+      if (waiting) {
+        queued--;
+      }
+    }
+  }
+
+  private Permit reject(AdmissionRejection.Reason reason, Consumer<Object> details) {
+    details.accept(
+        new AdmissionRejection(
+            reason, TimeUnit.NANOSECONDS.toMillis(getRetryAfterNanos(reason) + 999_999)));
+    return null;
+  }
+
+  synchronized void release(Permit permit) {
+    if (permit.released) {
+      return;
+    }
+
+    permit.released = true;
+    transactions--;
+    bytes -= permit.bytes;
+    final long held = System.nanoTime() - permit.acquired;
+    averageHoldNanos =
+        averageHoldNanos == 0 ? held : averageHoldNanos - (averageHoldNanos >> 3) + (held >> 3);
+    notifyAll();
+  }
+
+  public synchronized int getTransactionCount() {
+    return transactions;
+  }
+
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /** @return number of initializations waiting to be admitted */
+  public synchronized int getQueuedCount() {
+    return queued;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+/**
+ * Details sent back with the {@link com.celeral.transaction.Transaction.Result#ABORT aborted}
+ * initializations which the {@link AdmissionController} turned away, telling the initiator which
+ * limit was hit and when it's worth trying again.
+ */
+public class AdmissionRejection {
+  public enum Reason {
+    /** Too many transactions are open. */
+    TRANSACTIONS,
+    /** The open transactions already account for too many bytes. */
+    BYTES,
+    /** Too many transactions were initialized in the last second. */
+    RATE
+  }
+
+  private final Reason reason;
+  private final long retryAfterMillis;
+
+  private AdmissionRejection() {
+    this(null, 0);
+  }
+
+  public AdmissionRejection(Reason reason, long retryAfterMillis) {
+    this.reason = reason;
+    this.retryAfterMillis = retryAfterMillis;
+  }
+
+  public Reason getReason() {
+    return reason;
+  }
+
+  /** @return estimate of the milliseconds after which the limit is likely to admit the retry */
+  public long getRetryAfterMillis() {
+    return retryAfterMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "AdmissionRejection{"
+        + "reason="
+        + reason
+        + ", retryAfterMillis="
+        + retryAfterMillis
+        + '}';
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongFunction;
+
+/**
+ * A concurrent map from primitive {@code long} keys to objects. The keys are spread over a fixed
+ * number of independently locked stripes, each of which is an open addressing hash table with
+ * linear probing. Lookups use optimistic reads and do not block or allocate unless they race with
+ * a writer on the same stripe; writers only contend with other writers on the same stripe.
+ *
+ * @param <V> type of the values
+ */
+public class ConcurrentLongObjectMap<V> {
+  private static final int DEFAULT_STRIPES = 64;
+  private static final int DEFAULT_STRIPE_CAPACITY = 16;
+
+  private final Stripe<V>[] stripes;
+  private final int stripeShift;
+
+  public ConcurrentLongObjectMap() {
+    this(DEFAULT_STRIPES);
+  }
+
+  /**
+   * Creates the map with the given number of stripes.
+   *
+   * @param concurrency number of stripes, rounded up to the next power of 2
+   */
+  @SuppressWarnings("unchecked")
+  public ConcurrentLongObjectMap(int concurrency) {
+    if (concurrency <= 0) {
+      throw new IllegalArgumentException("concurrency = " + concurrency);
+    }
+
+    int count = Integer.highestOneBit(concurrency);
+    if (count < concurrency) {
+      count <<= 1;
+    }
+
+    stripes = new Stripe[count];
+    for (int i = count; i-- > 0; ) {
+      stripes[i] = new Stripe<>(DEFAULT_STRIPE_CAPACITY);
+    }
+    stripeShift = 64 - Integer.numberOfTrailingZeros(count);
+  }
+
+  static long mix(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return key;
+  }
+
+  private Stripe<V> stripe(long hash) {
+    return stripeShift == 64 ? stripes[0] : stripes[(int) (hash >>> stripeShift)];
+  }
+
+  public V get(long key) {
+    long hash = mix(key);
+    return stripe(hash).get(key, hash);
+  }
+
+  public V put(long key, V value) {
+    if (value == null) {
+      throw new NullPointerException("value");
+    }
+    long hash = mix(key);
+    return stripe(hash).put(key, hash, value, false);
+  }
+
+  public V putIfAbsent(long key, V value) {
+    if (value == null) {
+      throw new NullPointerException("value");
+    }
+    long hash = mix(key);
+    return stripe(hash).put(key, hash, value, true);
+  }
+
+  /**
+   * Returns the value mapped to the key, creating and storing it first if there is none. The
+   * function is invoked while the stripe is locked so it must be cheap and must not touch the map.
+   */
+  public V computeIfAbsent(long key, LongFunction<? extends V> function) {
+    long hash = mix(key);
+    return stripe(hash).computeIfAbsent(key, hash, function);
+  }
+
+  /**
+   * Removes the key. A key which is not in the map is found so with an optimistic read, without
+   * locking the stripe, so that removing the keys which are rarely present is cheap.
+   */
+  public V remove(long key) {
+    long hash = mix(key);
+    final Stripe<V> stripe = stripe(hash);
+    return stripe.get(key, hash) == null ? null : stripe.remove(key, hash, null);
+  }
+
+  /** Removes the key only if it is currently mapped to the given value. */
+  public boolean remove(long key, V value) {
+    long hash = mix(key);
+    final Stripe<V> stripe = stripe(hash);
+    return stripe.get(key, hash) == value && stripe.remove(key, hash, value) != null;
+  }
+
+  /** @return number of the entries, summed up over the stripes without locking them */
+  public int size() {
+    int size = 0;
+    for (Stripe<V> stripe : stripes) {
+      size += stripe.size();
+    }
+    return size;
+  }
+
+  public boolean isEmpty() {
+    for (Stripe<V> stripe : stripes) {
+      if (stripe.size() > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Visits a weakly consistent snapshot of the entries one stripe at a time. */
+  public void forEach(LongObjectConsumer<? super V> consumer) {
+    for (Stripe<V> stripe : stripes) {
+      stripe.forEach(consumer);
+    }
+  }
+
+  public interface LongObjectConsumer<V> {
+    void accept(long key, V value);
+  }
+
+  static final class Table {
+    final long[] keys;
+    final Object[] values;
+    final int mask;
+
+    Table(int capacity) {
+      keys = new long[capacity];
+      values = new Object[capacity];
+      mask = capacity - 1;
+    }
+  }
+
+  static final class Stripe<V> {
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table;
+    private volatile int size;
+
+    Stripe(int capacity) {
+      table = new Table(capacity);
+    }
+
+    static int index(long hash, int mask) {
+      return (int) hash & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V find(Table table, long key, long hash) {
+      final long[] keys = table.keys;
+      final Object[] values = table.values;
+      final int mask = table.mask;
+      for (int i = index(hash, mask), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+        Object value = values[i];
+        if (value == null) {
+          return null;
+        }
+        if (keys[i] == key) {
+          return (V) value;
+        }
+      }
+      return null;
+    }
+
+    V get(long key, long hash) {
+      long stamp = lock.tryOptimisticRead();
+      if (stamp != 0) {
+        V value = find(table, key, hash);
+        if (lock.validate(stamp)) {
+          return value;
+        }
+      }
+
+      stamp = lock.readLock();
+      try {
+        return find(table, key, hash);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    V put(long key, long hash, V value, boolean onlyIfAbsent) {
+      long stamp = lock.writeLock();
+      try {
+        return putLocked(key, hash, value, onlyIfAbsent);
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    V computeIfAbsent(long key, long hash, LongFunction<? extends V> function) {
+      V existing = get(key, hash);
+      if (existing != null) {
+        return existing;
+      }
+
+      long stamp = lock.writeLock();
+      try {
+        existing = find(table, key, hash);
+        if (existing == null) {
+          existing = function.apply(key);
+          if (existing != null) {
+            putLocked(key, hash, existing, false);
+          }
+        }
+        return existing;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V putLocked(long key, long hash, V value, boolean onlyIfAbsent) {
+      Table table = this.table;
+      int mask = table.mask;
+      int i = index(hash, mask);
+      while (table.values[i] != null) {
+        if (table.keys[i] == key) {
+          V old = (V) table.values[i];
+          if (!onlyIfAbsent) {
+            table.values[i] = value;
+          }
+          return old;
+        }
+        i = (i + 1) & mask;
+      }
+
+      table.keys[i] = key;
+      table.values[i] = value;
+      if (++size > (mask + 1) * 3 / 4) {
+        this.table = rehash(table);
+      }
+      return null;
+    }
+
+    private static Table rehash(Table table) {
+      Table bigger = new Table(table.keys.length << 1);
+      for (int i = table.keys.length; i-- > 0; ) {
+        Object value = table.values[i];
+        if (value != null) {
+          long key = table.keys[i];
+          int j = index(mix(key), bigger.mask);
+          while (bigger.values[j] != null) {
+            j = (j + 1) & bigger.mask;
+          }
+          bigger.keys[j] = key;
+          bigger.values[j] = value;
+        }
+      }
+      return bigger;
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(long key, long hash, V expected) {
+      long stamp = lock.writeLock();
+      try {
+        Table table = this.table;
+        final long[] keys = table.keys;
+        final Object[] values = table.values;
+        final int mask = table.mask;
+
+        int i = index(hash, mask);
+        while (values[i] != null) {
+          if (keys[i] == key) {
+            V old = (V) values[i];
+            if (expected != null && expected != old) {
+              return null;
+            }
+
+            /* backward shift deletion keeps the probe sequences intact without tombstones */
+            int hole = i;
+            for (int j = (hole + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+              int home = index(mix(keys[j]), mask);
+              if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+              }
+            }
+            values[hole] = null;
+            keys[hole] = 0;
+            size--;
+            return old;
+          }
+          i = (i + 1) & mask;
+        }
+        return null;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(LongObjectConsumer<? super V> consumer) {
+      final long[] keys;
+      final Object[] values;
+      long stamp = lock.readLock();
+      try {
+        keys = table.keys.clone();
+        values = table.values.clone();
+      } finally {
+        lock.unlockRead(stamp);
+      }
+
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != null) {
+          consumer.accept(keys[i], (V) values[i]);
+        }
+      }
+    }
+  }
+}
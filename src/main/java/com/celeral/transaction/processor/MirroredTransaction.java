@@ -0,0 +1,358 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.celeral.utils.Throwables;
+
+import com.celeral.transaction.Transaction;
+import com.celeral.transaction.fileupload.UploadPayload;
+
+/**
+ * Transaction which mirrors each call to several child transactions, e.g. uploads of the same file
+ * to different volumes. Each child runs on a {@link SerialExecutor} lane of its own, so that the
+ * calls to a child stay in order while the children progress in parallel.
+ *
+ * <p>The initialization waits for all the children so that they start from the same state, but a
+ * payload only waits until the quorum of them has processed it; the slower children catch up in
+ * the background. A child which fails or aborts is aborted on its own and left out, and the
+ * mirror as a whole aborts once fewer children than the quorum are left. The commit waits for all
+ * of the children and commits the ones which completed, failing if they fall short of the quorum.
+ *
+ * @param <H> type of the header
+ * @param <P> type of the payloads
+ */
+public class MirroredTransaction<H, P> implements Transaction<H, P> {
+  private final List<Child> children;
+  private final int quorum;
+
+  private interface Call<H, P> {
+    Result call(Transaction<H, P> transaction, Consumer<Object> details) throws Exception;
+  }
+
+  private final class Child {
+    final Transaction<H, P> transaction;
+    final SerialExecutor lane;
+    volatile Result result = Result.CONTINUE;
+    volatile boolean failed;
+    volatile boolean closed;
+    volatile Object details;
+
+    Child(Transaction<H, P> transaction, Executor executor) {
+      this.transaction = transaction;
+      this.lane = new SerialExecutor(executor);
+    }
+
+    /** Runs the call after the ones submitted earlier, unless the child is closed by then. */
+    CompletableFuture<Result> submit(Call<H, P> call, Runnable skipped) {
+      final CompletableFuture<Result> future = new CompletableFuture<>();
+      lane.execute(
+          () -> {
+            if (closed) {
+              skipped.run();
+              future.complete(Result.ABORT);
+              return;
+            }
+
+            details = null;
+            try {
+              final Result result = call.call(transaction, details -> this.details = details);
+              if (result == Result.ABORT) {
+                fail();
+              } else {
+                this.result = result;
+              }
+              future.complete(result);
+            } catch (Throwable th) {
+              fail();
+              future.completeExceptionally(th);
+            }
+          });
+      return future;
+    }
+
+    private void fail() {
+      failed = true;
+      if (!closed) {
+        closed = true;
+        try {
+          transaction.abort();
+        } catch (Exception ex) {
+          logger.warn("Exception while aborting mirror {}!", transaction, ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates the mirror.
+   *
+   * @param children transactions to mirror the calls to
+   * @param quorum number of children which need to process a payload before it's accepted
+   * @param executor executor to run the lanes of the children on
+   */
+  public MirroredTransaction(
+      List<? extends Transaction<H, P>> children, int quorum, Executor executor) {
+    if (quorum <= 0 || quorum > children.size()) {
+      throw Throwables.throwFormatted(
+          IllegalArgumentException.class,
+          "Quorum {} is not within the {} children!",
+          quorum,
+          children.size());
+    }
+
+    this.children = new ArrayList<>(children.size());
+    for (Transaction<H, P> child : children) {
+      this.children.add(new Child(child, executor));
+    }
+    this.quorum = quorum;
+  }
+
+  /**
+   * Prepares the payload to be handed to one more child, on top of the first one. By default the
+   * {@link UploadPayload}s are {@link UploadPayload#retain() retained}, since each child releases
+   * them once written.
+   *
+   * @param payload payload shared by the children
+   * @return the payload for the child
+   */
+  @SuppressWarnings("unchecked")
+  protected P share(P payload) {
+    return payload instanceof UploadPayload ? (P) ((UploadPayload) payload).retain() : payload;
+  }
+
+  /**
+   * Gives up the share of the payload meant for a child which no longer takes payloads. By default
+   * the {@link UploadPayload}s are {@link UploadPayload#release() released}.
+   *
+   * @param payload payload shared by the children
+   */
+  protected void discard(P payload) {
+    if (payload instanceof UploadPayload) {
+      ((UploadPayload) payload).release();
+    }
+  }
+
+  private static Result await(CompletableFuture<Result> future) {
+    try {
+      return future.get();
+    } catch (ExecutionException ex) {
+      return Result.ABORT;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw Throwables.throwFormatted(
+          ex, IllegalStateException.class, "Interrupted while waiting for the mirrors!");
+    }
+  }
+
+  /** Combines the results of the children into the result of the mirror. */
+  private Result combine(Consumer<Object> details) {
+    int live = 0;
+    int completed = 0;
+    int skipped = 0;
+    Object reported = null;
+    for (Child child : children) {
+      if (!child.failed) {
+        live++;
+        if (child.result == Result.COMMIT) {
+          completed++;
+        } else if (child.result == Result.SKIP) {
+          skipped++;
+        }
+      }
+    }
+
+    for (Child child : children) {
+      if (!child.failed && (reported = child.details) != null) {
+        details.accept(reported);
+        break;
+      }
+    }
+
+    if (live < quorum) {
+      return Result.ABORT;
+    }
+    if (skipped == live) {
+      return Result.SKIP;
+    }
+    return completed + skipped >= quorum ? Result.COMMIT : Result.CONTINUE;
+  }
+
+  @Override
+  public Result init(H header, Consumer<Object> details) {
+    final List<CompletableFuture<Result>> futures = new ArrayList<>(children.size());
+    for (Child child : children) {
+      futures.add(child.submit((transaction, d) -> transaction.init(header, d), () -> {}));
+    }
+    for (CompletableFuture<Result> future : futures) {
+      await(future);
+    }
+
+    return combine(details);
+  }
+
+  @Override
+  public Result process(P payload, Consumer<Object> details) {
+    final List<Child> open = new ArrayList<>(children.size());
+    for (Child child : children) {
+      if (!child.closed && child.result == Result.CONTINUE) {
+        open.add(child);
+      }
+    }
+    if (open.isEmpty()) {
+      discard(payload);
+      return combine(details);
+    }
+
+    /* all the shares are taken before the first child gets to release its own */
+    final List<P> shares = new ArrayList<>(open.size());
+    shares.add(payload);
+    for (int i = 1; i < open.size(); i++) {
+      shares.add(share(payload));
+    }
+
+    /* the children which processed the payload and the ones which failed to */
+    final int[] tally = new int[2];
+    for (int i = 0; i < open.size(); i++) {
+      final P share = shares.get(i);
+      open.get(i)
+          .submit((transaction, d) -> transaction.process(share, d), () -> discard(share))
+          .whenComplete(
+              (result, ex) -> {
+                synchronized (tally) {
+                  tally[result == null || result == Result.ABORT ? 1 : 0]++;
+                  tally.notifyAll();
+                }
+              });
+    }
+
+    synchronized (tally) {
+      while (tally[0] < quorum && tally[0] + tally[1] < open.size()) {
+        try {
+          tally.wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw Throwables.throwFormatted(
+              ex, IllegalStateException.class, "Interrupted while waiting for the mirrors!");
+        }
+      }
+    }
+    return combine(details);
+  }
+
+  @Override
+  public void commit() {
+    final List<CompletableFuture<Result>> futures = new ArrayList<>(children.size());
+    for (Child child : children) {
+      futures.add(
+          child.submit(
+              (transaction, d) -> {
+                switch (child.result) {
+                  case COMMIT:
+                    transaction.commit();
+                    child.closed = true;
+                    return Result.COMMIT;
+
+                  case SKIP:
+                    child.closed = true;
+                    return Result.SKIP;
+
+                  default:
+                    throw Throwables.throwFormatted(
+                        IllegalStateException.class, "Mirror {} is incomplete!", transaction);
+                }
+              },
+              () -> {}));
+    }
+
+    int committed = 0;
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        /* the children which were closed by then complete with an abort */
+        final Result result = futures.get(i).get();
+        if (result == Result.COMMIT || result == Result.SKIP) {
+          committed++;
+        }
+      } catch (ExecutionException ex) {
+        logger.warn("Mirror {} did not commit!", children.get(i).transaction, ex.getCause());
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw Throwables.throwFormatted(
+            ex, IllegalStateException.class, "Interrupted while waiting for the mirrors!");
+      }
+    }
+
+    if (committed < quorum) {
+      throw Throwables.throwFormatted(
+          IllegalStateException.class,
+          "Only {} mirrors committed, short of the quorum of {}!",
+          committed,
+          quorum);
+    }
+  }
+
+  @Override
+  public void abort() throws Exception {
+    final List<CompletableFuture<Result>> futures = new ArrayList<>(children.size());
+    for (Child child : children) {
+      futures.add(
+          child.submit(
+              (transaction, d) -> {
+                child.closed = true;
+                transaction.abort();
+                return Result.ABORT;
+              },
+              () -> {}));
+    }
+
+    Exception exception = null;
+    for (CompletableFuture<Result> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException ex) {
+        final Exception cause =
+            ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+        if (exception == null) {
+          exception = cause;
+        } else {
+          exception.addSuppressed(cause);
+        }
+      }
+    }
+
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  @Override
+  public void rollback(H header) throws Exception {
+    for (Child child : children) {
+      child.transaction.rollback(header);
+    }
+  }
+
+  private static final Logger logger = LogManager.getLogger(MirroredTransaction.class);
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.celeral.transaction.AsyncTransactionProcessor;
+import com.celeral.transaction.Transaction;
+import com.celeral.transaction.TransactionProcessor;
+
+/**
+ * Asynchronous facade over a thread safe {@link TransactionProcessor}, e.g. one derived from
+ * {@link AbstractConcurrentTransactionProcessor}. Each open transaction gets its own {@link
+ * SerialExecutor} lane on top of the shared executor so that the payloads of a transaction are
+ * processed in order while the different transactions progress in parallel. The shared executor
+ * is owned by the caller who decides on its bounds.
+ *
+ * <p>The payloads for the processors derived from {@link AbstractTransactionProcessor} are handed
+ * to them in order as well, but through {@link AbstractTransactionProcessor#processAsync(long,
+ * Object)}, so the lane moves on to the next payload as soon as the transaction started
+ * processing the current one. Transactions which complete asynchronously, e.g. the uploads to
+ * {@link com.celeral.transaction.fileupload.UploadTransaction.AsynchronousDocument}s, may then
+ * have several payloads in flight, which complete in any order.
+ */
+public class OrderedAsyncTransactionProcessor implements AsyncTransactionProcessor {
+  private final TransactionProcessor processor;
+  private final Executor executor;
+  private final ConcurrentLongObjectMap<SerialExecutor> lanes = new ConcurrentLongObjectMap<>();
+
+  public OrderedAsyncTransactionProcessor(TransactionProcessor processor, Executor executor) {
+    this.processor = processor;
+    this.executor = executor;
+  }
+
+  @Override
+  public CompletableFuture<TransactionProcessor.InitializationResult> initAsync(Object header) {
+    try {
+      return CompletableFuture.supplyAsync(() -> processor.init(header), executor);
+    } catch (RejectedExecutionException ex) {
+      return rejected(ex);
+    }
+  }
+
+  private static <T> CompletableFuture<T> rejected(RejectedExecutionException ex) {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(ex);
+    return future;
+  }
+
+  @Override
+  public CompletableFuture<TransactionProcessor.ProcessResult> processAsync(
+      long transactionId, Object payload) {
+    final CompletableFuture<TransactionProcessor.ProcessResult> future = new CompletableFuture<>();
+    final SerialExecutor lane =
+        lanes.computeIfAbsent(transactionId, id -> new SerialExecutor(executor));
+    try {
+      lane.execute(
+          () -> {
+            if (processor instanceof AbstractTransactionProcessor) {
+              ((AbstractTransactionProcessor) processor)
+                  .processAsync(transactionId, payload)
+                  .whenComplete(
+                      (result, th) -> {
+                        if (th != null) {
+                          lanes.remove(transactionId, lane);
+                          future.completeExceptionally(th);
+                        } else {
+                          complete(transactionId, lane, result, future);
+                        }
+                      });
+              return;
+            }
+
+            final TransactionProcessor.ProcessResult result;
+            try {
+              result = processor.process(transactionId, payload);
+            } catch (Throwable th) {
+              lanes.remove(transactionId, lane);
+              future.completeExceptionally(th);
+              return;
+            }
+
+            complete(transactionId, lane, result, future);
+          });
+    } catch (RejectedExecutionException ex) {
+      future.completeExceptionally(ex);
+    }
+    return future;
+  }
+
+  private void complete(
+      long transactionId,
+      SerialExecutor lane,
+      TransactionProcessor.ProcessResult result,
+      CompletableFuture<TransactionProcessor.ProcessResult> future) {
+    if (result.getResult() == Transaction.Result.COMMIT
+        || result.getResult() == Transaction.Result.ABORT) {
+      lanes.remove(transactionId, lane);
+    }
+    future.complete(result);
+  }
+
+  /** @return number of transactions which currently have a lane */
+  public int getActiveTransactionCount() {
+    return lanes.size();
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Executor which runs the submitted tasks one at a time, in the order of submission, on the
+ * threads of the underlying executor. At most one thread of the underlying executor is occupied
+ * at any time and it's released after a bounded batch of tasks so that many serial executors can
+ * fairly share the same thread pool.
+ */
+public class SerialExecutor implements Executor {
+  private static final int BATCH_SIZE = 64;
+
+  private final Executor executor;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  public SerialExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws RejectedExecutionException if the underlying executor rejects running the task; only
+   *     this task is dropped while the ones queued earlier stay queued for the next submission
+   */
+  @Override
+  public void execute(Runnable task) {
+    tasks.add(task);
+    if (scheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(this::drain);
+      } catch (RejectedExecutionException ex) {
+        scheduled.set(false);
+        tasks.remove(task);
+        throw ex;
+      }
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      Runnable task;
+      for (int i = BATCH_SIZE; i-- > 0 && (task = tasks.poll()) != null; ) {
+        try {
+          task.run();
+        } catch (Throwable th) {
+          logger.warn("Uncaught exception from serially executed task {}!", task, th);
+        }
+      }
+
+      scheduled.set(false);
+      if (tasks.isEmpty() || !scheduled.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        executor.execute(this::drain);
+        return;
+      } catch (RejectedExecutionException ex) {
+        /* nobody is left to submit the rest, so this thread keeps draining them */
+        logger.debug("Continuing to drain after rejection by {}", executor, ex);
+      }
+    }
+  }
+
+  private static final Logger logger = LogManager.getLogger(SerialExecutor.class);
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.celeral.utils.Throwables;
+
+import com.celeral.transaction.AsyncTransactionProcessor;
+import com.celeral.transaction.TransactionProcessor;
+
+/**
+ * Front end which spreads the transactions across independent processors, the shards, each with
+ * its own id generator and store. The index of the shard which initialized a transaction is
+ * encoded in the high bits of the transaction id, right below the sign bit, so the payloads are
+ * routed to their shard without any lookup shared by the shards.
+ *
+ * <p>Each shard is paired with an executor on which its asynchronous calls run one at a time, in
+ * the order of submission, so that a shard given a thread of its own is pinned to it.
+ */
+public class ShardedTransactionProcessor
+    implements TransactionProcessor, AsyncTransactionProcessor {
+  private final TransactionProcessor[] shards;
+  private final SerialExecutor[] executors;
+  private final int shift;
+  private final long mask;
+  private final AtomicInteger next = new AtomicInteger();
+
+  /**
+   * Creates the front end.
+   *
+   * @param shards processors to spread the transactions across
+   * @param executors executors to run the asynchronous calls of the shard at the same index on
+   */
+  public ShardedTransactionProcessor(
+      List<? extends TransactionProcessor> shards, List<? extends Executor> executors) {
+    if (shards.isEmpty() || shards.size() != executors.size()) {
+      throw Throwables.throwFormatted(
+          IllegalArgumentException.class,
+          "Need an executor for each of the {} shards instead of {}!",
+          shards.size(),
+          executors.size());
+    }
+
+    this.shards = shards.toArray(new TransactionProcessor[0]);
+    this.executors = new SerialExecutor[shards.size()];
+    for (int i = 0; i < this.executors.length; i++) {
+      this.executors[i] = new SerialExecutor(executors.get(i));
+    }
+    shift = 63 - (32 - Integer.numberOfLeadingZeros(shards.size() - 1));
+    mask = (1L << shift) - 1;
+  }
+
+  public int getShardCount() {
+    return shards.length;
+  }
+
+  /**
+   * Picks the shard to initialize the transaction on; the shards take turns by default.
+   * Overriding it lets e.g. the transactions with related headers share a shard.
+   *
+   * @param header header of the transaction
+   * @return index of the shard
+   */
+  protected int selectShard(Object header) {
+    return Math.floorMod(next.getAndIncrement(), shards.length);
+  }
+
+  /**
+   * Decodes the shard from the transaction id.
+   *
+   * @param transactionId id handed out by this processor
+   * @return index of the shard which owns the transaction
+   * @throws IllegalStateException if the id is not one which this processor could hand out
+   */
+  public int getShard(long transactionId) {
+    final long shard = transactionId >>> shift;
+    if (transactionId <= 0 || shard >= shards.length) {
+      throw Throwables.throwFormatted(
+          IllegalStateException.class, "No open transaction with id {}!", transactionId);
+    }
+    return (int) shard;
+  }
+
+  private long encode(int shard, long transactionId) {
+    if (transactionId == 0) {
+      return 0;
+    }
+
+    if (transactionId < 0 || transactionId > mask) {
+      throw Throwables.throwFormatted(
+          IllegalStateException.class,
+          "Transaction id {} of shard {} does not fit in {} bits!",
+          transactionId,
+          shard,
+          shift);
+    }
+    return (long) shard << shift | transactionId;
+  }
+
+  private InitializationResult init(int shard, Object header) {
+    final InitializationResult result = shards[shard].init(header);
+    return result.getTransactionId() == 0
+        ? result
+        : new InitializationResultImpl(
+            encode(shard, result.getTransactionId()), result.getResult(), result.getDetails());
+  }
+
+  @Override
+  public InitializationResult init(Object header) {
+    return init(selectShard(header), header);
+  }
+
+  @Override
+  public InitializationResult init(Object header, ResultHolder holder) {
+    final int shard = selectShard(header);
+    shards[shard].init(header, holder);
+    return holder.set(
+        encode(shard, holder.getTransactionId()), holder.getResult(), holder.getDetails());
+  }
+
+  @Override
+  public ProcessResult process(long transactionId, Object payload) {
+    return shards[getShard(transactionId)].process(transactionId & mask, payload);
+  }
+
+  @Override
+  public ProcessResult process(long transactionId, Object payload, ResultHolder holder) {
+    shards[getShard(transactionId)].process(transactionId & mask, payload, holder);
+    return holder.set(transactionId, holder.getResult(), holder.getDetails());
+  }
+
+  @Override
+  public ProcessResult processBatch(long transactionId, List<?> payloads) {
+    return shards[getShard(transactionId)].processBatch(transactionId & mask, payloads);
+  }
+
+  @Override
+  public CompletableFuture<InitializationResult> initAsync(Object header) {
+    final int shard = selectShard(header);
+    try {
+      return CompletableFuture.supplyAsync(() -> init(shard, header), executors[shard]);
+    } catch (RejectedExecutionException ex) {
+      return failed(ex);
+    }
+  }
+
+  private static <T> CompletableFuture<T> failed(RuntimeException ex) {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(ex);
+    return future;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The payloads of all the transactions of a shard are processed one at a time.
+   */
+  @Override
+  public CompletableFuture<ProcessResult> processAsync(long transactionId, Object payload) {
+    final int shard;
+    try {
+      shard = getShard(transactionId);
+    } catch (IllegalStateException ex) {
+      return failed(ex);
+    }
+    try {
+      return CompletableFuture.supplyAsync(
+          () -> shards[shard].process(transactionId & mask, payload), executors[shard]);
+    } catch (RejectedExecutionException ex) {
+      return failed(ex);
+    }
+  }
+}
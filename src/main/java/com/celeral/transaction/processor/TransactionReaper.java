@@ -0,0 +1,291 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.celeral.transaction.metrics.TransactionListener;
+import com.celeral.transaction.processor.AbstractConcurrentTransactionProcessor.OpenTransaction;
+
+/**
+ * Aborts and removes the transactions of an {@link AbstractConcurrentTransactionProcessor} which
+ * stay idle for too long or which stay open for too long overall.
+ *
+ * <p>The timeouts are tracked with a hashed timer wheel. Accessing a transaction only records the
+ * access time on it; the wheel lazily reschedules the transaction when its slot comes up and
+ * finds that it was accessed in the meantime. Thus the cost of an access stays constant
+ * irrespective of the number of open transactions.
+ *
+ * <p>A transaction which a call is still using when its deadline passes is reaped only after the
+ * call returns, if it's still open by then.
+ *
+ * <p>The reaper needs to be created before the processor opens any transactions and has to be
+ * driven periodically, either by calling {@link #expire()} or with {@link
+ * #schedule(ScheduledExecutorService)}.
+ */
+public class TransactionReaper implements Runnable {
+  private static final int DEFAULT_WHEEL_SIZE = 512;
+
+  private final AbstractConcurrentTransactionProcessor processor;
+  private final long idleTimeout;
+  private final long absoluteTimeout;
+  private final long tickDuration;
+  private final LongSupplier clock;
+  private final Queue<OpenTransaction> registrations = new ConcurrentLinkedQueue<>();
+  private final ArrayList<OpenTransaction>[] wheel;
+  private final ArrayList<OpenTransaction> expiring = new ArrayList<>();
+  private final int mask;
+  private final long start;
+  private final AtomicLong reclaimed = new AtomicLong();
+  private long tick;
+
+  /**
+   * Creates the reaper which ticks 64 times within the shorter of the two timeouts.
+   *
+   * @param processor processor whose transactions are reaped
+   * @param idleTimeout time after the last access to a transaction at which it's aborted; 0 to
+   *     disable
+   * @param absoluteTimeout time after the initialization of a transaction at which it's aborted; 0
+   *     to disable
+   * @param unit unit of the timeouts
+   */
+  public TransactionReaper(
+      AbstractConcurrentTransactionProcessor processor,
+      long idleTimeout,
+      long absoluteTimeout,
+      TimeUnit unit) {
+    this(
+        processor,
+        idleTimeout,
+        absoluteTimeout,
+        unit,
+        Math.max(1, minPositive(unit.toNanos(idleTimeout), unit.toNanos(absoluteTimeout)) / 64),
+        TimeUnit.NANOSECONDS,
+        DEFAULT_WHEEL_SIZE,
+        System::nanoTime);
+  }
+
+  /**
+   * Creates the reaper.
+   *
+   * @param processor processor whose transactions are reaped
+   * @param idleTimeout time after the last access to a transaction at which it's aborted; 0 to
+   *     disable
+   * @param absoluteTimeout time after the initialization of a transaction at which it's aborted; 0
+   *     to disable
+   * @param unit unit of the timeouts
+   * @param tickDuration resolution of the timer wheel
+   * @param tickUnit unit of the tick duration
+   * @param wheelSize number of slots in the wheel, rounded up to the next power of 2
+   * @param clock source of monotonic time in nanoseconds
+   */
+  @SuppressWarnings("unchecked")
+  public TransactionReaper(
+      AbstractConcurrentTransactionProcessor processor,
+      long idleTimeout,
+      long absoluteTimeout,
+      TimeUnit unit,
+      long tickDuration,
+      TimeUnit tickUnit,
+      int wheelSize,
+      LongSupplier clock) {
+    if (idleTimeout <= 0 && absoluteTimeout <= 0) {
+      throw new IllegalArgumentException("At least one of the timeouts needs to be positive!");
+    }
+    if (tickDuration <= 0 || wheelSize <= 0) {
+      throw new IllegalArgumentException(
+          "tickDuration = " + tickDuration + ", wheelSize = " + wheelSize);
+    }
+
+    this.processor = processor;
+    this.idleTimeout = idleTimeout > 0 ? unit.toNanos(idleTimeout) : Long.MAX_VALUE;
+    this.absoluteTimeout = absoluteTimeout > 0 ? unit.toNanos(absoluteTimeout) : Long.MAX_VALUE;
+    this.tickDuration = tickUnit.toNanos(tickDuration);
+    this.clock = clock;
+
+    int size = Integer.highestOneBit(wheelSize);
+    if (size < wheelSize) {
+      size <<= 1;
+    }
+    wheel = new ArrayList[size];
+    for (int i = size; i-- > 0; ) {
+      wheel[i] = new ArrayList<>();
+    }
+    mask = size - 1;
+    start = clock.getAsLong();
+
+    processor.reaper = this;
+  }
+
+  private static long minPositive(long first, long second) {
+    if (first <= 0) {
+      return second;
+    }
+    if (second <= 0) {
+      return first;
+    }
+    return Math.min(first, second);
+  }
+
+  private static long saturatedAdd(long time, long timeout) {
+    long sum = time + timeout;
+    return ((time ^ sum) & (timeout ^ sum)) < 0 ? Long.MAX_VALUE : sum;
+  }
+
+  long now() {
+    return clock.getAsLong();
+  }
+
+  void register(OpenTransaction transaction) {
+    registrations.add(transaction);
+  }
+
+  private long deadline(OpenTransaction transaction) {
+    return Math.min(
+        saturatedAdd(transaction.accessed, idleTimeout),
+        saturatedAdd(transaction.initialized, absoluteTimeout));
+  }
+
+  /** @return true if the transaction is scheduled, false if it's already past its deadline */
+  private boolean schedule(OpenTransaction transaction, long now) {
+    final long deadline = deadline(transaction);
+    if (deadline <= now) {
+      return false;
+    }
+
+    long ticks = (deadline - start + tickDuration - 1) / tickDuration;
+    if (ticks <= tick) {
+      ticks = tick + 1;
+    }
+    transaction.rounds = (int) Math.min(Integer.MAX_VALUE, (ticks - tick - 1) / wheel.length);
+    wheel[(int) (ticks & mask)].add(transaction);
+    return true;
+  }
+
+  private boolean reap(OpenTransaction transaction) {
+    if (processor.transactions.get(transaction.id) != transaction) {
+      return false;
+    }
+    if (!transaction.claim()) {
+      /* a call is using the transaction, so check on it again with the next tick */
+      transaction.rounds = 0;
+      wheel[(int) ((tick + 1) & mask)].add(transaction);
+      return false;
+    }
+    if (!processor.transactions.remove(transaction.id, transaction)) {
+      return false;
+    }
+
+    final TransactionListener listener = processor.listener;
+    try {
+      processor.abort(transaction.transaction, listener);
+    } catch (Exception ex) {
+      logger.warn("Exception while aborting expired transaction {}!", transaction.id, ex);
+    }
+
+    try {
+      processor.ended(transaction.id, false, listener);
+    } catch (RuntimeException ex) {
+      logger.warn("Exception while logging expired transaction {}!", transaction.id, ex);
+    }
+    return true;
+  }
+
+  /**
+   * Advances the wheel to the current time, aborting and removing the expired transactions.
+   *
+   * @return number of transactions reclaimed by this call
+   */
+  public synchronized int expire() {
+    final long now = clock.getAsLong();
+    int count = 0;
+
+    OpenTransaction transaction;
+    while ((transaction = registrations.poll()) != null) {
+      if (!schedule(transaction, now) && reap(transaction)) {
+        count++;
+      }
+    }
+
+    final long current = (now - start) / tickDuration;
+    /* when we fall behind by more than a revolution, the rounds are stale so reschedule all */
+    final boolean overrun = current - tick > wheel.length;
+    if (overrun) {
+      tick = current - wheel.length;
+    }
+
+    while (tick < current) {
+      tick++;
+      final ArrayList<OpenTransaction> slot = wheel[(int) (tick & mask)];
+      expiring.addAll(slot);
+      slot.clear();
+
+      for (int i = 0; i < expiring.size(); i++) {
+        transaction = expiring.get(i);
+        if (processor.transactions.get(transaction.id) != transaction) {
+          /* removed in the meantime, drop it */
+          continue;
+        }
+
+        if (transaction.rounds > 0 && !overrun) {
+          transaction.rounds--;
+          slot.add(transaction);
+        } else if (!schedule(transaction, now) && reap(transaction)) {
+          count++;
+        }
+      }
+      expiring.clear();
+    }
+
+    if (count > 0) {
+      reclaimed.addAndGet(count);
+      logger.info("Reclaimed {} expired transactions.", count);
+    }
+    return count;
+  }
+
+  @Override
+  public void run() {
+    try {
+      expire();
+    } catch (Throwable th) {
+      logger.warn("Exception while reaping expired transactions!", th);
+    }
+  }
+
+  /** Drives this reaper from the given scheduler once every tick. */
+  public ScheduledFuture<?> schedule(ScheduledExecutorService scheduler) {
+    return scheduler.scheduleWithFixedDelay(
+        this, tickDuration, tickDuration, TimeUnit.NANOSECONDS);
+  }
+
+  /** @return total number of transactions reclaimed by this reaper */
+  public long getReclaimedCount() {
+    return reclaimed.get();
+  }
+
+  private static final Logger logger = LogManager.getLogger(TransactionReaper.class);
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.celeral.utils.Throwables;
+
+import com.celeral.transaction.wal.WriteAheadLog;
+
+/**
+ * Commits transactions spread across several processors all together or not at all. The
+ * participants are first asked to prepare, all in parallel, and only once each of them has voted
+ * yes is the decision to commit forced to the log and the participants committed, again in
+ * parallel. So the commit takes two parallel rounds and a single log write however many
+ * participants there are.
+ *
+ * <p>Nothing is logged for the decisions to abort: a decision missing from the log after a crash
+ * means the participants are to be aborted. A decision to commit is logged with the {@link
+ * ParticipantId ids} of its participants and stays in the log, and in {@link #getInDoubt()}, until
+ * all of them committed. The participants which failed to commit, as well as the ones which were
+ * prepared when their processes crashed, are left {@link AbstractTransactionProcessor#getInDoubt()
+ * in doubt} by their processors until {@link #recover(Map)} carries out the decisions.
+ *
+ * <p>The decisions are numbered and recorded like the transactions of a processor, so the log of
+ * the decisions must be dedicated to the coordinator and not shared with any processor.
+ *
+ * @see AbstractTransactionProcessor#enlist(long)
+ */
+public class TwoPhaseCommitCoordinator {
+  private final Executor executor;
+  private final WriteAheadLog log;
+  private final AtomicLong decisions;
+  private final Map<Long, List<ParticipantId>> inDoubt;
+
+  /**
+   * Participant in the commit, e.g. a transaction {@link AbstractTransactionProcessor#enlist
+   * enlisted} with a processor.
+   */
+  public interface Participant {
+    /** @return id of the participant, logged with the decision to commit */
+    ParticipantId getId();
+
+    /**
+     * Prepares the participant to commit.
+     *
+     * @return true to vote for the commit, false to have all the participants aborted
+     * @throws Exception exceptions received while preparing, counted as a vote to abort
+     */
+    boolean prepare() throws Exception;
+
+    void commit() throws Exception;
+
+    void abort() throws Exception;
+  }
+
+  /** Identifies a participant in the log: the name of its processor and its transaction id. */
+  public static final class ParticipantId {
+    private final String processor;
+    private final long transactionId;
+
+    private ParticipantId() {
+      this(null, 0);
+    }
+
+    public ParticipantId(String processor, long transactionId) {
+      this.processor = processor;
+      this.transactionId = transactionId;
+    }
+
+    /** @return {@link AbstractTransactionProcessor#getName() name} of the processor */
+    public String getProcessor() {
+      return processor;
+    }
+
+    public long getTransactionId() {
+      return transactionId;
+    }
+
+    @Override
+    public String toString() {
+      return "transaction " + transactionId + " of " + processor;
+    }
+  }
+
+  private interface Call {
+    boolean call(Participant participant) throws Exception;
+  }
+
+  /**
+   * Creates the coordinator.
+   *
+   * @param executor executor to run the calls to the participants on
+   * @param log log dedicated to recording the decisions to commit in, or null to not record them
+   * @throws IllegalArgumentException if the log holds prepared transactions, i.e. it's the log
+   *     of a processor
+   */
+  public TwoPhaseCommitCoordinator(Executor executor, WriteAheadLog log) {
+    if (log != null && !log.getPrepared().isEmpty()) {
+      throw Throwables.throwFormatted(
+          IllegalArgumentException.class,
+          "Log with prepared transactions {} is not a log of decisions!",
+          log.getPrepared());
+    }
+
+    this.executor = executor;
+    this.log = log;
+    this.decisions = new AtomicLong(log == null ? 0 : log.getHighestTransactionId());
+    this.inDoubt = new ConcurrentHashMap<>();
+    if (log != null) {
+      for (Map.Entry<Long, Object> entry : log.getUnfinished().entrySet()) {
+        inDoubt.put(entry.getKey(), Arrays.asList((ParticipantId[]) entry.getValue()));
+      }
+    }
+  }
+
+  private List<CompletableFuture<Boolean>> submit(
+      List<? extends Participant> participants, Call call) {
+    final List<CompletableFuture<Boolean>> futures = new ArrayList<>(participants.size());
+    for (Participant participant : participants) {
+      final CompletableFuture<Boolean> future = new CompletableFuture<>();
+      executor.execute(
+          () -> {
+            try {
+              future.complete(call.call(participant));
+            } catch (Throwable th) {
+              future.completeExceptionally(th);
+            }
+          });
+      futures.add(future);
+    }
+    return futures;
+  }
+
+  /** Waits for all the calls, collecting their failures in the order of the participants. */
+  private static Exception await(
+      List<? extends Participant> participants,
+      List<CompletableFuture<Boolean>> futures,
+      boolean[] votes) {
+    Exception exception = null;
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        votes[i] = futures.get(i).get();
+      } catch (ExecutionException ex) {
+        final Exception cause =
+            ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+        logger.debug("Call to participant {} failed!", participants.get(i), cause);
+        if (exception == null) {
+          exception = cause;
+        } else {
+          exception.addSuppressed(cause);
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw Throwables.throwFormatted(
+            ex, IllegalStateException.class, "Interrupted while waiting for the participants!");
+      }
+    }
+    return exception;
+  }
+
+  /**
+   * Commits all the participants if all of them prepare successfully and aborts all of them
+   * otherwise.
+   *
+   * @param participants participants in the commit
+   * @return true if the participants were committed, false if they were aborted
+   * @throws Exception the failures to commit after the decision to commit was logged; the
+   *     decision is then left in doubt
+   */
+  public boolean complete(List<? extends Participant> participants) throws Exception {
+    final ParticipantId[] ids = new ParticipantId[participants.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = participants.get(i).getId();
+      if (log != null && ids[i].getProcessor() == null) {
+        throw Throwables.throwFormatted(
+            IllegalArgumentException.class,
+            "Participant {} is not recoverable without the name of its processor!",
+            ids[i]);
+      }
+    }
+
+    final boolean[] votes = new boolean[participants.size()];
+    final Exception failure =
+        await(participants, submit(participants, Participant::prepare), votes);
+    boolean unanimous = failure == null;
+    for (boolean vote : votes) {
+      unanimous &= vote;
+    }
+
+    if (!unanimous) {
+      final Exception exception =
+          await(
+              participants,
+              submit(
+                  participants,
+                  participant -> {
+                    participant.abort();
+                    return true;
+                  }),
+              votes);
+      if (exception != null) {
+        logger.warn("Unable to abort all the participants!", exception);
+      }
+      return false;
+    }
+
+    final long decision = decisions.incrementAndGet();
+    if (log != null) {
+      try {
+        log.initialized(decision, ids);
+      } catch (IOException ex) {
+        /* the decision did not make it to the log, so it's still presumed to be an abort */
+        for (Participant participant : participants) {
+          try {
+            participant.abort();
+          } catch (Exception ex1) {
+            ex.addSuppressed(ex1);
+          }
+        }
+        throw ex;
+      }
+    }
+    inDoubt.put(decision, Arrays.asList(ids));
+
+    final Exception exception =
+        await(
+            participants,
+            submit(
+                participants,
+                participant -> {
+                  participant.commit();
+                  return true;
+                }),
+            votes);
+    if (exception != null) {
+      throw Throwables.throwFormatted(
+          exception,
+          IllegalStateException.class,
+          "Decision {} to commit {} is in doubt!",
+          decision,
+          Arrays.toString(ids));
+    }
+
+    resolved(decision);
+    return true;
+  }
+
+  /**
+   * @return the participants, keyed by the ids of the decisions, of the decisions to commit which
+   *     were not yet carried out by all of their participants
+   */
+  public Map<Long, List<ParticipantId>> getInDoubt() {
+    return new ConcurrentHashMap<>(inDoubt);
+  }
+
+  /**
+   * Carries out the decisions in doubt: the participants which their processors hold {@link
+   * AbstractTransactionProcessor#getInDoubt() in doubt} are {@link
+   * AbstractTransactionProcessor#resolve(long, boolean) committed}, after which the decisions are
+   * resolved. The rest of the transactions in doubt are aborted, as no decision to commit them
+   * was logged before the coordinator crashed.
+   *
+   * <p>It's meant to be called once the processors recovered from their own logs and before the
+   * coordinator starts any commit, and presumes that the transactions of the processors are only
+   * committed through this coordinator.
+   *
+   * @param processors processors of the participants keyed by their {@link
+   *     AbstractTransactionProcessor#getName() names}
+   * @return number of decisions resolved
+   * @throws Exception the failures to carry out the decisions, which are then left in doubt
+   */
+  public int recover(Map<String, ? extends AbstractTransactionProcessor> processors)
+      throws Exception {
+    final Map<Long, List<ParticipantId>> decisions = getInDoubt();
+    final Map<String, Set<Long>> committing = new HashMap<>();
+    for (List<ParticipantId> participants : decisions.values()) {
+      for (ParticipantId participant : participants) {
+        committing
+            .computeIfAbsent(participant.getProcessor(), name -> new HashSet<>())
+            .add(participant.getTransactionId());
+      }
+    }
+
+    int resolved = 0;
+    Exception exception = null;
+    for (Map.Entry<Long, List<ParticipantId>> decision : decisions.entrySet()) {
+      try {
+        for (ParticipantId participant : decision.getValue()) {
+          final AbstractTransactionProcessor processor =
+              processors.get(participant.getProcessor());
+          if (processor == null) {
+            throw Throwables.throwFormatted(
+                IllegalStateException.class,
+                "No processor to commit {} of decision {}!",
+                participant,
+                decision.getKey());
+          }
+          /* the participants no longer in doubt committed before */
+          if (processor.getInDoubt().contains(participant.getTransactionId())) {
+            processor.resolve(participant.getTransactionId(), true);
+          }
+        }
+        resolved(decision.getKey());
+        resolved++;
+      } catch (Exception ex) {
+        logger.warn("Unable to carry out decision {}!", decision.getKey(), ex);
+        if (exception == null) {
+          exception = ex;
+        } else {
+          exception.addSuppressed(ex);
+        }
+      }
+    }
+
+    for (Map.Entry<String, ? extends AbstractTransactionProcessor> entry : processors.entrySet()) {
+      final Set<Long> committed =
+          committing.getOrDefault(entry.getKey(), Collections.emptySet());
+      for (long transactionId : entry.getValue().getInDoubt()) {
+        if (committed.contains(transactionId)) {
+          continue;
+        }
+
+        logger.debug(
+            "Aborting transaction {} of {} without a decision", transactionId, entry.getKey());
+        try {
+          entry.getValue().resolve(transactionId, false);
+        } catch (Exception ex) {
+          if (exception == null) {
+            exception = ex;
+          } else {
+            exception.addSuppressed(ex);
+          }
+        }
+      }
+    }
+
+    if (exception != null) {
+      throw exception;
+    }
+    return resolved;
+  }
+
+  /**
+   * Records that all the participants of the decision have committed.
+   *
+   * @param decision id of the decision in doubt
+   * @throws IOException if the end of the decision cannot be logged
+   */
+  public void resolved(long decision) throws IOException {
+    if (log != null) {
+      log.ended(decision, true);
+    }
+    inDoubt.remove(decision);
+  }
+
+  private static final Logger logger = LogManager.getLogger(TwoPhaseCommitCoordinator.class);
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import com.celeral.utils.Throwables;
+
+/**
+ * Framing shared by the client and the server. Each frame is its length in 4 bytes followed by a
+ * kind byte, the varint correlation id matching a response to its request and then the body:
+ *
+ * <ul>
+ *   <li>INIT: the header
+ *   <li>PROCESS: varint transaction id and the payload
+ *   <li>RESULT: the result
+ *   <li>FAILURE: the message of the exception
+ * </ul>
+ */
+final class Frames {
+  static final byte INIT = 1;
+  static final byte PROCESS = 2;
+  static final byte RESULT = 3;
+  static final byte FAILURE = 4;
+
+  /** Largest frame accepted; bigger ones indicate a corrupt or hostile peer. */
+  static final int MAX_FRAME_SIZE = 64 << 20;
+
+  private Frames() {}
+
+  static int begin(Output output, byte kind, long correlation) {
+    final int start = output.position();
+    output.writeInt(0);
+    output.writeByte(kind);
+    output.writeVarLong(correlation, true);
+    return start;
+  }
+
+  static void end(Output output, int start) {
+    final int length = output.position() - start - 4;
+    ByteBuffer.wrap(output.getBuffer()).putInt(start, length);
+  }
+
+  /** Accumulates the bytes read from a channel and slices them into frames. */
+  static final class Reader {
+    private ByteBuffer buffer = ByteBuffer.allocate(64 << 10);
+    private int start;
+
+    /** @return number of bytes read, -1 at the end of the stream */
+    int read(ReadableByteChannel channel) throws IOException {
+      return channel.read(buffer);
+    }
+
+    /**
+     * Points the input at the next complete frame, past its length. The input is valid only until
+     * the next call to any of the methods.
+     *
+     * @param input input to read the frame from
+     * @return true if a complete frame was available
+     */
+    boolean next(Input input) {
+      final int available = buffer.position() - start;
+      if (available >= 4) {
+        final int length = buffer.getInt(start);
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+          throw Throwables.throwFormatted(
+              IllegalStateException.class, "Invalid frame of {} bytes!", length);
+        }
+
+        if (available >= 4 + length) {
+          input.setBuffer(buffer.array(), start + 4, length);
+          start += 4 + length;
+          return true;
+        }
+
+        if (4 + length > buffer.capacity()) {
+          final ByteBuffer bigger =
+              ByteBuffer.allocate(Math.max(4 + length, buffer.capacity() * 2));
+          buffer.flip().position(start);
+          bigger.put(buffer);
+          buffer = bigger;
+          start = 0;
+          return false;
+        }
+      }
+
+      /* make room for the rest of the frame */
+      if (start > 0) {
+        buffer.flip().position(start);
+        buffer.compact();
+        start = 0;
+      }
+      return false;
+    }
+  }
+}
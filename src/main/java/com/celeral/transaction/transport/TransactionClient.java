@@ -0,0 +1,291 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import com.celeral.transaction.AsyncTransactionProcessor;
+import com.celeral.transaction.Transaction;
+import com.celeral.transaction.TransactionProcessor.InitializationResult;
+import com.celeral.transaction.TransactionProcessor.ProcessResult;
+import com.celeral.transaction.fileupload.BlockSizeController;
+import com.celeral.transaction.fileupload.UploadPayload;
+import com.celeral.transaction.kryo.TransactionKryo;
+import com.celeral.transaction.processor.ConcurrentLongObjectMap;
+
+/**
+ * Client of a {@link TransactionServer}. The requests are pipelined over a single connection: up
+ * to a window of them are in flight at any time and their results complete the returned futures
+ * as the acknowledgements arrive, so the throughput is bound by the bandwidth rather than by the
+ * round trip time. Requests are sent in the order of the calls; the calls block while the window
+ * is full.
+ */
+public class TransactionClient implements AsyncTransactionProcessor, Closeable {
+  private final SocketChannel channel;
+  private final Semaphore window;
+  private final int windowSize;
+  private final ConcurrentLongObjectMap<CompletableFuture<Object>> pending =
+      new ConcurrentLongObjectMap<>();
+  private final AtomicLong correlations = new AtomicLong();
+  private final Kryo writer;
+  private final Kryo reader;
+  private final Output output = new Output(64 << 10, -1);
+  private final Thread thread;
+  private volatile RemoteTransactionException failure;
+
+  public TransactionClient(InetSocketAddress address, int windowSize) throws IOException {
+    this(address, windowSize, TransactionKryo::newInstance);
+  }
+
+  /**
+   * Connects to the server.
+   *
+   * @param address address of the server
+   * @param windowSize maximum number of requests awaiting their results
+   * @param kryos factory of the Kryo instances used to write the requests and read the results; it
+   *     needs to register the application types the same way as the server
+   * @throws IOException if the connection cannot be established
+   */
+  public TransactionClient(InetSocketAddress address, int windowSize, Supplier<Kryo> kryos)
+      throws IOException {
+    if (windowSize <= 0) {
+      throw new IllegalArgumentException("windowSize = " + windowSize);
+    }
+
+    this.windowSize = windowSize;
+    this.window = new Semaphore(windowSize);
+    this.writer = kryos.get();
+    this.reader = kryos.get();
+    this.channel = SocketChannel.open(address);
+    channel.socket().setTcpNoDelay(true);
+    thread = new Thread(this::run, "transaction-client-" + address);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void run() {
+    final Frames.Reader frames = new Frames.Reader();
+    final Input input = new Input();
+    try {
+      while (frames.read(channel) >= 0) {
+        while (frames.next(input)) {
+          final byte kind = input.readByte();
+          final CompletableFuture<Object> future = pending.remove(input.readVarLong(true));
+          if (future == null) {
+            throw new IllegalStateException("Response to an unknown request!");
+          }
+
+          window.release();
+          if (kind == Frames.RESULT) {
+            future.complete(reader.readClassAndObject(input));
+          } else {
+            future.completeExceptionally(new RemoteTransactionException(input.readString()));
+          }
+        }
+      }
+      fail(new RemoteTransactionException("Connection closed by the server!"));
+    } catch (IOException | RuntimeException ex) {
+      fail(new RemoteTransactionException("Connection failed!", ex));
+    }
+  }
+
+  private void fail(RemoteTransactionException ex) {
+    if (failure == null) {
+      failure = ex;
+    }
+
+    /* wake up the callers waiting for the window, they'll find the failure */
+    window.release(windowSize);
+    pending.forEach(
+        (correlation, future) -> {
+          if (pending.remove(correlation, future)) {
+            future.completeExceptionally(failure);
+          }
+        });
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> CompletableFuture<T> send(byte kind, long transactionId, Object body) {
+    final CompletableFuture<Object> future = new CompletableFuture<>();
+    window.acquireUninterruptibly();
+    if (failure != null) {
+      window.release();
+      future.completeExceptionally(failure);
+      return (CompletableFuture<T>) future;
+    }
+
+    final long correlation = correlations.incrementAndGet();
+    pending.put(correlation, future);
+    try {
+      synchronized (output) {
+        output.clear();
+        final int start = Frames.begin(output, kind, correlation);
+        if (kind == Frames.PROCESS) {
+          output.writeVarLong(transactionId, true);
+        }
+        writer.writeClassAndObject(output, body);
+        Frames.end(output, start);
+
+        final ByteBuffer buffer = ByteBuffer.wrap(output.getBuffer(), 0, output.position());
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+    } catch (IOException | RuntimeException ex) {
+      if (pending.remove(correlation, future)) {
+        window.release();
+        future.completeExceptionally(new RemoteTransactionException("Unable to send!", ex));
+      }
+    }
+
+    /* the reader may have failed the pending requests before this one was added */
+    if (failure != null && pending.remove(correlation, future)) {
+      window.release();
+      future.completeExceptionally(failure);
+    }
+    return (CompletableFuture<T>) future;
+  }
+
+  @Override
+  public CompletableFuture<InitializationResult> initAsync(Object header) {
+    return send(Frames.INIT, 0, header);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The payload is serialized before the call returns, so it can be released or reused right
+   * away.
+   */
+  @Override
+  public CompletableFuture<ProcessResult> processAsync(long transactionId, Object payload) {
+    return send(Frames.PROCESS, transactionId, payload);
+  }
+
+  /**
+   * Streams the payloads for the transaction, releasing each one once it's sent, without waiting
+   * for the results of the earlier ones. The streaming stops early when a result other than
+   * {@link Transaction.Result#CONTINUE} or a failure comes back.
+   *
+   * @param transactionId id of the transaction
+   * @param payloads payloads to be sent
+   * @return future which completes with the first result which isn't a CONTINUE or else with the
+   *     result of the last payload
+   */
+  public CompletableFuture<ProcessResult> stream(
+      long transactionId, Iterator<? extends UploadPayload> payloads) {
+    return stream(transactionId, payloads, null);
+  }
+
+  /**
+   * Streams the payloads for the transaction like {@link #stream(long, Iterator)} and reports each
+   * payload sent and acknowledged to the controller, so that an iterator {@link
+   * com.celeral.transaction.fileupload.UploadPayloadIterator#setBlockSizeController consulting}
+   * the same controller adapts the size of the payloads to the observed latency. The latency of a
+   * payload includes the time spent waiting for the window, so a server falling behind shrinks the
+   * payloads too.
+   *
+   * @param transactionId id of the transaction
+   * @param payloads payloads to be sent
+   * @param controller controller to report to or null
+   * @return future which completes with the first result which isn't a CONTINUE or else with the
+   *     result of the last payload
+   */
+  public CompletableFuture<ProcessResult> stream(
+      long transactionId,
+      Iterator<? extends UploadPayload> payloads,
+      BlockSizeController controller) {
+    final CompletableFuture<ProcessResult> outcome = new CompletableFuture<>();
+    final AtomicInteger outstanding = new AtomicInteger(1);
+    final ProcessResult[] last = {ProcessResult.CONTINUED};
+
+    while (payloads.hasNext() && !outcome.isDone()) {
+      final UploadPayload payload = payloads.next();
+      final int length = payload.getLength();
+      final long start = controller == null ? 0 : System.nanoTime();
+      final CompletableFuture<ProcessResult> result;
+      try {
+        if (controller != null) {
+          controller.sent(length);
+        }
+        result = processAsync(transactionId, payload);
+      } finally {
+        payload.release();
+      }
+
+      outstanding.incrementAndGet();
+      result.whenComplete(
+          (r, ex) -> {
+            if (controller != null) {
+              controller.acknowledged(length, System.nanoTime() - start);
+            }
+
+            if (ex != null) {
+              outcome.completeExceptionally(ex);
+            } else if (r.getResult() != Transaction.Result.CONTINUE) {
+              outcome.complete(r);
+            } else {
+              /* the results of a transaction arrive in order on the reader thread */
+              last[0] = r;
+            }
+
+            if (outstanding.decrementAndGet() == 0) {
+              outcome.complete(last[0]);
+            }
+          });
+    }
+
+    if (outstanding.decrementAndGet() == 0) {
+      outcome.complete(last[0]);
+    }
+    return outcome;
+  }
+
+  /** @return number of requests awaiting their results */
+  public int getInFlightCount() {
+    return windowSize - window.availablePermits();
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    try {
+      thread.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    logger.debug("Closed connection {}", channel);
+  }
+
+  private static final Logger logger = LogManager.getLogger(TransactionClient.class);
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import com.celeral.transaction.AsyncTransactionProcessor;
+import com.celeral.transaction.TransactionProcessor;
+import com.celeral.transaction.kryo.TransactionKryo;
+import com.celeral.transaction.processor.OrderedAsyncTransactionProcessor;
+
+/**
+ * Hosts a processor on a TCP port. A single thread multiplexes all the connections: it decodes the
+ * requests, hands them to the processor and writes the responses back as they complete, so the
+ * clients can keep many requests in flight on a connection. The responses are not necessarily in
+ * the order of the requests across the transactions, but they are within each transaction.
+ *
+ * <p>Once the responses pending on a connection exceed {@link #MAX_PENDING_OUTPUT} bytes, because
+ * the client does not read them as fast as it sends the requests, the server stops reading from the
+ * connection until they are all written.
+ */
+public class TransactionServer implements Closeable {
+  /** Bytes of the responses buffered for a connection above which its requests are not read. */
+  static final int MAX_PENDING_OUTPUT = 1 << 20;
+
+  private final AsyncTransactionProcessor processor;
+  private final Kryo kryo;
+  private final Input input = new Input();
+  private final Queue<Connection> flushes = new ConcurrentLinkedQueue<>();
+  private Selector selector;
+  private ServerSocketChannel server;
+  private Thread thread;
+  private volatile boolean running;
+
+  private static final class Response {
+    final long correlation;
+    final Object result;
+    final Throwable failure;
+
+    Response(long correlation, Object result, Throwable failure) {
+      this.correlation = correlation;
+      this.result = result;
+      this.failure = failure;
+    }
+  }
+
+  private final class Connection {
+    final SocketChannel channel;
+    final SelectionKey key;
+    final Frames.Reader reader = new Frames.Reader();
+    final Queue<Response> responses = new ConcurrentLinkedQueue<>();
+    final AtomicBoolean flushing = new AtomicBoolean();
+    final Output output = new Output(64 << 10, -1);
+    int written;
+
+    Connection(SocketChannel channel, SelectionKey key) {
+      this.channel = channel;
+      this.key = key;
+    }
+
+    void respond(long correlation, Object result, Throwable failure) {
+      responses.add(new Response(correlation, result, failure));
+      if (flushing.compareAndSet(false, true)) {
+        flushes.add(this);
+        selector.wakeup();
+      }
+    }
+  }
+
+  /**
+   * Creates the server processing the requests on the given executor. The payloads of a
+   * transaction are processed one at a time in the order they are received.
+   *
+   * @param processor processor hosted by the server
+   * @param executor executor to process the requests on; they cannot be processed on the network
+   *     thread as a request which blocks, e.g. on the disk or in an admission queue, would stall
+   *     all the connections
+   */
+  public TransactionServer(TransactionProcessor processor, Executor executor) {
+    this(
+        new OrderedAsyncTransactionProcessor(processor, checkExecutor(executor)),
+        TransactionKryo::newInstance);
+  }
+
+  private static Executor checkExecutor(Executor executor) {
+    if (executor == null) {
+      throw new IllegalArgumentException("The requests need an executor to be processed on!");
+    }
+    return executor;
+  }
+
+  /**
+   * Creates the server.
+   *
+   * @param processor processor hosted by the server; its futures are completed on the network
+   *     thread only if it never blocks
+   * @param kryos factory of the Kryo instance used by the network thread; it needs to register
+   *     the application types such as the headers the same way as the clients
+   */
+  public TransactionServer(AsyncTransactionProcessor processor, Supplier<Kryo> kryos) {
+    this.processor = processor;
+    this.kryo = kryos.get();
+  }
+
+  /**
+   * Binds the server and starts accepting the connections.
+   *
+   * @param address address to listen on; port 0 picks an ephemeral port
+   * @return the address the server is listening on
+   * @throws IOException if the server cannot bind to the address
+   */
+  public synchronized InetSocketAddress start(InetSocketAddress address) throws IOException {
+    if (running) {
+      throw new IllegalStateException("Already started!");
+    }
+
+    selector = Selector.open();
+    server = ServerSocketChannel.open();
+    server.bind(address);
+    server.configureBlocking(false);
+    server.register(selector, SelectionKey.OP_ACCEPT);
+
+    running = true;
+    thread = new Thread(this::run, "transaction-server-" + server.getLocalAddress());
+    thread.setDaemon(true);
+    thread.start();
+    return (InetSocketAddress) server.getLocalAddress();
+  }
+
+  private void run() {
+    try {
+      loop();
+    } finally {
+      /* let the clients know instead of leaving them waiting for the results */
+      for (SelectionKey key : selector.keys()) {
+        close(key);
+      }
+    }
+  }
+
+  private void loop() {
+    while (running) {
+      try {
+        selector.select();
+
+        Connection connection;
+        while ((connection = flushes.poll()) != null) {
+          connection.flushing.set(false);
+          if (connection.key.isValid()) {
+            write(connection);
+          }
+        }
+
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+          try {
+            if (!key.isValid()) {
+              continue;
+            }
+            if (key.isAcceptable()) {
+              accept();
+            } else {
+              if (key.isReadable()) {
+                read((Connection) key.attachment());
+              }
+              if (key.isValid() && key.isWritable()) {
+                write((Connection) key.attachment());
+              }
+            }
+          } catch (IOException | RuntimeException ex) {
+            logger.warn("Closing connection {} due to exception!", key.attachment(), ex);
+            close(key);
+          }
+        }
+      } catch (IOException ex) {
+        logger.error("Unexpected exception in the selector loop!", ex);
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    final SocketChannel channel = server.accept();
+    if (channel == null) {
+      return;
+    }
+
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+    key.attach(new Connection(channel, key));
+    logger.debug("Accepted connection from {}", channel.getRemoteAddress());
+  }
+
+  private void read(Connection connection) throws IOException {
+    if (connection.reader.read(connection.channel) < 0) {
+      close(connection.key);
+      return;
+    }
+
+    while (connection.reader.next(input)) {
+      final byte kind = input.readByte();
+      final long correlation = input.readVarLong(true);
+      switch (kind) {
+        case Frames.INIT:
+          processor
+              .initAsync(kryo.readClassAndObject(input))
+              .whenComplete((result, ex) -> connection.respond(correlation, result, ex));
+          break;
+
+        case Frames.PROCESS:
+          final long transactionId = input.readVarLong(true);
+          processor
+              .processAsync(transactionId, kryo.readClassAndObject(input))
+              .whenComplete((result, ex) -> connection.respond(correlation, result, ex));
+          break;
+
+        default:
+          throw new IllegalStateException("Unknown frame kind " + kind + "!");
+      }
+    }
+  }
+
+  private void write(Connection connection) throws IOException {
+    final Output output = connection.output;
+    while (true) {
+      Response response;
+      while (output.position() < MAX_PENDING_OUTPUT
+          && (response = connection.responses.poll()) != null) {
+        if (response.failure == null) {
+          final int start = Frames.begin(output, Frames.RESULT, response.correlation);
+          kryo.writeClassAndObject(output, response.result);
+          Frames.end(output, start);
+        } else {
+          final int start = Frames.begin(output, Frames.FAILURE, response.correlation);
+          final Throwable cause =
+              response.failure.getCause() == null ? response.failure : response.failure.getCause();
+          output.writeString(String.valueOf(cause));
+          Frames.end(output, start);
+        }
+      }
+
+      final ByteBuffer buffer =
+          ByteBuffer.wrap(
+              output.getBuffer(), connection.written, output.position() - connection.written);
+      connection.written += connection.channel.write(buffer);
+      if (buffer.hasRemaining()) {
+        /* the client is behind on the responses, so take no more requests until it catches up */
+        connection.key.interestOps(
+            output.position() < MAX_PENDING_OUTPUT
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                : SelectionKey.OP_WRITE);
+        return;
+      }
+
+      output.clear();
+      connection.written = 0;
+      if (connection.responses.isEmpty()) {
+        connection.key.interestOps(SelectionKey.OP_READ);
+        return;
+      }
+    }
+  }
+
+  private static void close(SelectionKey key) {
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException ex) {
+      logger.debug("Exception while closing {}!", key.channel(), ex);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (!running) {
+      return;
+    }
+
+    running = false;
+    selector.wakeup();
+    try {
+      thread.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+
+    selector.close();
+  }
+
+  private static final Logger logger = LogManager.getLogger(TransactionServer.class);
+}
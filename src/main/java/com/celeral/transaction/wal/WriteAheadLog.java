@@ -0,0 +1,456 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.wal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import com.celeral.utils.Throwables;
+
+import com.celeral.transaction.kryo.TransactionKryo;
+
+/**
+ * Durable record of the lifecycle of the transactions: the header each one was initialized with,
+ * whether it was prepared to commit in a two phase commit and whether it was committed or aborted.
+ * The log is a sequence of fixed size, memory mapped
+ * segment files. Each record is framed by its length and a CRC so that a record torn by a crash is
+ * detected and dropped on recovery, and each segment starts with the highest transaction id handed
+ * out so far so that the ids survive the segments being deleted.
+ *
+ * <p>The calls return once their record is on disk. The threads waiting for the disk share the
+ * syncs: one of them forces the segment on behalf of all the records appended so far while the
+ * rest wait for it, so under load a single sync commits many records.
+ *
+ * <p>A segment is deleted once it's the oldest one and all the transactions it initialized have
+ * ended, so a transaction which stays open keeps the log from shrinking past it.
+ */
+public class WriteAheadLog implements Closeable {
+  static final byte ID = 0;
+  static final byte INIT = 1;
+  static final byte COMMIT = 2;
+  static final byte ABORT = 3;
+  static final byte PREPARE = 4;
+
+  private static final int FRAME = 4 + 4;
+  private static final int MIN_RECORD = 1 + 8;
+  private static final String SUFFIX = ".wal";
+
+  private final Path directory;
+  private final int segmentSize;
+  private final Supplier<Kryo> kryos;
+  private final CRC32 crc = new CRC32();
+  private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+  private final Map<Long, Segment> open = new HashMap<>();
+  private final Map<Long, Object> unfinished;
+  private final Set<Long> prepared = new LinkedHashSet<>();
+  private final Object syncLock = new Object();
+  private Segment current;
+  private long highestTransactionId;
+  private long written;
+  private long durable;
+  private boolean syncing;
+
+  private static final class Segment {
+    final long sequence;
+    final Path path;
+    final MappedByteBuffer buffer;
+    int initialized;
+
+    Segment(long sequence, Path path, MappedByteBuffer buffer) {
+      this.sequence = sequence;
+      this.path = path;
+      this.buffer = buffer;
+    }
+  }
+
+  private WriteAheadLog(Path directory, int segmentSize, Supplier<Kryo> kryos) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.kryos = kryos;
+    this.unfinished = new LinkedHashMap<>();
+  }
+
+  /** Opens the log with 16 MB segments and the headers serialized with {@link TransactionKryo}. */
+  public static WriteAheadLog open(Path directory) throws IOException {
+    return open(directory, 16 << 20, TransactionKryo::get);
+  }
+
+  /**
+   * Opens the log in the directory, creating it if needed, and replays the segments found in it.
+   *
+   * @param directory directory holding the segments of the log and nothing else
+   * @param segmentSize size of each segment; bounds the size of the serialized headers
+   * @param kryos supplier of the Kryo instance the calling thread uses to serialize the headers; it
+   *     needs to be able to write the headers along with their classes
+   * @return the log ready for appending
+   * @throws IOException if the log cannot be read or written
+   */
+  public static WriteAheadLog open(Path directory, int segmentSize, Supplier<Kryo> kryos)
+      throws IOException {
+    if (segmentSize < 4096) {
+      throw new IllegalArgumentException("segmentSize = " + segmentSize);
+    }
+
+    Files.createDirectories(directory);
+    final List<Path> paths = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path path : stream) {
+        paths.add(path);
+      }
+    }
+    Collections.sort(paths);
+
+    final WriteAheadLog log = new WriteAheadLog(directory, segmentSize, kryos);
+    synchronized (log) {
+      for (Path path : paths) {
+        log.replay(path);
+      }
+
+      if (log.current == null) {
+        log.roll(0);
+      } else {
+        /* wipe whatever a crash left after the last intact record */
+        final MappedByteBuffer buffer = log.current.buffer;
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+          buffer.put(i, (byte) 0);
+        }
+        log.written = log.lsn(log.current, buffer.position());
+      }
+      log.durable = log.written;
+      log.retire();
+    }
+
+    logger.debug(
+        "Recovered {} unfinished transactions from {} segments in {}",
+        log.unfinished.size(),
+        log.segments.size(),
+        directory);
+    return log;
+  }
+
+  private MappedByteBuffer map(Path path) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+  }
+
+  private long lsn(Segment segment, int position) {
+    return segment.sequence * segmentSize + position;
+  }
+
+  private void replay(Path path) throws IOException {
+    final String name = path.getFileName().toString();
+    final long sequence;
+    try {
+      sequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    } catch (NumberFormatException ex) {
+      throw Throwables.throwFormatted(
+          ex, IOException.class, "Unexpected file {} in the log {}!", path, directory);
+    }
+
+    final Segment segment = new Segment(sequence, path, map(path));
+    segments.addLast(segment);
+    current = segment;
+
+    final MappedByteBuffer buffer = segment.buffer;
+    while (buffer.remaining() >= FRAME + MIN_RECORD) {
+      final int start = buffer.position();
+      final int length = buffer.getInt(start);
+      if (length < MIN_RECORD || length > buffer.limit() - start - FRAME) {
+        break;
+      }
+
+      final byte[] body = new byte[length];
+      buffer.position(start + FRAME);
+      buffer.get(body);
+      crc.reset();
+      crc.update(body, 0, length);
+      if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+        buffer.position(start);
+        break;
+      }
+
+      apply(segment, body);
+    }
+  }
+
+  private void apply(Segment segment, byte[] body) {
+    final ByteBuffer record = ByteBuffer.wrap(body);
+    final byte type = record.get();
+    final long transactionId = record.getLong();
+    highestTransactionId = Math.max(highestTransactionId, transactionId);
+
+    switch (type) {
+      case INIT:
+        final Input input = new Input(body, MIN_RECORD, body.length - MIN_RECORD);
+        unfinished.put(transactionId, kryos.get().readClassAndObject(input));
+        open.put(transactionId, segment);
+        segment.initialized++;
+        break;
+
+      case PREPARE:
+        if (unfinished.containsKey(transactionId)) {
+          prepared.add(transactionId);
+        }
+        break;
+
+      case COMMIT:
+      case ABORT:
+        unfinished.remove(transactionId);
+        prepared.remove(transactionId);
+        final Segment initialized = open.remove(transactionId);
+        if (initialized != null) {
+          initialized.initialized--;
+        }
+        break;
+
+      default:
+        break;
+    }
+  }
+
+  private void roll(long sequence) throws IOException {
+    if (current != null) {
+      current.buffer.force();
+      synchronized (syncLock) {
+        durable = Math.max(durable, written);
+      }
+    }
+
+    final Path path = directory.resolve(String.format("%020d", sequence) + SUFFIX);
+    current = new Segment(sequence, path, map(path));
+    segments.addLast(current);
+    written = lsn(current, 0);
+    append(ID, highestTransactionId, null, 0);
+  }
+
+  /** Deletes the oldest segments as long as they have no transactions left open. */
+  private void retire() throws IOException {
+    while (segments.size() > 1 && segments.peekFirst().initialized == 0) {
+      final Segment segment = segments.removeFirst();
+      Files.deleteIfExists(segment.path);
+      logger.debug("Retired segment {}", segment.path);
+    }
+  }
+
+  private long append(byte type, long transactionId, byte[] bytes, int length)
+      throws IOException {
+    final int size = MIN_RECORD + length;
+    if (FRAME + size > segmentSize - FRAME - MIN_RECORD) {
+      throw Throwables.throwFormatted(
+          IllegalArgumentException.class,
+          "Record of {} bytes does not fit in segments of {} bytes!",
+          size,
+          segmentSize);
+    }
+
+    MappedByteBuffer buffer = current.buffer;
+    if (buffer.remaining() < FRAME + size) {
+      roll(current.sequence + 1);
+      buffer = current.buffer;
+    }
+
+    final int start = buffer.position();
+    buffer.position(start + FRAME);
+    buffer.put(type).putLong(transactionId);
+    if (length > 0) {
+      buffer.put(bytes, 0, length);
+    }
+
+    crc.reset();
+    crc.update(type);
+    for (int i = 56; i >= 0; i -= 8) {
+      crc.update((int) (transactionId >>> i));
+    }
+    if (length > 0) {
+      crc.update(bytes, 0, length);
+    }
+    buffer.putInt(start + 4, (int) crc.getValue());
+    /* the length goes last so that a partial record looks like the end of the log */
+    buffer.putInt(start, size);
+
+    written = lsn(current, buffer.position());
+    return written;
+  }
+
+  /** Blocks until the records up to the given position are on disk. */
+  private void sync(long lsn) throws IOException {
+    synchronized (syncLock) {
+      while (durable < lsn) {
+        if (!syncing) {
+          syncing = true;
+          break;
+        }
+
+        try {
+          syncLock.wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while syncing the log!");
+        }
+      }
+
+      if (durable >= lsn) {
+        return;
+      }
+    }
+
+    long target = 0;
+    try {
+      final MappedByteBuffer buffer;
+      final long position;
+      synchronized (this) {
+        buffer = current.buffer;
+        position = written;
+      }
+      /* the segments before the current one were forced when the log rolled over */
+      buffer.force();
+      target = position;
+    } finally {
+      synchronized (syncLock) {
+        syncing = false;
+        durable = Math.max(durable, target);
+        syncLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Records the initialization of a transaction, returning once the record is on disk.
+   *
+   * @param transactionId id handed out to the transaction
+   * @param header header the transaction was initialized with
+   * @throws IOException if the record cannot be written
+   */
+  public void initialized(long transactionId, Object header) throws IOException {
+    final Output output = new Output(256, segmentSize);
+    kryos.get().writeClassAndObject(output, header);
+
+    final long lsn;
+    synchronized (this) {
+      highestTransactionId = Math.max(highestTransactionId, transactionId);
+      lsn = append(INIT, transactionId, output.getBuffer(), output.position());
+      open.put(transactionId, current);
+      current.initialized++;
+    }
+    sync(lsn);
+  }
+
+  /**
+   * Records that the transaction prepared to commit and now waits for the decision of the
+   * coordinator of the two phase commit, returning once the record is on disk.
+   *
+   * @param transactionId id of the initialized transaction
+   * @throws IOException if the record cannot be written
+   */
+  public void prepared(long transactionId) throws IOException {
+    final long lsn;
+    synchronized (this) {
+      lsn = append(PREPARE, transactionId, null, 0);
+      prepared.add(transactionId);
+    }
+    sync(lsn);
+  }
+
+  /**
+   * Records the end of a transaction, returning once the record is on disk.
+   *
+   * @param transactionId id of the transaction
+   * @param committed true if the transaction was committed, false if it was aborted
+   * @throws IOException if the record cannot be written
+   */
+  public void ended(long transactionId, boolean committed) throws IOException {
+    final long lsn;
+    synchronized (this) {
+      lsn = append(committed ? COMMIT : ABORT, transactionId, null, 0);
+      unfinished.remove(transactionId);
+      prepared.remove(transactionId);
+      final Segment segment = open.remove(transactionId);
+      if (segment != null) {
+        segment.initialized--;
+        retire();
+      }
+    }
+    sync(lsn);
+  }
+
+  /** @return highest transaction id found in the log or recorded since it was opened */
+  public synchronized long getHighestTransactionId() {
+    return highestTransactionId;
+  }
+
+  /**
+   * @return headers, keyed by the transaction ids, of the transactions found initialized but not
+   *     ended when the log was opened, in the order of their initialization; they are removed as
+   *     they end
+   */
+  public synchronized Map<Long, Object> getUnfinished() {
+    return new LinkedHashMap<>(unfinished);
+  }
+
+  /**
+   * @return ids of the transactions which were prepared and not yet ended, including the ones
+   *     found prepared when the log was opened
+   */
+  public synchronized Set<Long> getPrepared() {
+    return new LinkedHashSet<>(prepared);
+  }
+
+  public synchronized int getSegmentCount() {
+    return segments.size();
+  }
+
+  /** Forces the records to disk; the log must not be used afterwards. */
+  @Override
+  public void close() throws IOException {
+    final long lsn;
+    synchronized (this) {
+      lsn = written;
+    }
+    sync(lsn);
+    logger.debug("Closed the log {}", directory);
+  }
+
+  private static final Logger logger = LogManager.getLogger(WriteAheadLog.class);
+}
@@ -18,7 +18,30 @@ package com.celeral.transaction;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -26,11 +49,39 @@ import org.junit.Test;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import com.celeral.transaction.fileupload.BlockSizeController;
+import com.celeral.transaction.fileupload.BundlePayloadIterator;
+import com.celeral.transaction.fileupload.BundleTransactionHeader;
+import com.celeral.transaction.fileupload.BundleUploadTransaction;
+import com.celeral.transaction.fileupload.ByteRanges;
+import com.celeral.transaction.fileupload.ChecksumMismatch;
+import com.celeral.transaction.fileupload.ChecksumType;
+import com.celeral.transaction.fileupload.ChunkSignatures;
+import com.celeral.transaction.fileupload.Codec;
+import com.celeral.transaction.fileupload.ContentDefinedChunker;
+import com.celeral.transaction.fileupload.GroupCommit;
+import com.celeral.transaction.fileupload.MappedUploadPayloadIterator;
+import com.celeral.transaction.fileupload.PayloadBufferPool;
+import com.celeral.transaction.fileupload.UploadDeduplication;
 import com.celeral.transaction.fileupload.UploadPayload;
 import com.celeral.transaction.fileupload.UploadPayloadIterator;
+import com.celeral.transaction.fileupload.UploadResumption;
 import com.celeral.transaction.fileupload.UploadTransaction;
 import com.celeral.transaction.fileupload.UploadTransactionHeader;
+import com.celeral.transaction.kryo.TransactionKryo;
+import com.celeral.transaction.processor.AbstractConcurrentTransactionProcessor;
 import com.celeral.transaction.processor.AbstractSerialTransactionProcessor;
+import com.celeral.transaction.processor.AbstractTransactionProcessor;
+import com.celeral.transaction.processor.MirroredTransaction;
+import com.celeral.transaction.processor.OrderedAsyncTransactionProcessor;
+import com.celeral.transaction.transport.RemoteTransactionException;
+import com.celeral.transaction.transport.TransactionClient;
+import com.celeral.transaction.transport.TransactionServer;
+import com.celeral.transaction.wal.WriteAheadLog;
 
 import static com.celeral.utils.Throwables.throwFormatted;
 
@@ -68,6 +119,169 @@ public class TransactionTest {
       }
       return tempFile.renameTo(destination);
     }
+
+    @Override
+    public Path getDirectory(String path) {
+      return new File(root, path).getParentFile().toPath();
+    }
+  }
+
+  static class FileBundleTransaction
+      extends BundleUploadTransaction<FileBundleTransaction.FileDocument> {
+    final File root;
+    final String failing;
+
+    FileBundleTransaction(File root, String failing) {
+      this.root = root;
+      this.failing = failing;
+    }
+
+    @Override
+    public FileDocument createTemporaryDocument(String path) throws IOException {
+      return new FileDocument(File.createTempFile(new File(path).getName(), null, root));
+    }
+
+    class FileDocument implements BundleUploadTransaction.BundleDocument {
+      final File tempFile;
+      File backup;
+
+      FileDocument(File tempFile) {
+        this.tempFile = tempFile;
+      }
+
+      @Override
+      public OutputStream openOutputStream() throws IOException {
+        return new FileOutputStream(tempFile);
+      }
+
+      @Override
+      public boolean delete() {
+        return tempFile.delete();
+      }
+
+      @Override
+      public boolean renameTo(String path) {
+        if (path.equals(failing)) {
+          return false;
+        }
+
+        final File destination = new File(root, path);
+        if (!destination.getParentFile().exists()) {
+          destination.getParentFile().mkdirs();
+        }
+        if (destination.exists()) {
+          backup = new File(destination.getPath() + ".bak");
+          if (!destination.renameTo(backup)) {
+            return false;
+          }
+        }
+        return tempFile.renameTo(destination);
+      }
+
+      @Override
+      public boolean revert(String path) {
+        final File destination = new File(root, path);
+        boolean reverted = destination.renameTo(tempFile);
+        if (backup != null) {
+          reverted &= backup.renameTo(destination);
+          backup = null;
+        }
+        return reverted;
+      }
+
+      @Override
+      public void release(String path) {
+        if (backup != null) {
+          backup.delete();
+          backup = null;
+        }
+      }
+
+      @Override
+      public Path getDirectory(String path) {
+        return new File(root, path).getParentFile().toPath();
+      }
+    }
+  }
+
+  static class RandomAccessFileUploadTransaction extends FileUploadTransaction
+      implements UploadTransaction.RandomAccessDocument {
+    public RandomAccessFileUploadTransaction(File root) {
+      super(root);
+    }
+
+    @Override
+    public FileChannel openChannel() throws IOException {
+      return FileChannel.open(
+          tempFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public FileChannel openBasis(UploadTransactionHeader header) throws IOException {
+      final File destination = new File(root, header.getPath());
+      return destination.exists()
+          ? FileChannel.open(destination.toPath(), StandardOpenOption.READ)
+          : null;
+    }
+
+    @Override
+    public boolean isBasisAtDestination(UploadTransactionHeader header) {
+      return true;
+    }
+  }
+
+  static class AsynchronousFileUploadTransaction extends RandomAccessFileUploadTransaction
+      implements UploadTransaction.AsynchronousDocument {
+    public AsynchronousFileUploadTransaction(File root) {
+      super(root);
+    }
+
+    @Override
+    public AsynchronousFileChannel openAsynchronousChannel() throws IOException {
+      return AsynchronousFileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE);
+    }
+  }
+
+  static class ResumableFileUploadTransaction extends RandomAccessFileUploadTransaction
+      implements UploadTransaction.ResumableDocument {
+    File journal;
+
+    public ResumableFileUploadTransaction(File root) {
+      super(root);
+    }
+
+    @Override
+    public FileUploadTransaction findTemporaryDocument(UploadTransactionHeader header) {
+      String name =
+          new File(header.getPath()).getName()
+              + '.'
+              + header.getSize()
+              + '.'
+              + header.getModifiedTime();
+      tempFile = new File(root, name + ".part");
+      journal = new File(root, name + ".journal");
+      return tempFile.exists() ? this : null;
+    }
+
+    @Override
+    public FileUploadTransaction createTemporaryDocument(String path) throws IOException {
+      tempFile.createNewFile();
+      return this;
+    }
+
+    @Override
+    public FileChannel openJournal() throws IOException {
+      return FileChannel.open(
+          journal.toPath(),
+          StandardOpenOption.CREATE,
+          StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public boolean deleteJournal() {
+      return journal.delete();
+    }
   }
 
   static class SerialTransactionProcessor extends AbstractSerialTransactionProcessor {
@@ -78,23 +292,33 @@ public class TransactionTest {
     }
   }
 
+  static class ConcurrentTransactionProcessor extends AbstractConcurrentTransactionProcessor {
+    @Override
+    public Transaction<?, ?> newTransaction() {
+      String tmpdir = System.getProperty("java.io.tmpdir");
+      return new FileUploadTransaction(new File(tmpdir));
+    }
+  }
+
   public UploadTransactionHeader getHeader() {
+    return getHeader(UploadTransaction.class);
+  }
+
+  public UploadTransactionHeader getHeader(Class<?> clazz) {
     return new FileUploadTransactionHeader(
-        "target/classes/"
-            + UploadTransaction.class.getCanonicalName().replace('.', '/')
-            + ".class");
+        "target/classes/" + clazz.getCanonicalName().replace('.', '/') + ".class");
   }
 
   public UploadPayloadIterator getPayloadIterator(UploadTransactionHeader header) {
     return new UploadPayloadIterator(header, 1024);
   }
 
-  static class FileUploadTransactionHeader implements UploadTransactionHeader {
+  public static class FileUploadTransactionHeader implements UploadTransactionHeader {
     private final String path;
     private final long size;
     private final long mtime;
 
-    protected FileUploadTransactionHeader() {
+    public FileUploadTransactionHeader() {
       path = null;
       size = 0;
       mtime = 0;
@@ -169,6 +393,953 @@ public class TransactionTest {
     }
   }
 
+  @Test
+  public void testInterleavedTransactions() throws IOException {
+    ConcurrentTransactionProcessor processor = new ConcurrentTransactionProcessor();
+
+    final Class<?>[] classes = {
+      UploadTransaction.class, UploadPayloadIterator.class, TransactionProcessor.class
+    };
+    final long[] transactionIds = new long[classes.length];
+    final UploadPayloadIterator[] iterators = new UploadPayloadIterator[classes.length];
+    try {
+      for (int i = 0; i < classes.length; i++) {
+        final UploadTransactionHeader header = getHeader(classes[i]);
+        final TransactionProcessor.InitializationResult init = processor.init(header);
+        Assert.assertEquals(
+            "Initialization Successful!", Transaction.Result.CONTINUE, init.getResult());
+        transactionIds[i] = init.getTransactionId();
+        iterators[i] = getPayloadIterator(header);
+      }
+      Assert.assertEquals("All Open!", classes.length, processor.getOpenTransactionCount());
+
+      int committed = 0;
+      while (committed < classes.length) {
+        for (int i = 0; i < classes.length; i++) {
+          if (iterators[i].hasNext()) {
+            TransactionProcessor.ProcessResult process =
+                processor.process(transactionIds[i], iterators[i].next());
+            if (process.getResult() == Transaction.Result.COMMIT) {
+              committed++;
+            } else {
+              Assert.assertEquals(
+                  "Continued!", Transaction.Result.CONTINUE, process.getResult());
+            }
+          }
+        }
+      }
+      Assert.assertEquals("None Open!", 0, processor.getOpenTransactionCount());
+    } finally {
+      for (UploadPayloadIterator iterator : iterators) {
+        if (iterator != null) {
+          iterator.close();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testAsyncTransactions() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      OrderedAsyncTransactionProcessor processor =
+          new OrderedAsyncTransactionProcessor(new ConcurrentTransactionProcessor(), executor);
+
+      final Class<?>[] classes = {
+        UploadTransaction.class, UploadPayloadIterator.class, TransactionProcessor.class
+      };
+      final List<CompletableFuture<TransactionProcessor.ProcessResult>> lastResults =
+          new ArrayList<>();
+      for (Class<?> clazz : classes) {
+        final UploadTransactionHeader header = getHeader(clazz);
+        final TransactionProcessor.InitializationResult init = processor.initAsync(header).get();
+        Assert.assertEquals(
+            "Initialization Successful!", Transaction.Result.CONTINUE, init.getResult());
+
+        try (UploadPayloadIterator iterator = getPayloadIterator(header)) {
+          CompletableFuture<TransactionProcessor.ProcessResult> process = null;
+          while (iterator.hasNext()) {
+            process = processor.processAsync(init.getTransactionId(), iterator.next());
+          }
+          lastResults.add(process);
+        }
+      }
+
+      for (CompletableFuture<TransactionProcessor.ProcessResult> process : lastResults) {
+        Assert.assertEquals(
+            "Process Committed!", Transaction.Result.COMMIT, process.get().getResult());
+      }
+      Assert.assertEquals("No Lanes Left!", 0, processor.getActiveTransactionCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testAsynchronousDocumentTransactions() throws Exception {
+    final File root = new File(System.getProperty("java.io.tmpdir"));
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final OrderedAsyncTransactionProcessor processor =
+          new OrderedAsyncTransactionProcessor(
+              new AbstractConcurrentTransactionProcessor() {
+                @Override
+                public Transaction<?, ?> newTransaction() {
+                  return new AsynchronousFileUploadTransaction(root);
+                }
+              },
+              executor);
+
+      final Class<?>[] classes = {
+        UploadTransaction.class, UploadPayloadIterator.class, AbstractTransactionProcessor.class
+      };
+      final List<List<CompletableFuture<TransactionProcessor.ProcessResult>>> results =
+          new ArrayList<>();
+      for (Class<?> clazz : classes) {
+        final UploadTransactionHeader header = getHeader(clazz);
+        final TransactionProcessor.InitializationResult init = processor.initAsync(header).get();
+        Assert.assertEquals(
+            "Initialization Successful!", Transaction.Result.CONTINUE, init.getResult());
+
+        final List<UploadPayload> payloads = new ArrayList<>();
+        try (UploadPayloadIterator iterator = new UploadPayloadIterator(header, 256)) {
+          while (iterator.hasNext()) {
+            payloads.add(iterator.next());
+          }
+        }
+        Collections.shuffle(payloads, new Random(11));
+
+        final List<CompletableFuture<TransactionProcessor.ProcessResult>> processes =
+            new ArrayList<>();
+        for (UploadPayload payload : payloads) {
+          processes.add(processor.processAsync(init.getTransactionId(), payload));
+        }
+        results.add(processes);
+      }
+
+      for (int i = 0; i < classes.length; i++) {
+        /* the writes complete in any order, but only the one completing the file commits */
+        int committed = 0;
+        for (CompletableFuture<TransactionProcessor.ProcessResult> process : results.get(i)) {
+          if (process.get().getResult() == Transaction.Result.COMMIT) {
+            committed++;
+          }
+        }
+        Assert.assertEquals("Committed Once!", 1, committed);
+
+        final UploadTransactionHeader header = getHeader(classes[i]);
+        Assert.assertArrayEquals(
+            "Identical Content!",
+            Files.readAllBytes(new File(header.getPath()).toPath()),
+            Files.readAllBytes(new File(root, header.getPath()).toPath()));
+      }
+      Assert.assertEquals("No Lanes Left!", 0, processor.getActiveTransactionCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testOutOfOrderTransaction() throws IOException {
+    final File root = new File(System.getProperty("java.io.tmpdir"));
+    SerialTransactionProcessor processor =
+        new SerialTransactionProcessor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return new RandomAccessFileUploadTransaction(root);
+          }
+        };
+
+    final UploadTransactionHeader header = getHeader();
+    final TransactionProcessor.InitializationResult init = processor.init(header);
+    Assert.assertEquals(
+        "Initialization Successful!", Transaction.Result.CONTINUE, init.getResult());
+
+    final List<UploadPayload> payloads = new ArrayList<>();
+    try (UploadPayloadIterator iterator = new UploadPayloadIterator(header, 256)) {
+      while (iterator.hasNext()) {
+        payloads.add(iterator.next());
+      }
+    }
+    Collections.shuffle(payloads, new Random(7));
+    final UploadPayload last = payloads.remove(payloads.size() - 1);
+
+    for (int i = 0; i < payloads.size(); i++) {
+      TransactionProcessor.ProcessResult process =
+          processor.process(init.getTransactionId(), payloads.get(i));
+      Assert.assertEquals("Continued!", Transaction.Result.CONTINUE, process.getResult());
+      if (i % 3 == 0) {
+        process = processor.process(init.getTransactionId(), payloads.get(i / 2));
+        Assert.assertEquals("Duplicate Ignored!", Transaction.Result.CONTINUE, process.getResult());
+      }
+    }
+
+    TransactionProcessor.ProcessResult process = processor.process(init.getTransactionId(), last);
+    Assert.assertEquals("Process Committed!", Transaction.Result.COMMIT, process.getResult());
+    Assert.assertArrayEquals(
+        "Identical Content!",
+        Files.readAllBytes(new File(header.getPath()).toPath()),
+        Files.readAllBytes(new File(root, header.getPath()).toPath()));
+  }
+
+  private static Object uploadBundle(
+      ConcurrentTransactionProcessor processor, BundleTransactionHeader bundle) {
+    final TransactionProcessor.InitializationResult init = processor.init(bundle);
+    Assert.assertEquals("Initialized!", Transaction.Result.CONTINUE, init.getResult());
+    int payloads = 0;
+    try (BundlePayloadIterator iterator = new BundlePayloadIterator(bundle, 8192)) {
+      TransactionProcessor.ProcessResult process = null;
+      while (iterator.hasNext()) {
+        payloads++;
+        process = processor.process(init.getTransactionId(), iterator.next());
+      }
+      Assert.assertEquals("Process Committed!", Transaction.Result.COMMIT, process.getResult());
+    } catch (Exception ex) {
+      return ex;
+    }
+    Assert.assertEquals("None Open!", 0, processor.getOpenTransactionCount());
+    return payloads;
+  }
+
+  private static long countFiles(File root) throws IOException {
+    try (Stream<Path> paths = Files.walk(root.toPath())) {
+      return paths.filter(Files::isRegularFile).count();
+    }
+  }
+
+  /** Deletes the directory along with everything in it. */
+  private static void delete(File root) throws IOException {
+    try (Stream<Path> paths = Files.walk(root.toPath())) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  @Test
+  public void testBundledTransaction() throws Exception {
+    final File root = Files.createTempDirectory("bundle").toFile();
+    final List<UploadTransactionHeader> files = new ArrayList<>();
+    for (Class<?> clazz :
+        new Class<?>[] {
+          UploadPayload.class,
+          GroupCommit.class,
+          Codec.class,
+          ChecksumType.class,
+          ChecksumMismatch.class,
+          ByteRanges.class,
+          UploadResumption.class,
+          UploadDeduplication.class,
+          BundleTransactionHeader.class,
+          BundlePayloadIterator.class
+        }) {
+      files.add(getHeader(clazz));
+    }
+    final BundleTransactionHeader bundle = () -> files;
+    final String last = files.get(files.size() - 1).getPath();
+    final String[] failing = {last};
+    final ConcurrentTransactionProcessor processor =
+        new ConcurrentTransactionProcessor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            final FileBundleTransaction transaction = new FileBundleTransaction(root, failing[0]);
+            transaction.setGroupCommit(new GroupCommit(0));
+            return transaction;
+          }
+        };
+
+    /* the last rename fails, so none of the files show up */
+    Assert.assertTrue("Commit Failed!", uploadBundle(processor, bundle) instanceof Exception);
+    Assert.assertEquals("Nothing Visible!", 0, countFiles(root));
+
+    failing[0] = null;
+    final Object payloads = uploadBundle(processor, bundle);
+    Assert.assertTrue("Files Packed!", (Integer) payloads < files.size());
+    for (UploadTransactionHeader file : files) {
+      Assert.assertArrayEquals(
+          "Identical Content!",
+          Files.readAllBytes(new File(file.getPath()).toPath()),
+          Files.readAllBytes(new File(root, file.getPath()).toPath()));
+    }
+
+    /* the files replaced before the failure are put back */
+    final File first = new File(root, files.get(0).getPath());
+    Files.write(first.toPath(), new byte[] {42});
+    failing[0] = last;
+    Assert.assertTrue("Commit Failed!", uploadBundle(processor, bundle) instanceof Exception);
+    Assert.assertArrayEquals("Restored!", new byte[] {42}, Files.readAllBytes(first.toPath()));
+    Assert.assertEquals("Nothing Left Behind!", files.size(), countFiles(root));
+  }
+
+  @Test
+  public void testDurableTransactions() throws Exception {
+    final File root = new File(System.getProperty("java.io.tmpdir"));
+    final List<Path> forced = Collections.synchronizedList(new ArrayList<>());
+    /* the uploads land in the same directory */
+    final Class<?>[] classes = {
+      UploadPayload.class, GroupCommit.class, Codec.class, ChecksumType.class
+    };
+    final CountDownLatch committers = new CountDownLatch(classes.length);
+    final GroupCommit groupCommit =
+        new GroupCommit(1_000_000) {
+          @Override
+          public void sync(Path directory) throws IOException {
+            committers.countDown();
+            super.sync(directory);
+          }
+
+          @Override
+          protected void force(Path directory) throws IOException {
+            /* the first batch is forced only once all the commits are waiting for a force */
+            try {
+              Assert.assertTrue("All Committing!", committers.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException ex) {
+              throw new InterruptedIOException();
+            }
+            super.force(directory);
+            forced.add(directory);
+          }
+        };
+    final ConcurrentTransactionProcessor processor =
+        new ConcurrentTransactionProcessor() {
+          private int count;
+
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            final FileUploadTransaction transaction =
+                count++ % 2 == 0
+                    ? new FileUploadTransaction(root)
+                    : new RandomAccessFileUploadTransaction(root);
+            transaction.setGroupCommit(groupCommit);
+            return transaction;
+          }
+        };
+
+    final ExecutorService executor = Executors.newFixedThreadPool(classes.length);
+    try {
+      final List<CompletableFuture<Transaction.Result>> results = new ArrayList<>();
+      for (Class<?> clazz : classes) {
+        final UploadTransactionHeader header = getHeader(clazz);
+        final long transactionId = processor.init(header).getTransactionId();
+        results.add(
+            CompletableFuture.supplyAsync(
+                () -> {
+                  try (UploadPayloadIterator iterator = getPayloadIterator(header)) {
+                    TransactionProcessor.ProcessResult process = null;
+                    while (iterator.hasNext()) {
+                      process = processor.process(transactionId, iterator.next());
+                    }
+                    return process.getResult();
+                  } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                  }
+                },
+                executor));
+      }
+
+      for (int i = 0; i < classes.length; i++) {
+        Assert.assertEquals("Committed!", Transaction.Result.COMMIT, results.get(i).get());
+        final String path = getHeader(classes[i]).getPath();
+        Assert.assertArrayEquals(
+            "Identical Content!",
+            Files.readAllBytes(new File(path).toPath()),
+            Files.readAllBytes(new File(root, path).toPath()));
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    /* the ones which did not make it into the first batch pile up into the second */
+    Assert.assertTrue("Directory Forced!", forced.size() > 0);
+    Assert.assertTrue("Forces Coalesced!", forced.size() <= 2);
+    Assert.assertEquals(
+        "Same Directory!", Collections.singleton(forced.get(0)), new HashSet<>(forced));
+  }
+
+  @Test
+  public void testRecoveredTransactions() throws IOException {
+    final File root = Files.createTempDirectory("recovered").toFile();
+    final Path directory = Files.createTempDirectory("wal");
+    final UploadTransactionHeader header = getHeader(AbstractTransactionProcessor.class);
+    final UploadTransactionHeader orphaned = getHeader(Transaction.class);
+
+    class DurableTransactionProcessor extends ConcurrentTransactionProcessor {
+      @Override
+      public Transaction<?, ?> newTransaction() {
+        return new ResumableFileUploadTransaction(root);
+      }
+    }
+
+    try {
+      /* the process dies with both uploads half done */
+      final DurableTransactionProcessor crashed = new DurableTransactionProcessor();
+      Assert.assertEquals("Empty Log!", 0, crashed.recover(WriteAheadLog.open(directory), true));
+      final long[] transactionIds = new long[2];
+      final UploadTransactionHeader[] headers = {header, orphaned};
+      for (int i = 0; i < headers.length; i++) {
+        transactionIds[i] = crashed.init(headers[i]).getTransactionId();
+        try (UploadPayloadIterator iterator = new UploadPayloadIterator(headers[i], 512)) {
+          crashed.process(transactionIds[i], iterator.next());
+        }
+      }
+
+      /* the first restart reattaches the unfinished uploads and continues the ids */
+      final DurableTransactionProcessor reattaching = new DurableTransactionProcessor();
+      Assert.assertEquals(
+          "Reattached!", 2, reattaching.recover(WriteAheadLog.open(directory), true));
+      Assert.assertEquals("Open!", 2, reattaching.getOpenTransactionCount());
+      Assert.assertTrue(
+          "Ids Continue!",
+          reattaching.init(getHeader()).getTransactionId() > transactionIds[1]);
+
+      try (UploadPayloadIterator iterator = new UploadPayloadIterator(header, 512)) {
+        TransactionProcessor.ProcessResult process = null;
+        while (iterator.hasNext()) {
+          process = reattaching.process(transactionIds[0], iterator.next());
+        }
+        Assert.assertEquals("Process Committed!", Transaction.Result.COMMIT, process.getResult());
+      }
+      Assert.assertArrayEquals(
+          "Identical Content!",
+          Files.readAllBytes(new File(header.getPath()).toPath()),
+          Files.readAllBytes(new File(root, header.getPath()).toPath()));
+
+      /* the second restart rolls back the rest, deleting what they left behind */
+      final WriteAheadLog log = WriteAheadLog.open(directory);
+      Assert.assertEquals("Committed Upload Finished!", 2, log.getUnfinished().size());
+      Assert.assertEquals("Rolled Back!", 0, new DurableTransactionProcessor().recover(log, false));
+      Assert.assertEquals("All Finished!", 0, log.getUnfinished().size());
+
+      final ResumableFileUploadTransaction leftover = new ResumableFileUploadTransaction(root);
+      Assert.assertNull("Orphan Deleted!", leftover.findTemporaryDocument(orphaned));
+      Assert.assertFalse("Journal Deleted!", leftover.journal.exists());
+      log.close();
+    } finally {
+      delete(root);
+      delete(directory.toFile());
+    }
+  }
+
+  @Test
+  public void testResumedTransaction() throws IOException {
+    final File root = new File(System.getProperty("java.io.tmpdir"));
+    final UploadTransactionHeader header = getHeader(UploadPayloadIterator.class);
+    final ResumableFileUploadTransaction stale = new ResumableFileUploadTransaction(root);
+    stale.findTemporaryDocument(header);
+    stale.delete();
+    stale.deleteJournal();
+
+    /* the first attempt delivers every other chunk before the process goes away */
+    SerialTransactionProcessor interrupted =
+        new SerialTransactionProcessor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return new ResumableFileUploadTransaction(root);
+          }
+        };
+    TransactionProcessor.InitializationResult init = interrupted.init(header);
+    Assert.assertEquals(
+        "Initialization Successful!", Transaction.Result.CONTINUE, init.getResult());
+    Assert.assertNull("Fresh Upload!", init.getDetails());
+
+    long delivered = 0;
+    try (UploadPayloadIterator iterator = getPayloadIterator(header)) {
+      for (int i = 0; iterator.hasNext(); i++) {
+        UploadPayload payload = iterator.next();
+        if (i % 2 == 0) {
+          TransactionProcessor.ProcessResult process =
+              interrupted.process(init.getTransactionId(), payload);
+          Assert.assertEquals("Continued!", Transaction.Result.CONTINUE, process.getResult());
+          delivered += Math.min(1024, header.getSize() - i * 1024L);
+        }
+      }
+    }
+
+    /* the second attempt is told what's missing and sends only that */
+    SerialTransactionProcessor processor =
+        new SerialTransactionProcessor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return new ResumableFileUploadTransaction(root);
+          }
+        };
+    init = processor.init(header);
+    Assert.assertEquals("Resumed!", Transaction.Result.CONTINUE, init.getResult());
+    Assert.assertTrue("Resumption Details!", init.getDetails() instanceof UploadResumption);
+    final UploadResumption resumption = (UploadResumption) init.getDetails();
+    Assert.assertEquals(
+        "Missing Bytes!",
+        header.getSize() - delivered,
+        resumption.getMissingRanges().getCoveredBytes());
+
+    try (UploadPayloadIterator iterator =
+        new UploadPayloadIterator(header, 1024, resumption.getMissingRanges())) {
+      TransactionProcessor.ProcessResult process = null;
+      while (iterator.hasNext()) {
+        process = processor.process(init.getTransactionId(), iterator.next());
+      }
+      Assert.assertNotNull("Process invoked!", process);
+      Assert.assertEquals("Process Committed!", Transaction.Result.COMMIT, process.getResult());
+    }
+
+    Assert.assertArrayEquals(
+        "Identical Content!",
+        Files.readAllBytes(new File(header.getPath()).toPath()),
+        Files.readAllBytes(new File(root, header.getPath()).toPath()));
+    Assert.assertFalse("Journal Deleted!", stale.journal.exists());
+  }
+
+  @Test
+  public void testMappedTransaction() throws IOException {
+    final File root = new File(System.getProperty("java.io.tmpdir"));
+    for (final boolean randomAccess : new boolean[] {false, true}) {
+      SerialTransactionProcessor processor =
+          new SerialTransactionProcessor() {
+            @Override
+            public Transaction<?, ?> newTransaction() {
+              return randomAccess
+                  ? new RandomAccessFileUploadTransaction(root)
+                  : new FileUploadTransaction(root);
+            }
+          };
+
+      final UploadTransactionHeader header = getHeader();
+      final TransactionProcessor.InitializationResult init = processor.init(header);
+      Assert.assertEquals(
+          "Initialization Successful!", Transaction.Result.CONTINUE, init.getResult());
+
+      /* a tiny window forces the iterator to remap the file a number of times */
+      try (MappedUploadPayloadIterator iterator =
+          new MappedUploadPayloadIterator(header, 512, null, 2048)) {
+        TransactionProcessor.ProcessResult process = null;
+        while (iterator.hasNext()) {
+          process = processor.process(init.getTransactionId(), iterator.next());
+        }
+        Assert.assertNotNull("Process invoked!", process);
+        Assert.assertEquals("Process Committed!", Transaction.Result.COMMIT, process.getResult());
+      }
+
+      Assert.assertArrayEquals(
+          "Identical Content!",
+          Files.readAllBytes(new File(header.getPath()).toPath()),
+          Files.readAllBytes(new File(root, header.getPath()).toPath()));
+    }
+  }
+
+  private static UploadTransactionHeader getDeduplicatingHeader(String path) throws Exception {
+    final ChunkSignatures signatures = new ContentDefinedChunker(512, 2048, 8192).chunk(path);
+    final byte[] digest =
+        MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(new File(path).toPath()));
+    return new FileUploadTransactionHeader(path) {
+      @Override
+      public ChunkSignatures getChunkSignatures() {
+        return signatures;
+      }
+
+      @Override
+      public String getDigestAlgorithm() {
+        return "SHA-256";
+      }
+
+      @Override
+      public byte[] getDigest() {
+        return digest;
+      }
+    };
+  }
+
+  @Test
+  public void testDeduplicatedTransaction() throws Exception {
+    final File root = Files.createTempDirectory("deduplicated").toFile();
+    final ConcurrentTransactionProcessor processor =
+        new ConcurrentTransactionProcessor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return new RandomAccessFileUploadTransaction(root);
+          }
+        };
+
+    final String path = new File(root, "deduplicated.bin").getPath();
+    final byte[] original = new byte[256 << 10];
+    new Random(3).nextBytes(original);
+    Files.write(new File(path).toPath(), original);
+
+    try {
+      /* nothing to deduplicate against the first time */
+      UploadTransactionHeader header = getDeduplicatingHeader(path);
+      TransactionProcessor.InitializationResult init = processor.init(header);
+      Assert.assertNull("Nothing Deduplicated!", init.getDetails());
+      try (UploadPayloadIterator iterator = new UploadPayloadIterator(header, 4096)) {
+        TransactionProcessor.ProcessResult process = null;
+        while (iterator.hasNext()) {
+          process = processor.process(init.getTransactionId(), iterator.next());
+        }
+        Assert.assertEquals("Process Committed!", Transaction.Result.COMMIT, process.getResult());
+      }
+
+      init = processor.init(header);
+      Assert.assertEquals("Already Present!", Transaction.Result.SKIP, init.getResult());
+
+      /* a basis which is not known to be the destination is copied over instead of trusted */
+      final ConcurrentTransactionProcessor copying =
+          new ConcurrentTransactionProcessor() {
+            @Override
+            public Transaction<?, ?> newTransaction() {
+              return new RandomAccessFileUploadTransaction(root) {
+                @Override
+                public boolean isBasisAtDestination(UploadTransactionHeader header) {
+                  return false;
+                }
+              };
+            }
+          };
+      init = copying.init(header);
+      Assert.assertEquals("Copied And Committed!", Transaction.Result.COMMIT, init.getResult());
+      Assert.assertEquals(
+          "All Deduplicated!",
+          original.length,
+          ((UploadDeduplication) init.getDetails()).getDeduplicatedBytes());
+
+      /* an insertion shifts the rest of the file, an overwrite changes a chunk in place */
+      final byte[] modified = new byte[original.length + 100];
+      System.arraycopy(original, 0, modified, 0, 100 << 10);
+      System.arraycopy(
+          original, 100 << 10, modified, (100 << 10) + 100, original.length - (100 << 10));
+      Arrays.fill(modified, 200 << 10, (200 << 10) + 10, (byte) 7);
+      Files.write(new File(path).toPath(), modified);
+
+      header = getDeduplicatingHeader(path);
+      init = processor.init(header);
+      Assert.assertEquals("Initialized!", Transaction.Result.CONTINUE, init.getResult());
+      final UploadDeduplication deduplication = (UploadDeduplication) init.getDetails();
+      final ByteRanges missing = deduplication.getMissingRanges();
+      Assert.assertTrue("Mostly Deduplicated!", missing.getCoveredBytes() < 64 << 10);
+      Assert.assertEquals(
+          "Accounted!",
+          modified.length,
+          missing.getCoveredBytes() + deduplication.getDeduplicatedBytes());
+
+      try (UploadPayloadIterator iterator = new UploadPayloadIterator(header, 4096, missing)) {
+        TransactionProcessor.ProcessResult process = null;
+        while (iterator.hasNext()) {
+          process = processor.process(init.getTransactionId(), iterator.next());
+        }
+        Assert.assertEquals("Process Committed!", Transaction.Result.COMMIT, process.getResult());
+      }
+      Assert.assertArrayEquals(
+          "Identical Content!", modified, Files.readAllBytes(new File(root, path).toPath()));
+    } finally {
+      delete(root);
+    }
+  }
+
+  @Test
+  public void testMirroredTransaction() throws IOException {
+    final File[] roots = {
+      Files.createTempDirectory("primary").toFile(), Files.createTempDirectory("mirror").toFile()
+    };
+    final PayloadBufferPool pool = new PayloadBufferPool(false, 1 << 16, 8, 4, 1);
+    final ExecutorService executor = Executors.newFixedThreadPool(roots.length);
+    final ConcurrentTransactionProcessor processor =
+        new ConcurrentTransactionProcessor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return new MirroredTransaction<>(
+                Arrays.asList(
+                    new FileUploadTransaction(roots[0]),
+                    new RandomAccessFileUploadTransaction(roots[1])),
+                1,
+                executor);
+          }
+        };
+
+    try {
+      final UploadTransactionHeader header = getHeader();
+      final TransactionProcessor.InitializationResult init = processor.init(header);
+      try (UploadPayloadIterator iterator = new UploadPayloadIterator(header, 1000, null, pool)) {
+        TransactionProcessor.ProcessResult process = null;
+        while (iterator.hasNext()) {
+          process = processor.process(init.getTransactionId(), iterator.next());
+        }
+        Assert.assertEquals("Process Committed!", Transaction.Result.COMMIT, process.getResult());
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    Assert.assertEquals("All Released!", 0, pool.getOutstandingCount());
+    for (File root : roots) {
+      Assert.assertArrayEquals(
+          "Identical Content!",
+          Files.readAllBytes(new File(getHeader().getPath()).toPath()),
+          Files.readAllBytes(new File(root, getHeader().getPath()).toPath()));
+    }
+  }
+
+  @Test
+  public void testPooledTransaction() throws IOException {
+    final PayloadBufferPool pool = new PayloadBufferPool(true, 1 << 16, 8, 4, 1);
+    final File root = Files.createTempDirectory("pooled").toFile();
+    final ConcurrentTransactionProcessor processor =
+        new ConcurrentTransactionProcessor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return new FileUploadTransaction(root);
+          }
+        };
+
+    try {
+      /* a whole number of payloads, so that they all come from the same size class */
+      final File fixture = new File(root, "pooled.bin");
+      final byte[] content = new byte[8 * 1000];
+      new Random(3).nextBytes(content);
+      Files.write(fixture.toPath(), content);
+
+      for (int round = 0; round < 3; round++) {
+        final UploadTransactionHeader header = new FileUploadTransactionHeader(fixture.getPath());
+        final TransactionProcessor.InitializationResult init = processor.init(header);
+        try (UploadPayloadIterator iterator =
+            new UploadPayloadIterator(header, 1000, null, pool)) {
+          TransactionProcessor.ProcessResult process = null;
+          while (iterator.hasNext()) {
+            process = processor.process(init.getTransactionId(), iterator.next());
+          }
+          Assert.assertNotNull("Process invoked!", process);
+          Assert.assertEquals(
+              "Process Committed!", Transaction.Result.COMMIT, process.getResult());
+        }
+
+        /* a straggler arriving after the commit is released all the same */
+        try (UploadPayloadIterator iterator =
+            new UploadPayloadIterator(header, 1000, null, pool)) {
+          processor.process(init.getTransactionId(), iterator.next());
+          Assert.fail("Straggler Processed!");
+        } catch (IllegalStateException ex) {
+          Assert.assertEquals("Straggler Released!", 0, pool.getOutstandingCount());
+        }
+      }
+    } finally {
+      delete(root);
+    }
+
+    Assert.assertEquals("All Released!", 0, pool.getOutstandingCount());
+    Assert.assertEquals("Single Buffer Reused!", 1, pool.getAllocatedCount());
+    Assert.assertEquals("No Leaks!", 0, pool.getLeakCount());
+  }
+
+  @Test
+  public void testCompressedTransaction() throws IOException {
+    final PayloadBufferPool pool = new PayloadBufferPool(false, 1 << 16, 8, 4, 1);
+    final ConcurrentTransactionProcessor processor = new ConcurrentTransactionProcessor();
+    final Kryo kryo = TransactionKryo.get();
+
+    final UploadTransactionHeader header = getHeader();
+    final TransactionProcessor.InitializationResult init = processor.init(header);
+    int compressed = 0;
+    try (UploadPayloadIterator iterator = new UploadPayloadIterator(header, 4096, null, pool)) {
+      iterator.setCodec(Codec.DEFLATE_FAST);
+      TransactionProcessor.ProcessResult process = null;
+      while (iterator.hasNext()) {
+        final UploadPayload payload = iterator.next();
+        if (payload.getCodec() != Codec.NONE) {
+          compressed++;
+        }
+
+        /* over the wire the payloads stay compressed */
+        final Output output = new Output(8192, -1);
+        kryo.writeClassAndObject(output, payload);
+        payload.release();
+        process =
+            processor.process(
+                init.getTransactionId(), kryo.readClassAndObject(new Input(output.toBytes())));
+      }
+      Assert.assertNotNull("Process invoked!", process);
+      Assert.assertEquals("Process Committed!", Transaction.Result.COMMIT, process.getResult());
+    }
+
+    Assert.assertTrue("Class Files Compress!", compressed > 0);
+    Assert.assertEquals("All Released!", 0, pool.getOutstandingCount());
+    final String tmpdir = System.getProperty("java.io.tmpdir");
+    Assert.assertArrayEquals(
+        "Identical Content!",
+        Files.readAllBytes(new File(header.getPath()).toPath()),
+        Files.readAllBytes(new File(tmpdir, header.getPath()).toPath()));
+  }
+
+  @Test
+  public void testChecksumAndDigestVerification() throws Exception {
+    final File root = new File(System.getProperty("java.io.tmpdir"));
+    final SerialTransactionProcessor processor =
+        new SerialTransactionProcessor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return new RandomAccessFileUploadTransaction(root);
+          }
+        };
+    final FileUploadTransactionHeader file =
+        (FileUploadTransactionHeader) getHeader(UploadPayloadIterator.class);
+    final byte[] digest =
+        MessageDigest.getInstance("SHA-256")
+            .digest(Files.readAllBytes(new File(file.getPath()).toPath()));
+
+    for (final boolean corruptDigest : new boolean[] {false, true}) {
+      final UploadTransactionHeader header =
+          new FileUploadTransactionHeader(file.getPath()) {
+            @Override
+            public String getDigestAlgorithm() {
+              return "SHA-256";
+            }
+
+            @Override
+            public byte[] getDigest() {
+              byte[] copy = digest.clone();
+              copy[0] ^= corruptDigest ? 1 : 0;
+              return copy;
+            }
+          };
+
+      final TransactionProcessor.InitializationResult init = processor.init(header);
+      try (UploadPayloadIterator iterator = getPayloadIterator(header)) {
+        iterator.setChecksumType(ChecksumType.XXHASH64);
+        TransactionProcessor.ProcessResult process = null;
+        while (iterator.hasNext()) {
+          final UploadPayload payload = iterator.next();
+          final byte original = payload.getBuffer().get(0);
+          payload.getBuffer().put(0, (byte) ~original);
+          process = processor.process(init.getTransactionId(), payload);
+          Assert.assertEquals("Retransmit!", Transaction.Result.CONTINUE, process.getResult());
+          Assert.assertTrue("Mismatch!", process.getDetails() instanceof ChecksumMismatch);
+
+          payload.getBuffer().put(0, original);
+          try {
+            process = processor.process(init.getTransactionId(), payload);
+            Assert.assertTrue("Digest Verified!", !corruptDigest || iterator.hasNext());
+          } catch (IllegalStateException ex) {
+            Assert.assertTrue("Digest Mismatch!", corruptDigest && !iterator.hasNext());
+            process = null;
+          }
+        }
+
+        if (corruptDigest) {
+          Assert.assertNull("Commit Failed!", process);
+        } else {
+          Assert.assertNotNull("Process invoked!", process);
+          Assert.assertEquals("Committed!", Transaction.Result.COMMIT, process.getResult());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBatchedTransaction() throws IOException {
+    final File root = new File(System.getProperty("java.io.tmpdir"));
+    for (final boolean randomAccess : new boolean[] {false, true}) {
+      SerialTransactionProcessor processor =
+          new SerialTransactionProcessor() {
+            @Override
+            public Transaction<?, ?> newTransaction() {
+              return randomAccess
+                  ? new RandomAccessFileUploadTransaction(root)
+                  : new FileUploadTransaction(root);
+            }
+          };
+
+      final UploadTransactionHeader header = getHeader();
+      final TransactionProcessor.InitializationResult init = processor.init(header);
+      Assert.assertEquals(
+          "Initialization Successful!", Transaction.Result.CONTINUE, init.getResult());
+
+      final List<List<UploadPayload>> batches = new ArrayList<>();
+      try (UploadPayloadIterator iterator = new UploadPayloadIterator(header, 256)) {
+        while (iterator.hasNext()) {
+          final List<UploadPayload> batch = new ArrayList<>();
+          while (iterator.hasNext() && batch.size() < 8) {
+            batch.add(iterator.next());
+          }
+          batches.add(batch);
+        }
+      }
+
+      if (randomAccess) {
+        /* out of order with a duplicate batch and a batch with a gap */
+        Collections.reverse(batches);
+        batches.add(1, batches.get(0));
+        Collections.swap(batches.get(2), 0, batches.get(2).size() - 1);
+      }
+
+      TransactionProcessor.ProcessResult process = null;
+      for (List<UploadPayload> batch : batches) {
+        process = processor.processBatch(init.getTransactionId(), batch);
+      }
+      Assert.assertNotNull("Process invoked!", process);
+      Assert.assertEquals("Process Committed!", Transaction.Result.COMMIT, process.getResult());
+
+      Assert.assertArrayEquals(
+          "Identical Content!",
+          Files.readAllBytes(new File(header.getPath()).toPath()),
+          Files.readAllBytes(new File(root, header.getPath()).toPath()));
+    }
+  }
+
+  @Test
+  public void testPipelinedTransaction() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    final TransactionServer server =
+        new TransactionServer(new ConcurrentTransactionProcessor(), executor);
+    try {
+      final InetSocketAddress address =
+          server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+      /* a window smaller than the number of payloads makes the client wait for the acks */
+      try (TransactionClient client = new TransactionClient(address, 4)) {
+        final UploadTransactionHeader header = getHeader();
+        final TransactionProcessor.InitializationResult init = client.initAsync(header).get();
+        Assert.assertEquals(
+            "Initialization Successful!", Transaction.Result.CONTINUE, init.getResult());
+
+        try (UploadPayloadIterator iterator = getPayloadIterator(header)) {
+          final TransactionProcessor.ProcessResult process =
+              client.stream(init.getTransactionId(), iterator).get();
+          Assert.assertEquals(
+              "Process Committed!", Transaction.Result.COMMIT, process.getResult());
+        }
+        Assert.assertEquals("All Acknowledged!", 0, client.getInFlightCount());
+
+        final String tmpdir = System.getProperty("java.io.tmpdir");
+        Assert.assertArrayEquals(
+            "Identical Content!",
+            Files.readAllBytes(new File(header.getPath()).toPath()),
+            Files.readAllBytes(new File(tmpdir, header.getPath()).toPath()));
+
+        /* variable sized payloads, adapted to the acks, still commit exactly once */
+        final BlockSizeController controller = new BlockSizeController(512, 4096);
+        final TransactionProcessor.InitializationResult adaptive =
+            client.initAsync(header).get();
+        try (UploadPayloadIterator iterator = getPayloadIterator(header)) {
+          iterator.setBlockSizeController(controller);
+          final TransactionProcessor.ProcessResult process =
+              client.stream(adaptive.getTransactionId(), iterator, controller).get();
+          Assert.assertEquals(
+              "Adaptive Process Committed!", Transaction.Result.COMMIT, process.getResult());
+        }
+        Assert.assertEquals("All Bytes Acknowledged!", 0, controller.getOutstandingBytes());
+        Assert.assertArrayEquals(
+            "Identical Adaptive Content!",
+            Files.readAllBytes(new File(header.getPath()).toPath()),
+            Files.readAllBytes(new File(tmpdir, header.getPath()).toPath()));
+
+        try {
+          client.processAsync(-1, new UploadPayload(0, new byte[1])).get();
+          Assert.fail("Unknown transaction processed!");
+        } catch (ExecutionException ex) {
+          Assert.assertTrue(
+              "Remote Failure!", ex.getCause() instanceof RemoteTransactionException);
+        }
+      }
+    } finally {
+      server.close();
+      executor.shutdown();
+    }
+  }
+
   @Test
   public void testTransactionInitializationFailure() {}
 
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BlockSizeControllerTest {
+  private static final long TARGET = 1000;
+
+  private static void roundTrip(BlockSizeController controller, long latency) {
+    final int length = controller.getBlockSize();
+    controller.sent(length);
+    controller.acknowledged(length, latency);
+  }
+
+  @Test
+  public void testGrowAndShrink() {
+    final BlockSizeController controller =
+        new BlockSizeController(1024, 64 << 10, TARGET, Long.MAX_VALUE, 1024);
+
+    for (int i = 0; i < 10; i++) {
+      roundTrip(controller, TARGET / 10);
+    }
+    Assert.assertEquals("Fast Acks Grow To Max", 64 << 10, controller.getBlockSize());
+
+    roundTrip(controller, TARGET * 2);
+    Assert.assertEquals("Slow Ack Halves", 32 << 10, controller.getBlockSize());
+
+    roundTrip(controller, TARGET * 3 / 4);
+    Assert.assertEquals("Acceptable Ack Grows Additively", 33 << 10, controller.getBlockSize());
+
+    for (int i = 0; i < 20; i++) {
+      roundTrip(controller, TARGET * 2);
+    }
+    Assert.assertEquals("Never Below Min", 1024, controller.getBlockSize());
+    Assert.assertEquals(0, controller.getOutstandingBytes());
+  }
+
+  @Test
+  public void testHalvedOncePerRoundTrip() {
+    final BlockSizeController controller =
+        new BlockSizeController(1024, 64 << 10, TARGET, Long.MAX_VALUE, 64 << 10);
+
+    final int[] window = new int[8];
+    for (int i = 0; i < window.length; i++) {
+      window[i] = controller.getBlockSize();
+      controller.sent(window[i]);
+    }
+    for (int length : window) {
+      controller.acknowledged(length, TARGET * 2);
+    }
+    Assert.assertEquals("Halved Once For The Window", 32 << 10, controller.getBlockSize());
+
+    roundTrip(controller, TARGET * 2);
+    Assert.assertEquals("Halved Again In The Next Round Trip", 16 << 10, controller.getBlockSize());
+  }
+
+  @Test
+  public void testMemoryCeiling() {
+    final BlockSizeController controller =
+        new BlockSizeController(1024, 16 << 10, TARGET, 20 << 10, 16 << 10);
+
+    controller.sent(controller.getBlockSize());
+    Assert.assertEquals("Limited By Ceiling", 4 << 10, controller.getBlockSize());
+    controller.sent(controller.getBlockSize());
+    Assert.assertEquals("Ceiling Reached", 1024, controller.getBlockSize());
+
+    controller.acknowledged(4 << 10, TARGET / 10);
+    controller.acknowledged(16 << 10, TARGET / 10);
+    Assert.assertEquals(16 << 10, controller.getBlockSize());
+  }
+}
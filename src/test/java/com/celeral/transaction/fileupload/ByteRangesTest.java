@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ByteRangesTest {
+  @Test
+  public void testMergeAndComplement() {
+    ByteRanges ranges = new ByteRanges();
+    Assert.assertEquals(10, ranges.add(10, 20));
+    Assert.assertEquals(10, ranges.add(30, 40));
+    Assert.assertEquals("Duplicate", 0, ranges.add(12, 18));
+    Assert.assertEquals("Adjacent", 5, ranges.add(20, 25));
+    Assert.assertEquals("Bridging", 5, ranges.add(22, 35));
+    Assert.assertEquals(1, ranges.getRangeCount());
+    Assert.assertTrue(ranges.contains(10, 40));
+    Assert.assertFalse(ranges.contains(9, 40));
+
+    ByteRanges missing = ranges.complement(50);
+    Assert.assertEquals("ByteRanges{[0, 10), [40, 50)}", missing.toString());
+    Assert.assertEquals(20, missing.getCoveredBytes());
+  }
+
+  @Test
+  public void testAgainstBitSet() {
+    final int size = 4096;
+    ByteRanges ranges = new ByteRanges();
+    BitSet expected = new BitSet(size);
+
+    Random random = new Random(11);
+    for (int i = 0; i < 500; i++) {
+      int start = random.nextInt(size);
+      int end = Math.min(size, start + 1 + random.nextInt(64));
+      int before = expected.cardinality();
+      expected.set(start, end);
+      Assert.assertEquals(expected.cardinality() - before, ranges.add(start, end));
+      Assert.assertEquals(expected.cardinality(), ranges.getCoveredBytes());
+
+      int probe = random.nextInt(size - 8);
+      Assert.assertEquals(
+          expected.get(probe, probe + 8).cardinality() == 8, ranges.contains(probe, probe + 8));
+    }
+  }
+}
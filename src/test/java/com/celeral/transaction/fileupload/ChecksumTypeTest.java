@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChecksumTypeTest {
+  @Test
+  public void testXxHash64ReferenceValues() {
+    Assert.assertEquals(0xEF46DB3751D8E999L, ChecksumType.XXHASH64.compute(new byte[0], 0, 0));
+    byte[] abc = "abc".getBytes(StandardCharsets.US_ASCII);
+    Assert.assertEquals(0x44BC2CF5AD770999L, ChecksumType.XXHASH64.compute(abc, 0, abc.length));
+  }
+
+  @Test
+  public void testHeapAndDirectBuffersAgree() {
+    byte[] bytes = new byte[1000];
+    new Random(3).nextBytes(bytes);
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    direct.position(13);
+
+    for (ChecksumType type : ChecksumType.values()) {
+      long expected;
+      try {
+        expected = type.compute(bytes, 13, bytes.length - 13);
+      } catch (UnsupportedOperationException unavailable) {
+        continue;
+      }
+      Assert.assertEquals(type.name(), expected, type.compute(direct));
+      Assert.assertEquals("Position Untouched", 13, direct.position());
+      Assert.assertSame(type, ChecksumType.valueOf(type.getId()));
+    }
+  }
+
+  @Test
+  public void testCorruptionDetected() {
+    byte[] bytes = new byte[4096];
+    new Random(5).nextBytes(bytes);
+    for (ChecksumType type : new ChecksumType[] {ChecksumType.ADLER32, ChecksumType.XXHASH64}) {
+      UploadPayload payload = new UploadPayload(0, bytes.clone(), type);
+      Assert.assertTrue(type.name(), payload.verifyChecksum());
+      payload.data[100] ^= 4;
+      Assert.assertFalse(type.name(), payload.verifyChecksum());
+
+      ByteBufferUploadPayload buffered =
+          new ByteBufferUploadPayload(0, ByteBuffer.wrap(bytes.clone()), type);
+      Assert.assertTrue(type.name(), buffered.verifyChecksum());
+    }
+  }
+}
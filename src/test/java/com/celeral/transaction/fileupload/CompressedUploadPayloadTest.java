@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompressedUploadPayloadTest {
+  private static byte[] text(int length) {
+    final StringBuilder builder = new StringBuilder(length);
+    for (int line = 0; builder.length() < length; line++) {
+      builder.append("2021-06-01 12:00:00 INFO transaction ").append(line).append(" committed\n");
+    }
+    return builder.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  @Test
+  public void testCompressibleData() throws IOException {
+    final byte[] data = text(8192);
+    final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data).flip();
+
+    for (Codec codec : new Codec[] {Codec.DEFLATE_FAST, Codec.DEFLATE}) {
+      for (UploadPayload raw :
+          new UploadPayload[] {
+            new UploadPayload(4096, data.clone(), ChecksumType.CRC32),
+            new ByteBufferUploadPayload(4096, direct.duplicate(), ChecksumType.XXHASH64)
+          }) {
+        final UploadPayload payload = CompressedUploadPayload.compress(raw, codec);
+        Assert.assertTrue("Compressed!", payload instanceof CompressedUploadPayload);
+        final CompressedUploadPayload compressed = (CompressedUploadPayload) payload;
+        Assert.assertEquals(codec, compressed.getCodec());
+        Assert.assertTrue("Smaller!", compressed.getCompressedLength() < data.length / 4);
+        Assert.assertEquals("Original Offset!", 4096, compressed.getOffset());
+        Assert.assertEquals("Original Length!", data.length, compressed.getLength());
+        Assert.assertTrue("Original Checksum!", compressed.verifyChecksum());
+
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        compressed.writeTo(stream);
+        Assert.assertArrayEquals("Decompressed!", data, stream.toByteArray());
+        compressed.release();
+      }
+    }
+  }
+
+  @Test
+  public void testIncompressibleDataBypass() {
+    final byte[] random = new byte[8192];
+    new Random(0).nextBytes(random);
+    final UploadPayload payload = new UploadPayload(0, random);
+    Assert.assertSame(
+        "Sent Raw!", payload, CompressedUploadPayload.compress(payload, Codec.DEFLATE));
+
+    final UploadPayload tiny = new UploadPayload(0, new byte[16]);
+    Assert.assertSame("Too Small!", tiny, CompressedUploadPayload.compress(tiny, Codec.DEFLATE));
+    Assert.assertEquals(Codec.NONE, tiny.getCodec());
+  }
+
+  @Test
+  public void testCorruption() {
+    final CompressedUploadPayload payload =
+        (CompressedUploadPayload)
+            CompressedUploadPayload.compress(new UploadPayload(0, text(4096)), Codec.DEFLATE_FAST);
+    payload.data[payload.data.length / 2] ^= 0x55;
+    Assert.assertFalse("Corrupted!", payload.verifyChecksum());
+  }
+
+  @Test
+  public void testSharedDecompression() throws IOException {
+    final byte[] data = text(8192);
+    for (boolean direct : new boolean[] {false, true}) {
+      final PayloadBufferPool pool = new PayloadBufferPool(direct, 1 << 16, 4, 2, 1);
+      final CompressedUploadPayload payload =
+          (CompressedUploadPayload)
+              CompressedUploadPayload.compress(new UploadPayload(0, data), Codec.DEFLATE);
+      payload.pool = pool;
+
+      Assert.assertSame("Shared!", payload, payload.retain());
+      Assert.assertTrue("Verified!", payload.verifyChecksum());
+      Assert.assertEquals("Borrowed!", 1, pool.getOutstandingCount());
+
+      payload.release();
+      final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      payload.writeTo(stream);
+      Assert.assertArrayEquals("Still Decompressed!", data, stream.toByteArray());
+      Assert.assertEquals("Not Returned!", 1, pool.getOutstandingCount());
+
+      payload.release();
+      Assert.assertEquals("Returned!", 0, pool.getOutstandingCount());
+      try {
+        payload.retain();
+        Assert.fail("Retained a released payload!");
+      } catch (IllegalStateException ex) {
+        /* expected */
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContentDefinedChunkerTest {
+  private static ChunkSignatures chunk(ContentDefinedChunker chunker, byte[] data)
+      throws IOException {
+    final Path file = Files.createTempFile("chunker", null);
+    try {
+      Files.write(file, data);
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        return chunker.chunk(channel, channel.size());
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testBoundsAndResynchronization() throws IOException {
+    final ContentDefinedChunker chunker = new ContentDefinedChunker(1024, 4096, 16384);
+    final byte[] data = new byte[1 << 20];
+    new Random(5).nextBytes(data);
+
+    final ChunkSignatures signatures = chunk(chunker, data);
+    Assert.assertEquals("Covered!", data.length, signatures.getSize());
+    for (int i = 0; i < signatures.getChunkCount() - 1; i++) {
+      Assert.assertTrue("Min!", signatures.getLength(i) >= 1024);
+      Assert.assertTrue("Max!", signatures.getLength(i) <= 16384);
+    }
+    Assert.assertTrue(
+        "Average!", Math.abs(data.length / signatures.getChunkCount() - 5120) < 1024);
+    Assert.assertEquals("Deterministic!", signatures, chunk(chunker, data));
+
+    /* inserting a byte only disturbs the chunks around it */
+    final byte[] inserted = new byte[data.length + 1];
+    System.arraycopy(data, 0, inserted, 0, 1000);
+    System.arraycopy(data, 1000, inserted, 1001, data.length - 1000);
+    final ChunkSignatures shifted = chunk(chunker, inserted);
+
+    final Set<Long> hashes = new HashSet<>();
+    for (int i = 0; i < signatures.getChunkCount(); i++) {
+      hashes.add(signatures.getHash(i));
+    }
+    int changed = 0;
+    for (int i = 0; i < shifted.getChunkCount(); i++) {
+      if (!hashes.contains(shifted.getHash(i))) {
+        changed++;
+      }
+    }
+    Assert.assertTrue("Resynchronized!", changed <= 2);
+  }
+
+  @Test
+  public void testSmallFiles() throws IOException {
+    final ContentDefinedChunker chunker = new ContentDefinedChunker();
+    Assert.assertEquals(0, chunk(chunker, new byte[0]).getChunkCount());
+
+    final ChunkSignatures signatures = chunk(chunker, new byte[100]);
+    Assert.assertEquals(1, signatures.getChunkCount());
+    Assert.assertEquals(100, signatures.getLength(0));
+  }
+}
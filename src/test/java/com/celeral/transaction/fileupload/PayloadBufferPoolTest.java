@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.fileupload;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PayloadBufferPoolTest {
+  @Test
+  public void testSizeClassesAndReuse() {
+    PayloadBufferPool pool = new PayloadBufferPool(true, 1 << 16, 4, 2, 0);
+
+    PooledBuffer small = pool.acquire(100);
+    Assert.assertEquals("Smallest Size Class", 512, small.capacity());
+    Assert.assertTrue("Off Heap", small.buffer().isDirect());
+
+    PooledBuffer medium = pool.acquire(3000);
+    Assert.assertEquals("Rounded Up", 4096, medium.capacity());
+
+    PooledBuffer huge = pool.acquire(100_000);
+    Assert.assertEquals("Unpooled", 100_000, huge.capacity());
+    Assert.assertEquals("Outstanding", 3, pool.getOutstandingCount());
+
+    Assert.assertTrue("Last Reference", huge.release());
+    Assert.assertFalse("Retained", medium.retain().release());
+    Assert.assertTrue("Last Reference", medium.release());
+    try {
+      medium.release();
+      Assert.fail("Double Release!");
+    } catch (IllegalStateException expected) {
+      /* expected */
+    }
+
+    Assert.assertSame("Recycled", medium, pool.acquire(4000));
+    Assert.assertEquals("Allocated", 3, pool.getAllocatedCount());
+    Assert.assertEquals("Outstanding", 2, pool.getOutstandingCount());
+  }
+
+  @Test
+  public void testLeakDetection() throws InterruptedException {
+    PayloadBufferPool pool = new PayloadBufferPool(false, 1 << 12, 4, 2, 1);
+
+    pool.acquire(1024);
+    for (int i = 0; i < 100 && pool.getLeakCount() == 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+      pool.acquire(512).release();
+    }
+
+    Assert.assertEquals("Leak Detected", 1, pool.getLeakCount());
+    Assert.assertEquals("Nothing Outstanding", 0, pool.getOutstandingCount());
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.kryo;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import com.celeral.transaction.Transaction;
+import com.celeral.transaction.TransactionProcessor;
+import com.celeral.transaction.fileupload.ByteBufferUploadPayload;
+import com.celeral.transaction.fileupload.ChecksumMismatch;
+import com.celeral.transaction.fileupload.ChecksumType;
+import com.celeral.transaction.fileupload.PayloadBufferPool;
+import com.celeral.transaction.fileupload.PooledUploadPayload;
+import com.celeral.transaction.fileupload.UploadPayload;
+
+public class TransactionKryoTest {
+  private static byte[] serialize(Kryo kryo, Object object) {
+    final Output output = new Output(256, -1);
+    kryo.writeClassAndObject(output, object);
+    return output.toBytes();
+  }
+
+  private static Object deserialize(Kryo kryo, byte[] bytes) {
+    return kryo.readClassAndObject(new Input(bytes));
+  }
+
+  private static byte[] bytesOf(UploadPayload payload) {
+    final ByteBuffer buffer = payload.getBuffer();
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void testSingletonsTakeOneByte() {
+    final Kryo kryo = TransactionKryo.get();
+    for (Object singleton :
+        new Object[] {
+          TransactionProcessor.ProcessResult.CONTINUED,
+          TransactionProcessor.ProcessResult.ABORTED,
+          TransactionProcessor.ProcessResult.COMMITTED,
+          TransactionProcessor.InitializationResult.SKIP
+        }) {
+      final byte[] bytes = serialize(kryo, singleton);
+      Assert.assertEquals("One Byte!", 1, bytes.length);
+      Assert.assertSame("Same Instance!", singleton, deserialize(kryo, bytes));
+    }
+  }
+
+  @Test
+  public void testResults() {
+    final Kryo kryo = TransactionKryo.get();
+
+    final TransactionProcessor.InitializationResult init =
+        (TransactionProcessor.InitializationResult)
+            deserialize(
+                kryo,
+                serialize(
+                    kryo,
+                    new TransactionProcessor.ResultHolder()
+                        .set(1234567, Transaction.Result.CONTINUE, null)));
+    Assert.assertEquals("Transaction Id!", 1234567, init.getTransactionId());
+    Assert.assertEquals("Result!", Transaction.Result.CONTINUE, init.getResult());
+    Assert.assertNull("No Details!", init.getDetails());
+
+    final TransactionProcessor.ProcessResult process =
+        (TransactionProcessor.ProcessResult)
+            deserialize(
+                kryo,
+                serialize(
+                    kryo,
+                    new TransactionProcessor.ProcessResultImpl(
+                        Transaction.Result.CONTINUE, new ChecksumMismatch(4096, 1024))));
+    Assert.assertEquals("Result!", Transaction.Result.CONTINUE, process.getResult());
+    final ChecksumMismatch mismatch = (ChecksumMismatch) process.getDetails();
+    Assert.assertEquals("Offset!", 4096, mismatch.getOffset());
+    Assert.assertEquals("Length!", 1024, mismatch.getLength());
+  }
+
+  @Test
+  public void testPayloads() {
+    final byte[] data = new byte[5000];
+    new Random(0).nextBytes(data);
+
+    final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data).flip();
+    final UploadPayload[] payloads = {
+      new UploadPayload(1L << 40, data),
+      new UploadPayload(100, data, ChecksumType.XXHASH64),
+      new ByteBufferUploadPayload(200, direct, ChecksumType.CRC32)
+    };
+
+    final PayloadBufferPool pool = new PayloadBufferPool(true, 8192, 4, 4, 1);
+    final Kryo pooled = new Kryo();
+    pooled.setReferences(false);
+    TransactionKryo.register(pooled, pool);
+    for (UploadPayload payload : payloads) {
+      final byte[] bytes = serialize(TransactionKryo.get(), payload);
+      Assert.assertTrue("Compact!", bytes.length <= data.length + 16);
+
+      final UploadPayload copy = (UploadPayload) deserialize(TransactionKryo.get(), bytes);
+      Assert.assertEquals("Offset!", payload.getOffset(), copy.getOffset());
+      Assert.assertEquals("Type!", payload.getChecksumType(), copy.getChecksumType());
+      Assert.assertTrue("Checksum!", copy.verifyChecksum());
+      Assert.assertArrayEquals("Data!", data, bytesOf(copy));
+
+      final UploadPayload borrowed = (UploadPayload) deserialize(pooled, bytes);
+      Assert.assertTrue("Pooled!", borrowed instanceof PooledUploadPayload);
+      Assert.assertTrue("Checksum!", borrowed.verifyChecksum());
+      Assert.assertArrayEquals("Data!", data, bytesOf(borrowed));
+      borrowed.release();
+    }
+    Assert.assertEquals("Released!", 0, pool.getOutstandingCount());
+
+    /* the checksum comes from the sender, so corruption in transit is caught */
+    final byte[] bytes = serialize(TransactionKryo.get(), payloads[0]);
+    bytes[bytes.length - 1] ^= 1;
+    Assert.assertFalse(
+        "Corrupted!", ((UploadPayload) deserialize(pooled, bytes)).verifyChecksum());
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Consumer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.celeral.transaction.Transaction;
+import com.celeral.transaction.processor.AbstractConcurrentTransactionProcessor;
+
+public class ProcessorMetricsTest {
+  static class ScriptedTransaction implements Transaction<Object, byte[]> {
+    @Override
+    public Result init(Object header, Consumer<Object> details) {
+      return Result.CONTINUE;
+    }
+
+    @Override
+    public Result process(byte[] payload, Consumer<Object> details) {
+      if (payload.length == 0) {
+        throw new IllegalArgumentException("Empty payload!");
+      }
+      return payload.length > 100 ? Result.COMMIT : Result.CONTINUE;
+    }
+
+    @Override
+    public void commit() {}
+
+    @Override
+    public void abort() {}
+  }
+
+  @Test
+  public void testProcessorMetrics() throws Exception {
+    final AbstractConcurrentTransactionProcessor processor =
+        new AbstractConcurrentTransactionProcessor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return new ScriptedTransaction();
+          }
+        };
+    final ProcessorMetrics metrics =
+        new ProcessorMetrics(payload -> ((byte[]) payload).length);
+    processor.setTransactionListener(metrics);
+
+    final long first = processor.init(null).getTransactionId();
+    final long second = processor.init(null).getTransactionId();
+    final long third = processor.init(null).getTransactionId();
+    Assert.assertEquals("In Flight!", 3, metrics.getInFlightCount());
+
+    processor.process(first, new byte[10]);
+    processor.process(first, new byte[200]);
+    processor.process(second, new byte[300]);
+    try {
+      processor.process(third, new byte[0]);
+      Assert.fail("Exception expected!");
+    } catch (IllegalArgumentException ex) {
+      Assert.assertEquals("Empty payload!", ex.getMessage());
+    }
+
+    Assert.assertEquals("None In Flight!", 0, metrics.getInFlightCount());
+    Assert.assertEquals("Bytes!", 510, metrics.getBytesReceived());
+    Assert.assertEquals("Exceptions!", 1, metrics.getExceptionCount());
+    Assert.assertEquals("Aborts!", 1, metrics.getAbortCount());
+    Assert.assertEquals("Inits!", 3L, (long) metrics.getInitResults().get("CONTINUE"));
+    Assert.assertEquals("Continued!", 1L, (long) metrics.getProcessResults().get("CONTINUE"));
+    Assert.assertEquals("Committed!", 2L, (long) metrics.getProcessResults().get("COMMIT"));
+    Assert.assertEquals("Process Latencies!", 3, metrics.getProcessLatency().getCount());
+    Assert.assertEquals("Commit Latencies!", 2, metrics.getCommitLatency().getCount());
+
+    final ObjectName name = metrics.register("test");
+    try {
+      Assert.assertEquals(
+          "Exposed Over JMX!",
+          510L,
+          ManagementFactory.getPlatformMBeanServer().getAttribute(name, "BytesReceived"));
+    } finally {
+      ProcessorMetrics.unregister(name);
+    }
+  }
+
+  @Test
+  public void testLatencyHistogram() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (long nanos = 1; nanos <= 1000; nanos++) {
+      histogram.record(nanos);
+    }
+
+    final LatencySnapshot snapshot = histogram.snapshot();
+    Assert.assertEquals("Count!", 1000, snapshot.getCount());
+    Assert.assertEquals("Mean!", 500, snapshot.getMean());
+    Assert.assertEquals("Max!", 1000, snapshot.getMax());
+    Assert.assertTrue("Median!", snapshot.getMedian() >= 500 && snapshot.getMedian() < 625);
+    Assert.assertTrue("P99!", snapshot.getP99() >= 990 && snapshot.getP99() <= 1000);
+
+    for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+      final long bound = LatencyHistogram.upperBound(LatencyHistogram.bucket(value));
+      Assert.assertTrue("Upper Bound!", bound >= value);
+      Assert.assertTrue("Tight Bound!", bound <= value + value / 4 + 1);
+    }
+  }
+}
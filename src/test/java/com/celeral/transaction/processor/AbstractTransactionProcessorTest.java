@@ -0,0 +1,244 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.celeral.transaction.Transaction;
+import com.celeral.transaction.TransactionProcessor;
+import com.celeral.transaction.metrics.ProcessorMetrics;
+
+public class AbstractTransactionProcessorTest {
+  private static final int CALLS = 100_000;
+  private static final Object PAYLOAD = new Object();
+  private static final Object DETAILS = "details";
+
+  static class ReusableTransaction implements Transaction<Object, Object> {
+    Object details;
+
+    @Override
+    public Result init(Object header, Consumer<Object> details) {
+      return Result.CONTINUE;
+    }
+
+    @Override
+    public Result process(Object payload, Consumer<Object> details) {
+      if (this.details != null) {
+        details.accept(this.details);
+      }
+      return Result.CONTINUE;
+    }
+
+    @Override
+    public void commit() {}
+
+    @Override
+    public void abort() {}
+  }
+
+  static class Processor extends AbstractSerialTransactionProcessor {
+    final ReusableTransaction transaction = new ReusableTransaction();
+
+    @Override
+    public Transaction<?, ?> newTransaction() {
+      return transaction;
+    }
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static boolean isAllocationMeasurable() {
+    return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .isThreadAllocatedMemoryEnabled();
+  }
+
+  private static long bytesPerCall(Runnable call) {
+    for (int i = CALLS; i-- > 0; ) {
+      call.run();
+    }
+
+    final long before = allocatedBytes();
+    for (int i = CALLS; i-- > 0; ) {
+      call.run();
+    }
+    return (allocatedBytes() - before) / CALLS;
+  }
+
+  @Test
+  public void testAllocationFreeHotPath() {
+    Assume.assumeTrue(isAllocationMeasurable());
+
+    final Processor processor = new Processor();
+    final TransactionProcessor.ResultHolder holder = new TransactionProcessor.ResultHolder();
+    final long transactionId = processor.init(null, holder).getTransactionId();
+    Assert.assertSame(
+        "Flyweight Result!",
+        TransactionProcessor.ProcessResult.CONTINUED,
+        processor.process(transactionId, PAYLOAD));
+
+    Assert.assertEquals(
+        "Init Allocation Free!", 0, bytesPerCall(() -> processor.init(null, holder)));
+    Assert.assertEquals(
+        "Process Allocation Free!",
+        0,
+        bytesPerCall(() -> processor.process(transactionId, PAYLOAD)));
+
+    processor.transaction.details = DETAILS;
+    Assert.assertEquals(
+        "Process With Details Allocation Free!",
+        0,
+        bytesPerCall(() -> processor.process(transactionId, PAYLOAD, holder)));
+    Assert.assertSame("Details Reported!", DETAILS, holder.getDetails());
+
+    processor.setTransactionListener(new ProcessorMetrics());
+    Assert.assertEquals(
+        "Process With Metrics Allocation Free!",
+        0,
+        bytesPerCall(() -> processor.process(transactionId, PAYLOAD, holder)));
+  }
+
+  @Test
+  public void testNestedCallsKeepTheirDetails() {
+    final Processor inner = new Processor();
+    inner.transaction.details = "inner";
+    final long innerId = inner.init(null).getTransactionId();
+
+    final Processor outer =
+        new Processor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return new ReusableTransaction() {
+              @Override
+              public Result process(Object payload, Consumer<Object> details) {
+                details.accept("outer");
+                Assert.assertEquals(
+                    "Inner Details!", "inner", inner.process(innerId, payload).getDetails());
+                return Result.CONTINUE;
+              }
+            };
+          }
+        };
+
+    final long outerId = outer.init(null).getTransactionId();
+    Assert.assertEquals(
+        "Outer Details!", "outer", outer.process(outerId, PAYLOAD).getDetails());
+  }
+
+  @Test
+  public void testTransactionsEndOnce() throws Exception {
+    final List<CompletableFuture<Transaction.Result>> writes = new ArrayList<>();
+    final AtomicInteger commits = new AtomicInteger();
+    final AtomicInteger aborts = new AtomicInteger();
+    final AbstractConcurrentTransactionProcessor processor =
+        new AbstractConcurrentTransactionProcessor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return new ReusableTransaction() {
+              @Override
+              public CompletableFuture<Result> processAsync(
+                  Object payload, Consumer<Object> details) {
+                final CompletableFuture<Result> write = new CompletableFuture<>();
+                writes.add(write);
+                return write;
+              }
+
+              @Override
+              public void commit() {
+                commits.incrementAndGet();
+              }
+
+              @Override
+              public void abort() {
+                aborts.incrementAndGet();
+              }
+            };
+          }
+        };
+
+    final long transactionId = processor.init(null).getTransactionId();
+    final List<CompletableFuture<TransactionProcessor.ProcessResult>> results = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      results.add(processor.processAsync(transactionId, PAYLOAD));
+    }
+
+    /* the first write completes the transaction, the others were in flight when it committed */
+    writes.get(0).complete(Transaction.Result.COMMIT);
+    writes.get(1).completeExceptionally(new AsynchronousCloseException());
+    writes.get(2).complete(Transaction.Result.COMMIT);
+    Assert.assertEquals(Transaction.Result.COMMIT, results.get(0).get().getResult());
+    try {
+      results.get(1).get();
+      Assert.fail("Failure Not Reported!");
+    } catch (ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof IOException);
+    }
+    results.get(2).get();
+    Assert.assertEquals("Committed Once!", 1, commits.get());
+    Assert.assertEquals("Not Aborted!", 0, aborts.get());
+    Assert.assertEquals("Closed!", 0, processor.getOpenTransactionCount());
+  }
+
+  @Test
+  public void testAsyncProcessingFailingRightAway() throws Exception {
+    final AtomicInteger aborts = new AtomicInteger();
+    final AbstractConcurrentTransactionProcessor processor =
+        new AbstractConcurrentTransactionProcessor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return new ReusableTransaction() {
+              @Override
+              public CompletableFuture<Result> processAsync(
+                  Object payload, Consumer<Object> details) {
+                if (payload == null) {
+                  return null;
+                }
+                throw new IllegalArgumentException("Failing right away!");
+              }
+
+              @Override
+              public void abort() {
+                aborts.incrementAndGet();
+              }
+            };
+          }
+        };
+
+    for (Object payload : new Object[] {PAYLOAD, null}) {
+      final long transactionId = processor.init(null).getTransactionId();
+      final CompletableFuture<TransactionProcessor.ProcessResult> result =
+          processor.processAsync(transactionId, payload);
+      Assert.assertTrue("Completed!", result.isCompletedExceptionally());
+    }
+    Assert.assertEquals("Aborted!", 2, aborts.get());
+    Assert.assertEquals("Closed!", 0, processor.getOpenTransactionCount());
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.celeral.transaction.Transaction;
+import com.celeral.transaction.TransactionProcessor;
+
+public class AdmissionControllerTest {
+  /** Processor of transactions which commit with their first payload. */
+  static class Processor extends AbstractConcurrentTransactionProcessor {
+    @Override
+    public Transaction<?, ?> newTransaction() {
+      return new Transaction<Object, Object>() {
+        @Override
+        public Result init(Object header, Consumer<Object> details) {
+          return Result.CONTINUE;
+        }
+
+        @Override
+        public Result process(Object payload, Consumer<Object> details) {
+          return Result.COMMIT;
+        }
+
+        @Override
+        public void commit() {}
+
+        @Override
+        public void abort() {}
+      };
+    }
+  }
+
+  /** Takes the size of the transactions from the headers. */
+  private static long sizeOf(Object header) {
+    return header instanceof Long ? (Long) header : 0;
+  }
+
+  private static AdmissionRejection.Reason assertRejected(
+      TransactionProcessor.InitializationResult result) {
+    Assert.assertEquals("Rejected!", Transaction.Result.ABORT, result.getResult());
+    Assert.assertEquals("No Transaction!", 0, result.getTransactionId());
+    final AdmissionRejection rejection = (AdmissionRejection) result.getDetails();
+    Assert.assertTrue("Retry Later!", rejection.getRetryAfterMillis() > 0);
+    return rejection.getReason();
+  }
+
+  @Test
+  public void testLimits() {
+    final Processor processor = new Processor();
+    final AdmissionController admission =
+        new AdmissionController(
+            2, 100, Double.POSITIVE_INFINITY, 0, 0, AdmissionControllerTest::sizeOf);
+    processor.setAdmissionController(admission);
+
+    final long first = processor.init(60L).getTransactionId();
+    Assert.assertEquals(AdmissionRejection.Reason.BYTES, assertRejected(processor.init(50L)));
+    final long second = processor.init(40L).getTransactionId();
+    Assert.assertEquals(AdmissionRejection.Reason.TRANSACTIONS, assertRejected(processor.init(0L)));
+    Assert.assertEquals("Rejections Not Stored!", 2, processor.getOpenTransactionCount());
+
+    Assert.assertEquals(Transaction.Result.COMMIT, processor.process(first, null).getResult());
+    Assert.assertEquals("Bytes Released!", 40, admission.getBytes());
+
+    /* an upload bigger than the limit waits for the others to finish and then gets in alone */
+    final TransactionProcessor.ResultHolder holder = new TransactionProcessor.ResultHolder();
+    Assert.assertEquals(
+        AdmissionRejection.Reason.BYTES, assertRejected(processor.init(1000L, holder)));
+    Assert.assertEquals(Transaction.Result.COMMIT, processor.process(second, null).getResult());
+    Assert.assertEquals(Transaction.Result.CONTINUE, processor.init(1000L, holder).getResult());
+    Assert.assertEquals(1000, admission.getBytes());
+    Assert.assertEquals(1, admission.getTransactionCount());
+  }
+
+  @Test
+  public void testRate() {
+    final Processor processor = new Processor();
+    processor.setAdmissionController(new AdmissionController(100, Long.MAX_VALUE, 10));
+
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals(
+          "Burst Admitted!", Transaction.Result.CONTINUE, processor.init(null).getResult());
+    }
+    final TransactionProcessor.InitializationResult result = processor.init(null);
+    Assert.assertEquals(AdmissionRejection.Reason.RATE, assertRejected(result));
+    Assert.assertTrue(
+        "Next Token Soon!",
+        ((AdmissionRejection) result.getDetails()).getRetryAfterMillis() <= 100);
+  }
+
+  @Test
+  public void testQueue() throws Exception {
+    final Processor processor = new Processor();
+    final AdmissionController admission =
+        new AdmissionController(
+            1, Long.MAX_VALUE, Double.POSITIVE_INFINITY, 1, TimeUnit.SECONDS.toNanos(10));
+    processor.setAdmissionController(admission);
+
+    final long first = processor.init(null).getTransactionId();
+    final CompletableFuture<TransactionProcessor.InitializationResult> queued =
+        CompletableFuture.supplyAsync(() -> processor.init(null));
+    while (admission.getQueuedCount() == 0) {
+      Thread.sleep(1);
+    }
+    Assert.assertEquals(
+        "Queue Full!",
+        AdmissionRejection.Reason.TRANSACTIONS,
+        assertRejected(processor.init(null)));
+
+    processor.process(first, null);
+    Assert.assertEquals(
+        "Admitted When Released!",
+        Transaction.Result.CONTINUE,
+        queued.get(10, TimeUnit.SECONDS).getResult());
+
+    processor.setAdmissionController(
+        new AdmissionController(
+            1, Long.MAX_VALUE, Double.POSITIVE_INFINITY, 1, TimeUnit.MILLISECONDS.toNanos(50)));
+    processor.init(null);
+    final long start = System.nanoTime();
+    assertRejected(processor.init(null));
+    Assert.assertTrue(
+        "Deadline Honored!", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+  }
+
+  @Test
+  public void testEndedBeforeAdmitted() {
+    /* the transaction ends, as if reaped, as soon as it's stored and before its permit is kept */
+    final Processor processor =
+        new Processor() {
+          @Override
+          public long store(Transaction<?, ?> transaction) {
+            final long transactionId = super.store(transaction);
+            remove(transactionId);
+            ended(transactionId, false, listener);
+            return transactionId;
+          }
+        };
+    final AdmissionController admission =
+        new AdmissionController(
+            1, 100, Double.POSITIVE_INFINITY, 0, 0, AdmissionControllerTest::sizeOf);
+    processor.setAdmissionController(admission);
+
+    Assert.assertEquals(Transaction.Result.CONTINUE, processor.init(60L).getResult());
+    Assert.assertEquals("Slot Released!", 0, admission.getTransactionCount());
+    Assert.assertEquals("Bytes Released!", 0, admission.getBytes());
+  }
+}
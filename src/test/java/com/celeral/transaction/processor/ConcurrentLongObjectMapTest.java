@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentLongObjectMapTest {
+  @Test
+  public void testAgainstHashMap() {
+    ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<>(4);
+    Map<Long, Long> expected = new HashMap<>();
+
+    Random random = new Random(42);
+    for (int i = 0; i < 200_000; i++) {
+      long key = random.nextInt(5_000) - 100;
+      if (random.nextBoolean()) {
+        Assert.assertEquals("put " + key, expected.put(key, (long) i), map.put(key, (long) i));
+      } else {
+        Assert.assertEquals("remove " + key, expected.remove(key), map.remove(key));
+      }
+    }
+
+    Assert.assertEquals("Size", expected.size(), map.size());
+    for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+      Assert.assertEquals("get " + entry.getKey(), entry.getValue(), map.get(entry.getKey()));
+    }
+  }
+
+  @Test
+  public void testConcurrentPutGetRemove() throws InterruptedException {
+    final ConcurrentLongObjectMap<Object> map = new ConcurrentLongObjectMap<>();
+    final int threads = 8;
+    final int perThread = 20_000;
+    final AtomicInteger misses = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(threads);
+
+    for (int t = 0; t < threads; t++) {
+      final long base = (long) t * perThread + 1;
+      new Thread(
+              () -> {
+                try {
+                  for (long key = base; key < base + perThread; key++) {
+                    Object value = new Object();
+                    map.put(key, value);
+                    if (map.get(key) != value) {
+                      misses.incrementAndGet();
+                    }
+                  }
+                  for (long key = base; key < base + perThread; key += 2) {
+                    if (map.remove(key) == null) {
+                      misses.incrementAndGet();
+                    }
+                  }
+                } finally {
+                  done.countDown();
+                }
+              })
+          .start();
+    }
+
+    done.await();
+    Assert.assertEquals("Every key observed by its writer", 0, misses.get());
+    Assert.assertEquals("Remaining entries", threads * perThread / 2, map.size());
+  }
+}
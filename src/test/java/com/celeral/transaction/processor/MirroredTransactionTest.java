@@ -0,0 +1,171 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.celeral.transaction.Transaction;
+
+public class MirroredTransactionTest {
+  private static final int PAYLOADS = 4;
+
+  /** Child which commits with the last payload, optionally failing on one of them. */
+  static class Child implements Transaction<Object, Integer> {
+    final List<Integer> payloads = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch gate;
+    final int failing;
+    volatile boolean committed;
+    volatile boolean aborted;
+    volatile boolean failingCommit;
+
+    Child(CountDownLatch gate, int failing) {
+      this.gate = gate;
+      this.failing = failing;
+    }
+
+    @Override
+    public Result init(Object header, Consumer<Object> details) {
+      return Result.CONTINUE;
+    }
+
+    @Override
+    public Result process(Integer payload, Consumer<Object> details) throws Exception {
+      gate.await();
+      if (payload == failing) {
+        throw new IllegalStateException("Failing on " + payload);
+      }
+      payloads.add(payload);
+      details.accept(payload);
+      return payloads.size() == PAYLOADS ? Result.COMMIT : Result.CONTINUE;
+    }
+
+    @Override
+    public void commit() {
+      if (failingCommit) {
+        throw new IllegalStateException("Failing the commit!");
+      }
+      committed = true;
+    }
+
+    @Override
+    public void abort() {
+      aborted = true;
+    }
+  }
+
+  @Test
+  public void testQuorum() {
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      final CountDownLatch open = new CountDownLatch(0);
+      final CountDownLatch slow = new CountDownLatch(1);
+      final Child fast = new Child(open, -1);
+      final Child lagging = new Child(slow, -1);
+      final MirroredTransaction<Object, Integer> mirror =
+          new MirroredTransaction<>(Arrays.asList(fast, lagging), 1, executor);
+
+      Assert.assertEquals(Transaction.Result.CONTINUE, mirror.init(null, details -> {}));
+      Transaction.Result result = null;
+      final Object[] reported = new Object[1];
+      for (int i = 0; i < PAYLOADS; i++) {
+        result = mirror.process(i, details -> reported[0] = details);
+        Assert.assertEquals("Details Forwarded!", i, reported[0]);
+      }
+      Assert.assertEquals("Quorum Completed!", Transaction.Result.COMMIT, result);
+      Assert.assertTrue("Lagging Behind!", lagging.payloads.isEmpty());
+
+      slow.countDown();
+      mirror.commit();
+      Assert.assertTrue(fast.committed);
+      Assert.assertTrue("Caught Up!", lagging.committed);
+      Assert.assertEquals("In Order!", fast.payloads, lagging.payloads);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailures() throws Exception {
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      final CountDownLatch open = new CountDownLatch(0);
+      final Child healthy = new Child(open, -1);
+      final Child failing = new Child(open, 1);
+      final Child failingLater = new Child(open, 2);
+      final MirroredTransaction<Object, Integer> mirror =
+          new MirroredTransaction<>(Arrays.asList(healthy, failing, failingLater), 2, executor);
+
+      mirror.init(null, details -> {});
+      Assert.assertEquals(Transaction.Result.CONTINUE, mirror.process(0, details -> {}));
+      Assert.assertEquals(
+          "Failed Child Left Out!", Transaction.Result.CONTINUE, mirror.process(1, details -> {}));
+      Assert.assertEquals(
+          "Quorum Lost!", Transaction.Result.ABORT, mirror.process(2, details -> {}));
+      Assert.assertTrue("Failed Children Aborted!", failing.aborted && failingLater.aborted);
+      Assert.assertFalse(healthy.aborted);
+
+      mirror.abort();
+      Assert.assertTrue("All Aborted!", healthy.aborted);
+      Assert.assertFalse(healthy.committed);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testAbortedChildrenNotCounted() {
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      final CountDownLatch open = new CountDownLatch(0);
+      final CountDownLatch slow = new CountDownLatch(1);
+      final Child healthy = new Child(open, -1);
+      final Child failingCommit = new Child(open, -1);
+      failingCommit.failingCommit = true;
+      final Child lagging = new Child(slow, PAYLOADS - 1);
+      final MirroredTransaction<Object, Integer> mirror =
+          new MirroredTransaction<>(Arrays.asList(healthy, failingCommit, lagging), 2, executor);
+
+      mirror.init(null, details -> {});
+      Transaction.Result result = null;
+      for (int i = 0; i < PAYLOADS; i++) {
+        result = mirror.process(i, details -> {});
+      }
+      Assert.assertEquals("Quorum Completed!", Transaction.Result.COMMIT, result);
+
+      /* the lagging child fails while catching up, so only one of the children commits */
+      slow.countDown();
+      try {
+        mirror.commit();
+        Assert.fail("Commit Short Of The Quorum!");
+      } catch (IllegalStateException ex) {
+        Assert.assertTrue("Lagging Aborted!", lagging.aborted);
+        Assert.assertTrue(healthy.committed);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SerialExecutorTest {
+  /** Executor which holds on to the submitted drains until the test runs them. */
+  static class ManualExecutor implements Executor {
+    final Deque<Runnable> submitted = new ArrayDeque<>();
+    boolean rejecting;
+
+    @Override
+    public void execute(Runnable command) {
+      if (rejecting) {
+        throw new RejectedExecutionException("Rejecting!");
+      }
+      submitted.add(command);
+    }
+  }
+
+  @Test
+  public void testRejections() {
+    final ManualExecutor executor = new ManualExecutor();
+    final SerialExecutor serial = new SerialExecutor(executor);
+    final List<Integer> ran = new ArrayList<>();
+    final List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      final int task = i;
+      serial.execute(() -> ran.add(task));
+      expected.add(i);
+    }
+    Assert.assertEquals("Single Drain!", 1, executor.submitted.size());
+
+    /* the drain which is not allowed to reschedule itself carries on with the rest */
+    executor.rejecting = true;
+    executor.submitted.poll().run();
+    Assert.assertEquals("All Ran In Order!", expected, ran);
+
+    /* only the rejected task is dropped */
+    ran.clear();
+    try {
+      serial.execute(() -> ran.add(-1));
+      Assert.fail("Rejection Not Reported!");
+    } catch (RejectedExecutionException ex) {
+      Assert.assertTrue("Nothing Ran!", ran.isEmpty());
+    }
+
+    executor.rejecting = false;
+    serial.execute(() -> ran.add(1));
+    serial.execute(() -> ran.add(2));
+    executor.submitted.poll().run();
+    Assert.assertEquals("Later Tasks Ran!", Arrays.asList(1, 2), ran);
+    Assert.assertEquals("Drained!", Collections.emptyList(), new ArrayList<>(executor.submitted));
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.celeral.transaction.Transaction;
+import com.celeral.transaction.TransactionProcessor;
+
+public class ShardedTransactionProcessorTest {
+  private static final int SHARDS = 3;
+  private static final int PAYLOADS = 3;
+
+  /** Shard standing in for a remote node, which records the threads it's called on. */
+  static class Shard extends AbstractConcurrentTransactionProcessor {
+    final Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+
+    @Override
+    public Transaction<?, ?> newTransaction() {
+      return new Transaction<Object, Object>() {
+        int count;
+
+        @Override
+        public Result init(Object header, Consumer<Object> details) {
+          threads.add(Thread.currentThread());
+          return Result.CONTINUE;
+        }
+
+        @Override
+        public Result process(Object payload, Consumer<Object> details) {
+          threads.add(Thread.currentThread());
+          Assert.assertEquals("In Order!", count, payload);
+          return ++count == PAYLOADS ? Result.COMMIT : Result.CONTINUE;
+        }
+
+        @Override
+        public void commit() {}
+
+        @Override
+        public void abort() {}
+      };
+    }
+  }
+
+  @Test
+  public void testRouting() throws Exception {
+    final List<Shard> shards = new ArrayList<>();
+    final List<ExecutorService> executors = new ArrayList<>();
+    for (int i = 0; i < SHARDS; i++) {
+      shards.add(new Shard());
+      executors.add(Executors.newSingleThreadExecutor());
+    }
+    final ShardedTransactionProcessor processor =
+        new ShardedTransactionProcessor(shards, executors);
+
+    try {
+      final long[] transactionIds = new long[SHARDS * 4];
+      final TransactionProcessor.ResultHolder holder = new TransactionProcessor.ResultHolder();
+      for (int i = 0; i < transactionIds.length; i++) {
+        transactionIds[i] =
+            i % 2 == 0
+                ? processor.init(null).getTransactionId()
+                : processor.init(null, holder).getTransactionId();
+        Assert.assertEquals("Round Robin!", i % SHARDS, processor.getShard(transactionIds[i]));
+      }
+      Assert.assertEquals(
+          "Unique Ids!",
+          transactionIds.length,
+          Arrays.stream(transactionIds).distinct().count());
+      for (Shard shard : shards) {
+        Assert.assertEquals("Spread!", 4, shard.getOpenTransactionCount());
+      }
+
+      /* half of the transactions are processed on the caller's thread */
+      for (int i = 0; i < transactionIds.length / 2; i++) {
+        for (int j = 0; j < PAYLOADS; j++) {
+          final TransactionProcessor.ProcessResult result =
+              j % 2 == 0
+                  ? processor.process(transactionIds[i], j)
+                  : processor.process(transactionIds[i], j, holder);
+          Assert.assertEquals(
+              j + 1 == PAYLOADS ? Transaction.Result.COMMIT : Transaction.Result.CONTINUE,
+              result.getResult());
+        }
+      }
+
+      /* and the rest on the thread of their shard */
+      for (Shard shard : shards) {
+        shard.threads.clear();
+      }
+      final List<CompletableFuture<TransactionProcessor.ProcessResult>> results =
+          new ArrayList<>();
+      for (int j = 0; j < PAYLOADS; j++) {
+        for (int i = transactionIds.length / 2; i < transactionIds.length; i++) {
+          results.add(processor.processAsync(transactionIds[i], j));
+        }
+      }
+      results.add(
+          processor
+              .initAsync(null)
+              .thenCompose(init -> processor.processAsync(init.getTransactionId(), 0)));
+      for (CompletableFuture<TransactionProcessor.ProcessResult> result : results) {
+        Assert.assertNotEquals(Transaction.Result.ABORT, result.get().getResult());
+      }
+
+      for (Shard shard : shards) {
+        Assert.assertEquals("Pinned!", 1, shard.threads.size());
+      }
+      Assert.assertEquals(
+          "All Committed!",
+          1,
+          shards.stream().mapToInt(Shard::getOpenTransactionCount).sum());
+    } finally {
+      for (ExecutorService executor : executors) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void testUnknownTransaction() throws Exception {
+    final ShardedTransactionProcessor processor =
+        new ShardedTransactionProcessor(
+            Collections.nCopies(SHARDS, new Shard()), Collections.nCopies(SHARDS, Runnable::run));
+
+    try {
+      processor.process(3L << 61, null);
+      Assert.fail("Routed To Missing Shard!");
+    } catch (IllegalStateException ex) {
+      /* expected */
+    }
+
+    try {
+      processor.processAsync(-1, null).get();
+      Assert.fail("Routed Negative Id!");
+    } catch (ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+    }
+  }
+}
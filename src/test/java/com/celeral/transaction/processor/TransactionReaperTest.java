@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.celeral.transaction.Transaction;
+import com.celeral.transaction.TransactionProcessor;
+
+public class TransactionReaperTest {
+  static class CountingTransaction implements Transaction<Object, Object> {
+    static final AtomicInteger aborts = new AtomicInteger();
+
+    @Override
+    public Result init(Object header, Consumer<Object> details) {
+      return Result.CONTINUE;
+    }
+
+    @Override
+    public Result process(Object payload, Consumer<Object> details) {
+      return Result.CONTINUE;
+    }
+
+    @Override
+    public void commit() {}
+
+    @Override
+    public void abort() {
+      aborts.incrementAndGet();
+    }
+  }
+
+  static class Processor extends AbstractConcurrentTransactionProcessor {
+    @Override
+    public Transaction<?, ?> newTransaction() {
+      return new CountingTransaction();
+    }
+  }
+
+  @Test
+  public void testIdleAndAbsoluteTimeouts() {
+    final AtomicLong clock = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    final Processor processor = new Processor();
+    final TransactionReaper reaper =
+        new TransactionReaper(
+            processor, 10, 60, TimeUnit.SECONDS, 1, TimeUnit.SECONDS, 8, clock::get);
+    CountingTransaction.aborts.set(0);
+
+    final long idle = processor.init(null).getTransactionId();
+    final long busy = processor.init(null).getTransactionId();
+    Assert.assertEquals("Nothing to reap yet!", 0, reaper.expire());
+
+    for (int second = 1; second <= 30; second++) {
+      clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+      processor.process(busy, second);
+      reaper.expire();
+    }
+    Assert.assertEquals("Idle transaction reaped!", 1, reaper.getReclaimedCount());
+    Assert.assertEquals("Busy transaction still open!", 1, processor.getOpenTransactionCount());
+    Assert.assertEquals("Aborted!", 1, CountingTransaction.aborts.get());
+
+    try {
+      processor.process(idle, 0);
+      Assert.fail("Reaped transaction cannot be processed!");
+    } catch (IllegalStateException expected) {
+      /* expected */
+    }
+
+    /* jump well past a revolution of the wheel and the absolute timeout */
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(45));
+    processor.process(busy, 0);
+    Assert.assertEquals("Absolute timeout reached!", 1, reaper.expire());
+    Assert.assertEquals("All reaped!", 0, processor.getOpenTransactionCount());
+    Assert.assertEquals("Reclaimed!", 2, reaper.getReclaimedCount());
+  }
+
+  @Test
+  public void testCompletedTransactionsAreNotReaped() {
+    final AtomicLong clock = new AtomicLong();
+    final Processor processor =
+        new Processor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return new CountingTransaction() {
+              @Override
+              public Result process(Object payload, Consumer<Object> details) {
+                return Result.COMMIT;
+              }
+            };
+          }
+        };
+    final TransactionReaper reaper =
+        new TransactionReaper(
+            processor, 1, 0, TimeUnit.SECONDS, 100, TimeUnit.MILLISECONDS, 16, clock::get);
+    CountingTransaction.aborts.set(0);
+
+    final TransactionProcessor.InitializationResult init = processor.init(null);
+    Assert.assertEquals(
+        Transaction.Result.COMMIT, processor.process(init.getTransactionId(), 0).getResult());
+
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(5));
+    Assert.assertEquals("Nothing to reap!", 0, reaper.expire());
+    Assert.assertEquals("Never aborted!", 0, CountingTransaction.aborts.get());
+  }
+
+  @Test
+  public void testTransactionsInUseAreNotReaped() {
+    final AtomicLong clock = new AtomicLong();
+    final TransactionReaper[] reapers = new TransactionReaper[1];
+    final AtomicInteger reapedDuringCall = new AtomicInteger();
+    final Processor processor =
+        new Processor() {
+          @Override
+          public Transaction<?, ?> newTransaction() {
+            return new CountingTransaction() {
+              @Override
+              public Result process(Object payload, Consumer<Object> details) {
+                /* the deadlines pass while the call is still running */
+                clock.addAndGet(TimeUnit.SECONDS.toNanos(5));
+                reapedDuringCall.addAndGet(reapers[0].expire());
+                return (Boolean) payload ? Result.COMMIT : Result.CONTINUE;
+              }
+            };
+          }
+        };
+    reapers[0] =
+        new TransactionReaper(
+            processor, 1, 2, TimeUnit.SECONDS, 100, TimeUnit.MILLISECONDS, 16, clock::get);
+    CountingTransaction.aborts.set(0);
+
+    final long committing = processor.init(null).getTransactionId();
+    Assert.assertEquals(
+        "Committed!", Transaction.Result.COMMIT, processor.process(committing, true).getResult());
+    final long continuing = processor.init(null).getTransactionId();
+    Assert.assertEquals(
+        "Continued!",
+        Transaction.Result.CONTINUE,
+        processor.process(continuing, false).getResult());
+    Assert.assertEquals("Not Reaped In Use!", 0, reapedDuringCall.get());
+    Assert.assertEquals("Never Aborted!", 0, CountingTransaction.aborts.get());
+
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(5));
+    Assert.assertEquals("Reaped Once Released!", 1, reapers[0].expire());
+    Assert.assertEquals("Aborted Once!", 1, CountingTransaction.aborts.get());
+    Assert.assertEquals("None Open!", 0, processor.getOpenTransactionCount());
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.processor;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.celeral.transaction.Transaction;
+import com.celeral.transaction.TransactionProcessor;
+import com.celeral.transaction.wal.WriteAheadLog;
+
+public class TwoPhaseCommitCoordinatorTest {
+  /** Processor standing in for a remote node, which records how its transactions ended. */
+  static class Node extends AbstractConcurrentTransactionProcessor {
+    static final AtomicInteger nodes = new AtomicInteger();
+    final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    volatile boolean vote = true;
+    volatile boolean failing;
+    /* the transactions find all of their data when initialized, as the recovered ones would */
+    volatile boolean resuming;
+
+    Node() {
+      setName("node " + nodes.incrementAndGet());
+    }
+
+    @Override
+    public Transaction<?, ?> newTransaction() {
+      return new Transaction<Object, Object>() {
+        @Override
+        public Result init(Object header, Consumer<Object> details) {
+          return resuming ? Result.COMMIT : Result.CONTINUE;
+        }
+
+        @Override
+        public Result process(Object payload, Consumer<Object> details) {
+          return Result.COMMIT;
+        }
+
+        @Override
+        public boolean prepare() {
+          events.add("prepare");
+          return vote;
+        }
+
+        @Override
+        public void commit() {
+          if (failing) {
+            throw new IllegalStateException("Failing the commit!");
+          }
+          events.add("commit");
+        }
+
+        @Override
+        public void abort() {
+          events.add("abort");
+        }
+
+        @Override
+        public void rollback(Object header) {
+          events.add("rollback " + header);
+        }
+
+        @Override
+        public void dispose() {
+          events.add("dispose");
+        }
+      };
+    }
+  }
+
+  private static List<TwoPhaseCommitCoordinator.Participant> enlist(Node... nodes) {
+    final List<TwoPhaseCommitCoordinator.Participant> participants = new ArrayList<>();
+    for (Node node : nodes) {
+      final long transactionId = node.init(null).getTransactionId();
+      participants.add(node.enlist(transactionId));
+      final TransactionProcessor.ProcessResult result = node.process(transactionId, "payload");
+      Assert.assertEquals("Reported Commit!", Transaction.Result.COMMIT, result.getResult());
+      Assert.assertEquals("Left Open!", 1, node.getOpenTransactionCount());
+      Assert.assertTrue("Not Committed Yet!", node.events.isEmpty());
+    }
+    return participants;
+  }
+
+  @Test
+  public void testUnanimousCommit() throws Exception {
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      final TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(executor, null);
+      final Node first = new Node();
+      final Node second = new Node();
+      Assert.assertTrue("Committed!", coordinator.complete(enlist(first, second)));
+      for (Node node : new Node[] {first, second}) {
+        Assert.assertEquals("Prepared First!", Arrays.asList("prepare", "commit"), node.events);
+        Assert.assertEquals("Closed!", 0, node.getOpenTransactionCount());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testVetoedCommit() throws Exception {
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      final TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(executor, null);
+      final Node first = new Node();
+      final Node second = new Node();
+      second.vote = false;
+      Assert.assertFalse("Aborted!", coordinator.complete(enlist(first, second)));
+      for (Node node : new Node[] {first, second}) {
+        Assert.assertEquals("All Aborted!", Arrays.asList("prepare", "abort"), node.events);
+        Assert.assertEquals("Closed!", 0, node.getOpenTransactionCount());
+      }
+
+      /* a participant which is not done processing votes no */
+      final Node unfinished = new Node();
+      final long transactionId = unfinished.init(null).getTransactionId();
+      Assert.assertFalse(
+          "Not Ready!",
+          coordinator.complete(Collections.singletonList(unfinished.enlist(transactionId))));
+      Assert.assertEquals("Aborted!", Collections.singletonList("abort"), unfinished.events);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testDecisionInDoubt() throws Exception {
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    final Path directory = Files.createTempDirectory("2pc");
+    try {
+      final WriteAheadLog log = WriteAheadLog.open(directory);
+      final TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(executor, log);
+      final Node first = new Node();
+      final Node second = new Node();
+      Assert.assertTrue("Committed!", coordinator.complete(enlist(first, second)));
+      Assert.assertTrue("Nothing In Doubt!", coordinator.getInDoubt().isEmpty());
+
+      final Node other = new Node();
+      final Node failing = new Node();
+      failing.failing = true;
+      try {
+        coordinator.complete(enlist(other, failing));
+        Assert.fail("Commit Failure Not Reported!");
+      } catch (IllegalStateException ex) {
+        Assert.assertEquals("One In Doubt!", 1, coordinator.getInDoubt().size());
+      }
+      Assert.assertEquals("Committed!", Arrays.asList("prepare", "commit"), other.events);
+      Assert.assertEquals("Left Prepared!", Collections.singletonList("prepare"), failing.events);
+      Assert.assertEquals("Held In Doubt!", 1, failing.getInDoubt().size());
+      log.close();
+
+      /* the decision survives the coordinator until it's carried out */
+      final WriteAheadLog reopened = WriteAheadLog.open(directory);
+      final TwoPhaseCommitCoordinator recovered =
+          new TwoPhaseCommitCoordinator(executor, reopened);
+      final Map<Long, List<TwoPhaseCommitCoordinator.ParticipantId>> inDoubt =
+          recovered.getInDoubt();
+      Assert.assertEquals("Logged In Doubt!", 1, inDoubt.size());
+      final TwoPhaseCommitCoordinator.ParticipantId participant =
+          inDoubt.values().iterator().next().get(1);
+      Assert.assertEquals("Processor Logged!", failing.getName(), participant.getProcessor());
+      Assert.assertEquals(
+          "Transaction Logged!",
+          failing.getInDoubt().iterator().next().longValue(),
+          participant.getTransactionId());
+
+      failing.failing = false;
+      final Map<String, Node> processors = new HashMap<>();
+      processors.put(other.getName(), other);
+      processors.put(failing.getName(), failing);
+      Assert.assertEquals("Carried Out!", 1, recovered.recover(processors));
+      Assert.assertEquals("Committed Later!", Arrays.asList("prepare", "commit"), failing.events);
+      Assert.assertTrue("Not In Doubt!", failing.getInDoubt().isEmpty());
+      Assert.assertEquals("Committed Once!", Arrays.asList("prepare", "commit"), other.events);
+      Assert.assertTrue("Resolved!", recovered.getInDoubt().isEmpty());
+      Assert.assertTrue("Resolution Logged!", reopened.getUnfinished().isEmpty());
+      reopened.close();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testPreparedRecovery() throws Exception {
+    final Path directory = Files.createTempDirectory("2pc");
+    final WriteAheadLog log = WriteAheadLog.open(directory);
+    final Node crashed = new Node();
+    crashed.recover(log, false);
+    final AtomicLong clock = new AtomicLong();
+    final TransactionReaper reaper =
+        new TransactionReaper(
+            crashed, 1, 0, TimeUnit.SECONDS, 100, TimeUnit.MILLISECONDS, 16, clock::get);
+
+    final long[] transactionIds = new long[3];
+    final TwoPhaseCommitCoordinator.Participant[] participants =
+        new TwoPhaseCommitCoordinator.Participant[transactionIds.length];
+    for (int i = 0; i < transactionIds.length; i++) {
+      /* the headers may well be null */
+      transactionIds[i] = crashed.init(i == 1 ? null : "upload " + i).getTransactionId();
+      participants[i] = crashed.enlist(transactionIds[i]);
+      crashed.process(transactionIds[i], "payload");
+    }
+    Assert.assertTrue("Prepared!", participants[0].prepare());
+    Assert.assertTrue("Prepared!", participants[1].prepare());
+
+    /* the prepared transactions wait for the coordinator however long it takes */
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(5));
+    Assert.assertEquals("Only Unprepared Reaped!", 1, reaper.expire());
+    Assert.assertEquals("Prepared Left Open!", 2, crashed.getOpenTransactionCount());
+    log.close();
+
+    final WriteAheadLog reopened = WriteAheadLog.open(directory);
+    try {
+      new TwoPhaseCommitCoordinator(Runnable::run, reopened);
+      Assert.fail("Log Of A Processor Taken For Decisions!");
+    } catch (IllegalArgumentException ex) {
+      /* expected */
+    }
+
+    final Node recovered = new Node();
+    Assert.assertEquals("None Reattached!", 0, recovered.recover(reopened, true));
+    Assert.assertEquals(
+        "In Doubt!",
+        Arrays.asList(transactionIds[0], transactionIds[1]),
+        new ArrayList<>(recovered.getInDoubt()));
+    Assert.assertTrue("Neither Rolled Back Nor Reattached!", recovered.events.isEmpty());
+    Assert.assertEquals("Nothing Open!", 0, recovered.getOpenTransactionCount());
+
+    try {
+      recovered.resolve(transactionIds[0], true);
+      Assert.fail("Incomplete Transaction Committed!");
+    } catch (IllegalStateException ex) {
+      Assert.assertEquals("Still In Doubt!", 2, recovered.getInDoubt().size());
+      Assert.assertEquals("Disposed!", Collections.singletonList("dispose"), recovered.events);
+    }
+    recovered.resuming = true;
+    recovered.resolve(transactionIds[0], true);
+
+    /* no decision to commit the other one was logged, so it's aborted */
+    Assert.assertEquals(
+        "Nothing To Carry Out!",
+        0,
+        new TwoPhaseCommitCoordinator(Runnable::run, null)
+            .recover(Collections.singletonMap(recovered.getName(), recovered)));
+    Assert.assertEquals(
+        "Decisions Carried Out!",
+        Arrays.asList("dispose", "commit", "rollback null"),
+        recovered.events);
+    Assert.assertTrue("Resolved!", recovered.getInDoubt().isEmpty());
+    Assert.assertTrue("Resolution Logged!", reopened.getUnfinished().isEmpty());
+    reopened.close();
+  }
+}
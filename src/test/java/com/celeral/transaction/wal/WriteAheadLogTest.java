@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2021 Celeral.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.celeral.transaction.wal;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.celeral.transaction.kryo.TransactionKryo;
+
+public class WriteAheadLogTest {
+  private static WriteAheadLog open(Path directory) throws IOException {
+    return WriteAheadLog.open(directory, 4096, TransactionKryo::get);
+  }
+
+  private static Path[] segments(Path directory) throws IOException {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.wal")) {
+      Path[] paths = new Path[0];
+      for (Path path : stream) {
+        paths = Arrays.copyOf(paths, paths.length + 1);
+        paths[paths.length - 1] = path;
+      }
+      Arrays.sort(paths);
+      return paths;
+    }
+  }
+
+  @Test
+  public void testRecovery() throws IOException {
+    final Path directory = Files.createTempDirectory("wal");
+    try (WriteAheadLog log = open(directory)) {
+      log.initialized(1, "first");
+      log.initialized(2, "second");
+      log.initialized(3, "third");
+      log.ended(1, true);
+      log.ended(3, false);
+    }
+
+    try (WriteAheadLog log = open(directory)) {
+      Assert.assertEquals("Highest Id!", 3, log.getHighestTransactionId());
+      final Map<Long, Object> unfinished = log.getUnfinished();
+      Assert.assertEquals("Unfinished!", 1, unfinished.size());
+      Assert.assertEquals("Header!", "second", unfinished.get(2L));
+
+      log.initialized(4, "fourth");
+    }
+
+    /* tear the last record as a crash in the middle of writing it would */
+    try (RandomAccessFile file = new RandomAccessFile(segments(directory)[0].toFile(), "rw")) {
+      final byte[] bytes = new byte[4096];
+      file.readFully(bytes);
+      int last = 0;
+      for (int position = 0; bytes[position + 3] != 0 || bytes[position + 2] != 0; ) {
+        last = position;
+        position += 8 + (bytes[position + 2] & 0xFF) * 256 + (bytes[position + 3] & 0xFF);
+      }
+      file.seek(last + 8 + 9);
+      file.write(~bytes[last + 8 + 9]);
+    }
+
+    try (WriteAheadLog log = open(directory)) {
+      Assert.assertEquals("Torn Record Dropped!", 1, log.getUnfinished().size());
+      log.initialized(5, "fifth");
+    }
+    try (WriteAheadLog log = open(directory)) {
+      Assert.assertEquals(
+          "Appended After Intact Records!", "fifth", log.getUnfinished().get(5L));
+    }
+  }
+
+  @Test
+  public void testPreparedRecovery() throws IOException {
+    final Path directory = Files.createTempDirectory("wal");
+    try (WriteAheadLog log = open(directory)) {
+      log.initialized(1, "first");
+      log.initialized(2, "second");
+      log.initialized(3, "third");
+      log.prepared(1);
+      log.prepared(3);
+      log.ended(3, true);
+    }
+
+    try (WriteAheadLog log = open(directory)) {
+      Assert.assertEquals("Prepared!", Collections.singleton(1L), log.getPrepared());
+      Assert.assertEquals("Unfinished!", 2, log.getUnfinished().size());
+      log.ended(1, false);
+      Assert.assertTrue("Ended!", log.getPrepared().isEmpty());
+    }
+    try (WriteAheadLog log = open(directory)) {
+      Assert.assertTrue("End Recovered!", log.getPrepared().isEmpty());
+    }
+  }
+
+  @Test
+  public void testSegmentRetirement() throws IOException {
+    final Path directory = Files.createTempDirectory("wal");
+    final char[] padding = new char[500];
+    Arrays.fill(padding, 'x');
+    final String header = new String(padding);
+
+    try (WriteAheadLog log = open(directory)) {
+      log.initialized(1, header);
+      for (long id = 2; id < 100; id++) {
+        log.initialized(id, header);
+        log.ended(id, true);
+      }
+      Assert.assertTrue("Pinned By The Open Transaction!", log.getSegmentCount() > 10);
+
+      log.ended(1, false);
+      Assert.assertEquals("Retired!", 1, log.getSegmentCount());
+      Assert.assertEquals("Deleted!", 1, segments(directory).length);
+    }
+
+    try (WriteAheadLog log = open(directory)) {
+      Assert.assertEquals("Nothing Unfinished!", 0, log.getUnfinished().size());
+      Assert.assertEquals("Id Survives Retirement!", 99, log.getHighestTransactionId());
+    }
+  }
+
+  @Test
+  public void testConcurrentAppends() throws Exception {
+    final Path directory = Files.createTempDirectory("wal");
+    final AtomicLong ids = new AtomicLong();
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try (WriteAheadLog log = WriteAheadLog.open(directory)) {
+      final Future<?>[] futures = new Future<?>[8];
+      for (int i = 0; i < futures.length; i++) {
+        futures[i] =
+            executor.submit(
+                () -> {
+                  for (int j = 0; j < 100; j++) {
+                    final long id = ids.incrementAndGet();
+                    log.initialized(id, "header " + id);
+                    if (id % 10 != 0) {
+                      log.ended(id, true);
+                    }
+                  }
+                  return null;
+                });
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    try (WriteAheadLog log = WriteAheadLog.open(directory)) {
+      Assert.assertEquals(800, log.getHighestTransactionId());
+      Assert.assertEquals(80, log.getUnfinished().size());
+      Assert.assertEquals("header 10", log.getUnfinished().get(10L));
+    }
+  }
+}